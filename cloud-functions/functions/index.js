@@ -12,10 +12,26 @@ admin.initializeApp();
 
 const firebaseRef = admin.database().ref('/');
 
+// FCM rejects data payloads larger than this
+const FCM_MAX_DATA_BYTES = 4096;
+
+function dataPayloadSize(data) {
+  var size = 0;
+  for (const key of Object.keys(data)) {
+    size += Buffer.byteLength(key) + Buffer.byteLength(data[key]);
+  }
+  return size;
+}
+
 exports.annotateImage = functions.database.ref('/motion-logs/{id}')
   .onCreate((snapshot, context) => {
     const original = snapshot.val();
     console.log('AnnotatingImage', context.params.pushId, original);
+    // A duplicate frame repeats an event whose original has already been pushed
+    if (original.duplicateOf) {
+      console.log('Skipping duplicate of', original.duplicateOf);
+      return null;
+    }
     const fileName = 'gs://smart-indoor-camera.appspot.com' + original.imageRef;
     console.log('Filename:', fileName);
     const request = {
@@ -34,11 +50,27 @@ exports.annotateImage = functions.database.ref('/motion-logs/{id}')
         timestamp: original.timestamp.toString()
       }
     };
-    return admin.messaging().sendToTopic(topic, payload)
+    if (original.thumbnailRef) {
+      payload.data.thumbnailRef = original.thumbnailRef;
+    }
+    // The micro preview lets the phone show the alert with a picture without a round trip. It is
+    // kept off the log, which the feed downloads, and written alongside it in the same update; it
+    // is sized to fit, but left out rather than have FCM reject the whole message
+    const previewRef = admin.database().ref('/motion-previews/' + context.params.id);
+    return previewRef.once('value')
+      .then(function (previewSnapshot) {
+        const preview = previewSnapshot.val();
+        if (preview && dataPayloadSize(payload.data) + dataPayloadSize({preview: preview}) <= FCM_MAX_DATA_BYTES) {
+          payload.data.preview = preview;
+        }
+        return admin.messaging().sendToTopic(topic, payload);
+      })
       .then(function (response) {
         // See the MessagingTopicResponse reference documentation for the
         // contents of response.
         console.log("Successfully sent message:", response);
+        // Only the push needed it
+        return previewRef.remove();
       })
       .catch(function (error) {
         console.log("Error sending message:", error);
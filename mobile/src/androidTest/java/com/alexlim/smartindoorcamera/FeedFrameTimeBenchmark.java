@@ -0,0 +1,155 @@
+package com.alexlim.smartindoorcamera;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.alexlim.smartindoorcamera.feed.ImageLoadStats;
+import com.alexlim.smartindoorcamera.feed.LogFeed;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls through 5,000 events, a fixed distance per frame, in list and grid layout, and reports
+ * frame time percentiles, janky frames and the most image requests running at once. The events
+ * reuse the images of the newest real logs, so the device needs some to show.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedFrameTimeBenchmark {
+    private static final String TAG = FeedFrameTimeBenchmark.class.getSimpleName();
+
+    private static final int EVENTS = 5000;
+    private static final int STEP_PX = 600;
+    private static final long LOAD_TIMEOUT_MILLIS = 30_000;
+    private static final long SCROLL_TIMEOUT_MINUTES = 10;
+
+    @Test
+    public void listLayout() throws InterruptedException {
+        run(false);
+    }
+
+    @Test
+    public void gridLayout() throws InterruptedException {
+        run(true);
+    }
+
+    private void run(boolean grid) throws InterruptedException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Intent intent = new Intent(instrumentation.getTargetContext(), MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        MainActivity activity = (MainActivity) instrumentation.startActivitySync(intent);
+        RecyclerView recyclerView = activity.findViewById(R.id.recyclerViewImages);
+
+        waitForRows(activity);
+        List<LogEntry> templates = new ArrayList<>();
+        instrumentation.runOnMainSync(() -> {
+            for (int i = 0; i < activity.getFeed().size(); i++) {
+                templates.add(activity.getFeed().get(i));
+            }
+            activity.showFeed(new SyntheticLogPageSource(EVENTS, templates));
+            activity.setGrid(grid);
+        });
+        waitForRows(activity);
+
+        ImageLoadStats stats = activity.getImageStats();
+        instrumentation.runOnMainSync(stats::reset);
+        FrameRecorder recorder = new FrameRecorder(activity.getFeed(), recyclerView);
+        instrumentation.runOnMainSync(recorder::start);
+        assertTrue("Didn't reach the oldest event", recorder.done.await(SCROLL_TIMEOUT_MINUTES, TimeUnit.MINUTES));
+
+        float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        long frameNanos = (long) (1e9 / refreshRate);
+        Log.i(TAG, "run: " + (grid ? "grid " : "list ") + recorder.report(frameNanos) + ", " + stats
+                + ", max rows attached " + recorder.maxChildren);
+        // Only bound rows hold requests: the attached ones, the view cache and a prefetched row
+        assertTrue("Image requests not bounded by bound rows",
+                stats.getMaxInFlight() <= recorder.maxChildren + 2 * MainActivity.FEED_VIEW_CACHE_SIZE);
+        activity.finish();
+    }
+
+    private static void waitForRows(MainActivity activity) {
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MILLIS;
+        while (activity.getFeed().size() == 0 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(100);
+        }
+        assertTrue("No motion logs to show", activity.getFeed().size() > 0);
+    }
+
+    /**
+     * Scrolls one step per frame until the oldest event is on screen, timing the frames.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        private final LogFeed feed;
+        private final RecyclerView recyclerView;
+        private final String oldest = SyntheticLogPageSource.name(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        private long[] intervals = new long[4096];
+        private int count;
+        private long lastFrameNanos;
+        int maxChildren;
+
+        FrameRecorder(LogFeed feed, RecyclerView recyclerView) {
+            this.feed = feed;
+            this.recyclerView = recyclerView;
+        }
+
+        void start() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (lastFrameNanos != 0) {
+                if (count == intervals.length) {
+                    intervals = Arrays.copyOf(intervals, count * 2);
+                }
+                intervals[count++] = frameTimeNanos - lastFrameNanos;
+            }
+            lastFrameNanos = frameTimeNanos;
+            maxChildren = Math.max(maxChildren, recyclerView.getChildCount());
+
+            if (feed.size() > 0 && feed.get(feed.size() - 1).getName().equals(oldest)
+                    && !recyclerView.canScrollVertically(1)) {
+                done.countDown();
+                return;
+            }
+            recyclerView.scrollBy(0, STEP_PX);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        String report(long frameNanos) {
+            long[] sorted = Arrays.copyOf(intervals, count);
+            Arrays.sort(sorted);
+            int janky = 0;
+            for (long interval : sorted) {
+                if (interval > frameNanos * 3 / 2) {
+                    janky++;
+                }
+            }
+            return String.format(Locale.US, "%d frames p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms janky=%.1f%%",
+                    count, percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    sorted[count - 1] / 1e6, 100.0 * janky / count);
+        }
+
+        private static double percentile(long[] sorted, int percentile) {
+            return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.alexlim.smartindoorcamera;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.alexlim.smartindoorcamera.feed.ImageLoadStats;
+import com.bumptech.glide.Glide;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flings down the live feed with preloading off and then on, starting from an empty memory cache
+ * each time, and reports how many rows came on screen before their image was ready. Runs against
+ * the live database, so it needs a device with motion logs to show.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedPreloadBenchmark {
+    private static final String TAG = FeedPreloadBenchmark.class.getSimpleName();
+
+    // About 9000 px/s at 60 fps, a brisk fling
+    private static final int STEP_PX = 150;
+    private static final long STEP_MILLIS = 16;
+    private static final int MAX_STEPS = 2000;
+    private static final long SETTLE_MILLIS = 3000;
+    private static final long LOAD_TIMEOUT_MILLIS = 30_000;
+
+    @Test
+    public void blankRowsWithAndWithoutPreloading() {
+        double without = fling(false);
+        double with = fling(true);
+        Log.i(TAG, "blankRowsWithAndWithoutPreloading: shown before ready " + without + " without, " + with + " with");
+        assertTrue("Preloading left more rows blank", with <= without);
+    }
+
+    private double fling(boolean preloading) {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Intent intent = new Intent(instrumentation.getTargetContext(), MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        MainActivity activity = (MainActivity) instrumentation.startActivitySync(intent);
+        RecyclerView recyclerView = activity.findViewById(R.id.recyclerViewImages);
+
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MILLIS;
+        while (activity.getFeed().size() == 0 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(100);
+        }
+        assertTrue("No motion logs to scroll through", activity.getFeed().size() > 0);
+        instrumentation.waitForIdleSync();
+        SystemClock.sleep(SETTLE_MILLIS);
+
+        ImageLoadStats stats = activity.getImageStats();
+        instrumentation.runOnMainSync(() -> {
+            // Only the rows on screen keep their images; everything ahead has to load
+            Glide.get(activity).clearMemory();
+            activity.setPreloading(preloading);
+            stats.reset();
+        });
+        for (int i = 0; i < MAX_STEPS; i++) {
+            boolean[] moved = new boolean[1];
+            instrumentation.runOnMainSync(() -> {
+                moved[0] = recyclerView.canScrollVertically(1);
+                recyclerView.scrollBy(0, STEP_PX);
+            });
+            if (!moved[0]) {
+                break;
+            }
+            SystemClock.sleep(STEP_MILLIS);
+        }
+        instrumentation.waitForIdleSync();
+        SystemClock.sleep(SETTLE_MILLIS);
+
+        Log.i(TAG, "fling: preloading " + preloading + " " + stats + ", " + activity.getPreloader());
+        double rate = stats.getShownBeforeReadyRate();
+        activity.finish();
+        return rate;
+    }
+}
@@ -0,0 +1,88 @@
+package com.alexlim.smartindoorcamera;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.alexlim.smartindoorcamera.feed.ImageLoadStats;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls the feed to the end of the resident window and back a few times, and reports image cache
+ * hit rate and bind-to-pixels latency for each pass. Runs against the live database, so it needs
+ * a device with motion logs to show; numbers go to logcat under this class's tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedScrollBenchmark {
+    private static final String TAG = FeedScrollBenchmark.class.getSimpleName();
+
+    private static final int PASSES = 3;
+    private static final int STEP_PX = 300;
+    private static final long STEP_MILLIS = 32;
+    private static final int MAX_STEPS = 400;
+    private static final long SETTLE_MILLIS = 3000;
+    private static final long LOAD_TIMEOUT_MILLIS = 30_000;
+
+    @Test
+    public void scrollDownAndBack() {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        Intent intent = new Intent(instrumentation.getTargetContext(), MainActivity.class)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        MainActivity activity = (MainActivity) instrumentation.startActivitySync(intent);
+        RecyclerView recyclerView = activity.findViewById(R.id.recyclerViewImages);
+        ImageLoadStats stats = activity.getImageStats();
+
+        long deadline = SystemClock.elapsedRealtime() + LOAD_TIMEOUT_MILLIS;
+        while (activity.getFeed().size() == 0 && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(100);
+        }
+        assertTrue("No motion logs to scroll through", activity.getFeed().size() > 0);
+        settle(instrumentation);
+
+        double firstHitRate = 0;
+        double lastHitRate = 0;
+        for (int pass = 0; pass < PASSES; pass++) {
+            instrumentation.runOnMainSync(stats::reset);
+            scroll(instrumentation, recyclerView, STEP_PX);
+            scroll(instrumentation, recyclerView, -STEP_PX);
+            settle(instrumentation);
+
+            Log.i(TAG, "scrollDownAndBack: pass " + pass + " " + stats + ", " + activity.getFeed());
+            if (pass == 0) {
+                firstHitRate = stats.getHitRate();
+            }
+            lastHitRate = stats.getHitRate();
+        }
+        // Scrolling over images already seen shouldn't go back to the network
+        assertTrue("Hit rate fell from " + firstHitRate + " to " + lastHitRate, lastHitRate >= firstHitRate);
+        activity.finish();
+    }
+
+    private static void scroll(Instrumentation instrumentation, RecyclerView recyclerView, int stepPx) {
+        for (int i = 0; i < MAX_STEPS; i++) {
+            boolean[] moved = new boolean[1];
+            instrumentation.runOnMainSync(() -> {
+                moved[0] = recyclerView.canScrollVertically(stepPx);
+                recyclerView.scrollBy(0, stepPx);
+            });
+            if (!moved[0]) {
+                return;
+            }
+            SystemClock.sleep(STEP_MILLIS);
+        }
+    }
+
+    private static void settle(Instrumentation instrumentation) {
+        instrumentation.waitForIdleSync();
+        SystemClock.sleep(SETTLE_MILLIS);
+    }
+}
@@ -0,0 +1,71 @@
+package com.alexlim.smartindoorcamera;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.alexlim.smartindoorcamera.feed.LogPageSource;
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A feed of any length for benchmarks, cycling through the images of some real logs. Pages are
+ * answered on the main thread after a post, like the database does.
+ */
+class SyntheticLogPageSource implements LogPageSource {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Ascending, like the database
+    private final List<LogEntry> logs = new ArrayList<>();
+
+    SyntheticLogPageSource(int count, List<LogEntry> templates) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            FirebaseImageLog template = templates.get(i % templates.size()).getLog();
+            FirebaseImageLog log = new FirebaseImageLog(now - (count - i) * 60_000L, template.getImageRef(),
+                    template.getThumbnailRef(), template.getFrameCount());
+            logs.add(new LogEntry(name(i), log));
+        }
+    }
+
+    static String name(int i) {
+        return String.format(Locale.US, "synthetic%06d", i);
+    }
+
+    @Override
+    public void loadNewest(int limit, PageCallback callback) {
+        answer(callback, Math.max(0, logs.size() - limit), logs.size());
+    }
+
+    @Override
+    public void loadOlder(long timestamp, String name, int limit, PageCallback callback) {
+        int end = indexOf(name);
+        answer(callback, Math.max(0, end - limit), end);
+    }
+
+    @Override
+    public void loadNewer(long timestamp, String name, int limit, PageCallback callback) {
+        int start = indexOf(name) + 1;
+        answer(callback, start, Math.min(logs.size(), start + limit));
+    }
+
+    @Override
+    public Registration listen(long timestamp, String name, LiveCallback callback) {
+        return () -> {
+        };
+    }
+
+    private int indexOf(String name) {
+        return Integer.parseInt(name.substring("synthetic".length()));
+    }
+
+    private void answer(PageCallback callback, int from, int to) {
+        List<LogEntry> page = new ArrayList<>();
+        for (int i = to - 1; i >= from; i--) {
+            page.add(logs.get(i));
+        }
+        handler.post(() -> callback.onPage(page));
+    }
+}
@@ -0,0 +1,186 @@
+package com.alexlim.smartindoorcamera;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.alexlim.smartindoorcamera.model.BundleFrame;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+/**
+ * Loads a single frame out of an event bundle with two HTTP range reads, one for the offset table
+ * and one for the frame, instead of downloading the whole event.
+ * <p>
+ * Bundle layout, big-endian: magic "SICB" (4), version (2), frame count (2), then per frame
+ * capture time (8), image offset (4), image length (4), thumbnail offset (4), thumbnail length
+ * (4, 0 if none), then the frame bytes. Offsets are from the start of the object.
+ */
+public class BundleFrameLoader implements ModelLoader<BundleFrame, InputStream> {
+    private static final int MAGIC = 0x53494342;
+    private static final int HEADER_BYTES = 8;
+    private static final int INDEX_ENTRY_BYTES = 24;
+    private static final int TIMEOUT_MS = 15_000;
+
+    private final DownloadUrlCache urls;
+
+    BundleFrameLoader(DownloadUrlCache urls) {
+        this.urls = urls;
+    }
+
+    @Nullable
+    @Override
+    public LoadData<InputStream> buildLoadData(@NonNull BundleFrame frame, int width, int height, @NonNull Options options) {
+        return new LoadData<>(new ObjectKey(frame), new BundleFrameFetcher(urls, frame));
+    }
+
+    @Override
+    public boolean handles(@NonNull BundleFrame frame) {
+        return true;
+    }
+
+    public static class Factory implements ModelLoaderFactory<BundleFrame, InputStream> {
+        private final DownloadUrlCache urls;
+
+        public Factory(DownloadUrlCache urls) {
+            this.urls = urls;
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<BundleFrame, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new BundleFrameLoader(urls);
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+
+    private static class BundleFrameFetcher implements DataFetcher<InputStream> {
+        private final DownloadUrlCache urls;
+        private final BundleFrame frame;
+        private volatile boolean cancelled;
+
+        BundleFrameFetcher(DownloadUrlCache urls, BundleFrame frame) {
+            this.urls = urls;
+            this.frame = frame;
+        }
+
+        // Runs on one of Glide's source threads, so blocking here is expected
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+            try {
+                Uri uri = urls.resolve(frame.getBundleRef());
+                URL url = new URL(uri.toString());
+
+                ByteBuffer index = ByteBuffer.wrap(readRange(url, 0, HEADER_BYTES + frame.getFrameCount() * INDEX_ENTRY_BYTES));
+                if (index.getInt() != MAGIC) {
+                    throw new IOException("Not an event bundle: " + frame.getBundleRef());
+                }
+                index.getShort();
+                int frameCount = index.getShort() & 0xffff;
+                if (frame.getIndex() >= frameCount) {
+                    throw new IOException("No frame " + frame.getIndex() + " in " + frame.getBundleRef());
+                }
+
+                index.position(HEADER_BYTES + frame.getIndex() * INDEX_ENTRY_BYTES + 8);
+                int imageOffset = index.getInt();
+                int imageLength = index.getInt();
+                int thumbnailOffset = index.getInt();
+                int thumbnailLength = index.getInt();
+                boolean useThumbnail = frame.isThumbnail() && thumbnailLength > 0;
+                byte[] data = useThumbnail ? readRange(url, thumbnailOffset, thumbnailLength) : readRange(url, imageOffset, imageLength);
+                callback.onDataReady(new ByteArrayInputStream(data));
+            } catch (Exception e) {
+                callback.onLoadFailed(e);
+            }
+        }
+
+        private byte[] readRange(URL url, long offset, int length) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+            try {
+                int status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_FORBIDDEN || status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    urls.invalidate(frame.getBundleRef());
+                }
+                if (status != HttpURLConnection.HTTP_PARTIAL && status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Range read failed with HTTP " + status);
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    if (status == HttpURLConnection.HTTP_OK) {
+                        // Range ignored: the whole object is coming, skip up to the range
+                        skipFully(in, offset);
+                    }
+                    return readFully(in, length);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private static void skipFully(InputStream in, long count) throws IOException {
+            while (count > 0) {
+                long skipped = in.skip(count);
+                if (skipped <= 0) {
+                    throw new IOException("Bundle shorter than its index says.");
+                }
+                count -= skipped;
+            }
+        }
+
+        private byte[] readFully(InputStream in, int length) throws IOException {
+            byte[] data = new byte[length];
+            int read = 0;
+            while (read < length) {
+                if (cancelled) {
+                    throw new IOException("Cancelled.");
+                }
+                int n = in.read(data, read, length - read);
+                if (n < 0) {
+                    throw new IOException("Bundle shorter than its index says.");
+                }
+                read += n;
+            }
+            return data;
+        }
+
+        @Override
+        public void cleanup() {
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @NonNull
+        @Override
+        public Class<InputStream> getDataClass() {
+            return InputStream.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.REMOTE;
+        }
+    }
+}
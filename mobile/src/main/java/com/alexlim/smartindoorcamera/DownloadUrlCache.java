@@ -0,0 +1,63 @@
+package com.alexlim.smartindoorcamera;
+
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.storage.FirebaseStorage;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Download URLs of Storage objects by path. A download URL stays valid until its token is revoked,
+ * so each object costs one metadata round trip per process instead of one per load.
+ */
+public class DownloadUrlCache {
+    private static final long TIMEOUT_SECONDS = 15;
+
+    private final LruCache<String, Uri> urls;
+    private volatile long hits;
+    private volatile long misses;
+
+    public DownloadUrlCache(int maxEntries) {
+        urls = new LruCache<>(maxEntries);
+    }
+
+    /**
+     * Blocks on a miss, so it must be called off the main thread.
+     */
+    public Uri resolve(String path) throws ExecutionException, InterruptedException, TimeoutException {
+        Uri uri = urls.get(path);
+        if (uri != null) {
+            hits++;
+            return uri;
+        }
+        misses++;
+        uri = Tasks.await(FirebaseStorage.getInstance().getReference(path).getDownloadUrl(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        urls.put(path, uri);
+        return uri;
+    }
+
+    /**
+     * Forgets a URL the server has stopped honouring, so the next load resolves it again.
+     */
+    public void invalidate(String path) {
+        urls.remove(path);
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "urls: %d cached, hits=%d misses=%d", urls.size(), hits, misses);
+    }
+}
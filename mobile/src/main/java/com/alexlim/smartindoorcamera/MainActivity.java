@@ -3,31 +3,72 @@ package com.alexlim.smartindoorcamera;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
+import com.alexlim.smartindoorcamera.adapter.FeedPreloader;
 import com.alexlim.smartindoorcamera.adapter.LogAdapter;
-import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
-import com.firebase.ui.database.FirebaseRecyclerOptions;
+import com.alexlim.smartindoorcamera.feed.FileLogCache;
+import com.alexlim.smartindoorcamera.feed.FirebaseLogPageSource;
+import com.alexlim.smartindoorcamera.feed.ImageLoadStats;
+import com.alexlim.smartindoorcamera.feed.LogCache;
+import com.alexlim.smartindoorcamera.feed.LogFeed;
+import com.alexlim.smartindoorcamera.feed.LogPageSource;
+import com.bumptech.glide.Glide;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
-    private static String ORDER_BY_TIMESTAMP = "timestamp";
     private static String FIREBASE_MOTION_LOGS_REF = "motion-logs";
     private static String FIREBASE_ON_OFF_REF = "OnOff";
 
+    // Logs per page, and how many pages stay in memory and bound at once
+    private static final int FEED_PAGE_SIZE = 30;
+    private static final int FEED_MAX_RESIDENT_PAGES = 4;
+    private static final int FEED_PREFETCH_ROWS = 10;
+    private static final String FEED_CACHE_FILE = "feed_logs";
+    private static final int FEED_CACHE_MAX_LOGS = 30;
+    private static final int FEED_CACHE_MAX_BYTES = 32 * 1024;
+    private static final int FEED_GRID_COLUMNS = 3;
+    static final int FEED_VIEW_CACHE_SIZE = 4;
+    private static final String PREF_GRID = "feed_grid";
+    // Preload the images of the rows covering this much scrolling ahead, within these bounds
+    private static final long PRELOAD_LOOKAHEAD_MILLIS = 400;
+    private static final int PRELOAD_MIN_ITEMS = 3;
+    private static final int PRELOAD_MAX_ITEMS = 24;
+    private static final int PRELOAD_MAX_IN_FLIGHT = 6;
+
+    private LogFeed feed;
+    private final ImageLoadStats imageStats = new ImageLoadStats();
     private LogAdapter adapter;
+    private FeedPreloader preloader;
+    private RecyclerView recyclerViewImages;
+    private boolean atTop = true;
+    private final Executor feedCacheExecutor = Executors.newSingleThreadExecutor();
+    // From process start on a cold start, otherwise from when the feed was shown; -1 until drawn
+    private long firstRowMillis = -1;
     private SwitchCompat armSystemToggleButton;
     private ImageView armSystemImageView;
 
@@ -37,32 +78,161 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
 //        FirebaseMessaging.getInstance().subscribeToTopic("motions");
-//        FirebaseDatabase.getInstance().setPersistenceEnabled(true);
 
         setupMotionLogsRecyclerView();
         setupArmSystemToggle();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        feed.writeCache();
+        Log.d(TAG, "onStop: firstRow=" + firstRowMillis + "ms, " + feed + ", " + imageStats + ", " + preloader);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        feed.stop();
+    }
+
+    ImageLoadStats getImageStats() {
+        return imageStats;
+    }
+
+    LogFeed getFeed() {
+        return feed;
+    }
+
+    FeedPreloader getPreloader() {
+        return preloader;
+    }
+
+    long getFirstRowMillis() {
+        return firstRowMillis;
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_grid).setChecked(isGrid());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_grid) {
+            boolean grid = !item.isChecked();
+            item.setChecked(grid);
+            setGrid(grid);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     private void setupMotionLogsRecyclerView() {
-        RecyclerView recyclerViewImages = findViewById(R.id.recyclerViewImages);
-        recyclerViewImages.setNestedScrollingEnabled(false);
+        recyclerViewImages = findViewById(R.id.recyclerViewImages);
+        recyclerViewImages.setHasFixedSize(true);
+        // Only bound rows hold an image request, so this and the visible rows bound how many run
+        recyclerViewImages.setItemViewCacheSize(FEED_VIEW_CACHE_SIZE);
 
         DatabaseReference dbRef = FirebaseDatabase.getInstance().getReference(FIREBASE_MOTION_LOGS_REF);
+        // Keeps the newest page in the database's disk cache even while nothing listens to it
+        dbRef.orderByChild("timestamp").limitToLast(FEED_PAGE_SIZE).keepSynced(true);
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        LogCache cache = new FileLogCache(new File(getFilesDir(), FEED_CACHE_FILE), FEED_CACHE_MAX_LOGS,
+                FEED_CACHE_MAX_BYTES, feedCacheExecutor, mainHandler::post);
+        showFeed(new FirebaseLogPageSource(dbRef), cache);
 
-        adapter = new LogAdapter(new FirebaseRecyclerOptions.Builder<FirebaseImageLog>().setQuery(dbRef.orderByChild(ORDER_BY_TIMESTAMP).getRef(), FirebaseImageLog.class).setLifecycleOwner(this).build());
-//        FirebaseRecyclerOptions<FirebaseImageLog> options = new FirebaseRecyclerOptions.Builder<FirebaseImageLog>().setQuery(dbRef.orderByChild(ORDER_BY_TIMESTAMP), FirebaseImageLog.class).setLifecycleOwner(this).build();
-//        adapter = new LogAdapter(options);
+        recyclerViewImages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                atTop = !recyclerView.canScrollVertically(-1);
+                // Pages can't be added while the list is scrolling, so ask for them afterwards
+                recyclerView.post(MainActivity.this::reportVisibleRows);
+            }
+        });
+    }
 
-        LinearLayoutManager linearLayoutManager = new LinearLayoutManager(this);
-        linearLayoutManager.setReverseLayout(true);
-        linearLayoutManager.setStackFromEnd(true);
-        recyclerViewImages.setLayoutManager(linearLayoutManager);
+    /**
+     * Shows a fresh feed of the logs in {@code source}.
+     */
+    void showFeed(LogPageSource source) {
+        showFeed(source, null);
+    }
+
+    private void showFeed(LogPageSource source, LogCache cache) {
+        if (feed != null) {
+            feed.stop();
+        }
+        feed = new LogFeed(source, cache, FEED_PAGE_SIZE, FEED_MAX_RESIDENT_PAGES, FEED_PREFETCH_ROWS);
+        adapter = new LogAdapter(feed, imageStats);
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                // Someone watching the top wants to see new logs come in rather than have them
+                // added above out of sight
+                if (positionStart == 0 && atTop) {
+                    recyclerViewImages.scrollToPosition(0);
+                }
+                recyclerViewImages.post(MainActivity.this::reportVisibleRows);
+            }
+        });
+        if (preloader != null) {
+            recyclerViewImages.removeOnScrollListener(preloader);
+        }
+        preloader = new FeedPreloader(Glide.with(this), adapter, PRELOAD_MIN_ITEMS, PRELOAD_MAX_ITEMS,
+                PRELOAD_MAX_IN_FLIGHT, PRELOAD_LOOKAHEAD_MILLIS);
+        recyclerViewImages.addOnScrollListener(preloader);
+        atTop = true;
         recyclerViewImages.setAdapter(adapter);
+        applyLayout(isGrid());
+        measureFirstRow();
+        feed.start();
+    }
+
+    private void measureFirstRow() {
+        long coldStartMillis = ((SmartIndoorCameraApplication) getApplication()).takeColdStartMillis();
+        long fromMillis = coldStartMillis >= 0 ? coldStartMillis : SystemClock.uptimeMillis();
+        firstRowMillis = -1;
+        recyclerViewImages.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (recyclerViewImages.getChildCount() > 0) {
+                    firstRowMillis = SystemClock.uptimeMillis() - fromMillis;
+                    Log.d(TAG, "measureFirstRow: " + firstRowMillis + "ms" + (coldStartMillis >= 0 ? " from cold start, " : ", ") + feed);
+                    recyclerViewImages.getViewTreeObserver().removeOnPreDrawListener(this);
+                }
+                return true;
+            }
+        });
+    }
+
+    void setPreloading(boolean preloading) {
+        preloader.setEnabled(preloading);
+    }
+
+    private boolean isGrid() {
+        return PreferenceManager.getDefaultSharedPreferences(this).getBoolean(PREF_GRID, false);
+    }
+
+    void setGrid(boolean grid) {
+        PreferenceManager.getDefaultSharedPreferences(this).edit().putBoolean(PREF_GRID, grid).apply();
+        applyLayout(grid);
+    }
+
+    private void applyLayout(boolean grid) {
+        adapter.setGrid(grid);
+        recyclerViewImages.setLayoutManager(grid ? new GridLayoutManager(this, FEED_GRID_COLUMNS) : new LinearLayoutManager(this));
+    }
+
+    private void reportVisibleRows() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerViewImages.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first != RecyclerView.NO_POSITION) {
+            feed.onVisibleRange(first, last);
+        }
     }
 
     private void setupArmSystemToggle() {
@@ -3,24 +3,51 @@ package com.alexlim.smartindoorcamera;
 import android.content.Context;
 import androidx.annotation.NonNull;
 
+import com.alexlim.smartindoorcamera.model.BundleFrame;
+import com.alexlim.smartindoorcamera.model.StorageImage;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
 import com.bumptech.glide.Registry;
 import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
 import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
 import com.firebase.ui.storage.images.FirebaseImageLoader;
 import com.google.firebase.storage.StorageReference;
 
 import java.io.InputStream;
 
 /**
- * Glide module to register {@link com.firebase.ui.storage.images.FirebaseImageLoader}.
+ * Glide module to register {@link com.firebase.ui.storage.images.FirebaseImageLoader},
+ * {@link StorageImageLoader} for images by path, and {@link BundleFrameLoader} for frames inside
+ * event bundles.
  * See: http://bumptech.github.io/glide/doc/generatedapi.html
  */
 @GlideModule
 public class MyAppGlideModule extends AppGlideModule {
+    private static final int MAX_CACHED_URLS = 2000;
+    private static final long IMAGE_DISK_CACHE_BYTES = 100 * 1024 * 1024;
+
+    private final DownloadUrlCache urls = new DownloadUrlCache(MAX_CACHED_URLS);
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        // Objects never change, so the downloaded bytes are cached once and decoded at whatever
+        // size each view needs
+        builder.setDefaultRequestOptions(new RequestOptions()
+                .diskCacheStrategy(DiskCacheStrategy.DATA)
+                .downsample(DownsampleStrategy.CENTER_INSIDE));
+        // Keyed by object path, so the cached feed's thumbnails show before any download URL is
+        // resolved, and offline
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, IMAGE_DISK_CACHE_BYTES));
+    }
 
     @Override
     public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
         registry.append(StorageReference.class, InputStream.class, new FirebaseImageLoader.Factory());
+        registry.append(StorageImage.class, InputStream.class, new StorageImageLoader.Factory(urls));
+        registry.append(BundleFrame.class, InputStream.class, new BundleFrameLoader.Factory(urls));
     }
 }
@@ -0,0 +1,35 @@
+package com.alexlim.smartindoorcamera;
+
+import android.app.Application;
+import android.os.SystemClock;
+
+import com.google.firebase.database.FirebaseDatabase;
+
+public class SmartIndoorCameraApplication extends Application {
+    // Firebase's copy of synced data on disk, so queries answer from it before the network does
+    private static final long DATABASE_CACHE_BYTES = 10 * 1024 * 1024;
+
+    private long startMillis;
+    private boolean coldStart = true;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startMillis = SystemClock.uptimeMillis();
+        // Has to come before anything else uses the database
+        FirebaseDatabase database = FirebaseDatabase.getInstance();
+        database.setPersistenceEnabled(true);
+        database.setPersistenceCacheSizeBytes(DATABASE_CACHE_BYTES);
+    }
+
+    /**
+     * @return when the process started, the first time it is called, or -1 after that
+     */
+    long takeColdStartMillis() {
+        if (!coldStart) {
+            return -1;
+        }
+        coldStart = false;
+        return startMillis;
+    }
+}
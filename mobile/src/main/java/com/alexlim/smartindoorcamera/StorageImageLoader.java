@@ -0,0 +1,138 @@
+package com.alexlim.smartindoorcamera;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.alexlim.smartindoorcamera.model.StorageImage;
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.HttpException;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.data.HttpUrlFetcher;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Loads a Storage object over its download URL, resolved through a {@link DownloadUrlCache}.
+ * The cache key is the object path rather than the URL, whose token can change, so the disk cache
+ * keeps serving an image however its URL was obtained.
+ */
+public class StorageImageLoader implements ModelLoader<StorageImage, InputStream> {
+    private static final int TIMEOUT_MS = 15_000;
+
+    private final DownloadUrlCache urls;
+
+    StorageImageLoader(DownloadUrlCache urls) {
+        this.urls = urls;
+    }
+
+    @Nullable
+    @Override
+    public LoadData<InputStream> buildLoadData(@NonNull StorageImage image, int width, int height, @NonNull Options options) {
+        return new LoadData<>(new ObjectKey(image.getImageRef()), new StorageImageFetcher(urls, image.getImageRef()));
+    }
+
+    @Override
+    public boolean handles(@NonNull StorageImage image) {
+        return true;
+    }
+
+    public static class Factory implements ModelLoaderFactory<StorageImage, InputStream> {
+        private final DownloadUrlCache urls;
+
+        public Factory(DownloadUrlCache urls) {
+            this.urls = urls;
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<StorageImage, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new StorageImageLoader(urls);
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+
+    private static class StorageImageFetcher implements DataFetcher<InputStream> {
+        private final DownloadUrlCache urls;
+        private final String imageRef;
+        private volatile HttpUrlFetcher http;
+        private volatile boolean cancelled;
+
+        StorageImageFetcher(DownloadUrlCache urls, String imageRef) {
+            this.urls = urls;
+            this.imageRef = imageRef;
+        }
+
+        // Runs on one of Glide's source threads, so blocking on a URL miss is expected
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+            Uri uri;
+            try {
+                uri = urls.resolve(imageRef);
+            } catch (Exception e) {
+                callback.onLoadFailed(e);
+                return;
+            }
+            if (cancelled) {
+                return;
+            }
+            http = new HttpUrlFetcher(new GlideUrl(uri.toString()), TIMEOUT_MS);
+            http.loadData(priority, new DataCallback<InputStream>() {
+                @Override
+                public void onDataReady(@Nullable InputStream data) {
+                    callback.onDataReady(data);
+                }
+
+                @Override
+                public void onLoadFailed(@NonNull Exception e) {
+                    if (e instanceof HttpException) {
+                        int status = ((HttpException) e).getStatusCode();
+                        if (status == HttpURLConnection.HTTP_FORBIDDEN || status == HttpURLConnection.HTTP_NOT_FOUND) {
+                            urls.invalidate(imageRef);
+                        }
+                    }
+                    callback.onLoadFailed(e);
+                }
+            });
+        }
+
+        @Override
+        public void cleanup() {
+            if (http != null) {
+                http.cleanup();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (http != null) {
+                http.cancel();
+            }
+        }
+
+        @NonNull
+        @Override
+        public Class<InputStream> getDataClass() {
+            return InputStream.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.REMOTE;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.alexlim.smartindoorcamera.adapter;
+
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.alexlim.smartindoorcamera.view.LogsViewHolder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Loads the images of the rows about to scroll into view, at the size their views will decode
+ * them at, so they come out of the memory cache when bound.
+ * <p>
+ * How far ahead it looks follows the scroll speed: enough rows to cover the next
+ * {@code lookaheadMillis} of scrolling, within {@code [minItems, maxItems]}. At most
+ * {@code maxInFlight} preloads run at once so they don't crowd out the visible rows' loads, and
+ * those still running are cancelled when the scroll turns around.
+ */
+public class FeedPreloader extends RecyclerView.OnScrollListener {
+    // A pause this long between scroll events starts a new gesture
+    private static final long GESTURE_GAP_MILLIS = 100;
+    private static final double VELOCITY_SMOOTHING = 0.3;
+
+    private final RequestManager glide;
+    private final LogAdapter adapter;
+    private final int minItems;
+    private final int maxItems;
+    private final int maxInFlight;
+    private final long lookaheadMillis;
+
+    // Item ID to its preload; the target is null while the request is being started
+    private final Map<Long, Target<Drawable>> inFlight = new HashMap<>();
+    private final Map<Long, Boolean> recent;
+    private RecyclerView recyclerView;
+    private boolean enabled = true;
+    private boolean down = true;
+    private double velocityPxPerMs;
+    private long lastScrollMillis;
+
+    private long started;
+    private long completed;
+    private long cancelled;
+
+    public FeedPreloader(RequestManager glide, LogAdapter adapter, int minItems, int maxItems, int maxInFlight,
+                         long lookaheadMillis) {
+        this.glide = glide;
+        this.adapter = adapter;
+        this.minItems = minItems;
+        this.maxItems = maxItems;
+        this.maxInFlight = maxInFlight;
+        this.lookaheadMillis = lookaheadMillis;
+        // Rows preloaded lately, so scrolling back and forth doesn't preload them again
+        int recentSize = 4 * maxItems;
+        this.recent = new LinkedHashMap<Long, Boolean>(recentSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > recentSize;
+            }
+        };
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cancelAll();
+        }
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        this.recyclerView = recyclerView;
+        if (!enabled || dy == 0) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastScrollMillis;
+        lastScrollMillis = now;
+        double velocity = Math.abs(dy) / (double) Math.max(1, Math.min(elapsed, GESTURE_GAP_MILLIS));
+        if ((dy > 0) != down) {
+            // Turned around: what was ahead is now behind
+            down = dy > 0;
+            cancelAll();
+            velocityPxPerMs = velocity;
+        } else if (elapsed > GESTURE_GAP_MILLIS) {
+            velocityPxPerMs = velocity;
+        } else {
+            velocityPxPerMs += VELOCITY_SMOOTHING * (velocity - velocityPxPerMs);
+        }
+        preload();
+    }
+
+    private void preload() {
+        if (recyclerView == null || recyclerView.getChildCount() == 0) {
+            return;
+        }
+        LogsViewHolder holder = (LogsViewHolder) recyclerView.getChildViewHolder(recyclerView.getChildAt(0));
+        int width = holder.getImageWidth();
+        int height = holder.getImageHeight();
+        int rowHeight = holder.itemView.getHeight();
+        if (width <= 0 || height <= 0 || rowHeight <= 0) {
+            return;
+        }
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int columns = layoutManager instanceof GridLayoutManager ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+        int rowsAhead = (int) Math.ceil(velocityPxPerMs * lookaheadMillis / rowHeight);
+        int items = Math.max(minItems, Math.min(maxItems, rowsAhead * columns));
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        for (int i = 1; i <= items && inFlight.size() < maxInFlight; i++) {
+            int position = down ? last + i : first - i;
+            if (position < 0 || position >= adapter.getItemCount()) {
+                break;
+            }
+            long id = adapter.getItemId(position);
+            if (inFlight.containsKey(id) || recent.containsKey(id)) {
+                continue;
+            }
+            start(id, position, width, height);
+        }
+    }
+
+    private void start(long id, int position, int width, int height) {
+        inFlight.put(id, null);
+        recent.put(id, true);
+        started++;
+        Target<Drawable> target = LogsViewHolder.imageRequest(glide, adapter.getFeed().get(position).getLog(), adapter.isGrid())
+                .listener(new RequestListener<Drawable>() {
+                    @Override
+                    public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
+                        onDone(id);
+                        return false;
+                    }
+
+                    @Override
+                    public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target, DataSource dataSource, boolean isFirstResource) {
+                        onDone(id);
+                        return false;
+                    }
+                })
+                .preload(width, height);
+        // Already in the memory cache, the request finishes before preload() returns
+        if (inFlight.containsKey(id)) {
+            inFlight.put(id, target);
+        }
+    }
+
+    private void onDone(long id) {
+        if (!inFlight.containsKey(id)) {
+            return;
+        }
+        inFlight.remove(id);
+        completed++;
+        if (enabled && recyclerView != null) {
+            // A slot freed up; keep filling ahead of the scroll
+            recyclerView.post(this::preload);
+        }
+    }
+
+    private void cancelAll() {
+        for (Map.Entry<Long, Target<Drawable>> entry : new ArrayList<>(inFlight.entrySet())) {
+            if (entry.getValue() != null) {
+                glide.clear(entry.getValue());
+            }
+            recent.remove(entry.getKey());
+            cancelled++;
+        }
+        inFlight.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "preload: %s started=%d completed=%d cancelled=%d inFlight=%d velocity=%.2fpx/ms",
+                enabled ? "on" : "off", started, completed, cancelled, inFlight.size(), velocityPxPerMs);
+    }
+}
@@ -4,35 +4,119 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.alexlim.smartindoorcamera.R;
-import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.feed.ImageLoadStats;
+import com.alexlim.smartindoorcamera.feed.LogFeed;
 import com.alexlim.smartindoorcamera.view.LogsViewHolder;
-import com.firebase.ui.database.FirebaseRecyclerAdapter;
-import com.firebase.ui.database.FirebaseRecyclerOptions;
 
-public class LogAdapter extends FirebaseRecyclerAdapter<FirebaseImageLog, LogsViewHolder> {
-    /**
-     * Initialize a {@link RecyclerView.Adapter} that listens to a Firebase query. See
-     * {@link FirebaseRecyclerOptions} for configuration options.
-     *
-     * @param options
-     */
-    public LogAdapter(FirebaseRecyclerOptions<FirebaseImageLog> options) {
-        super(options);
+/**
+ * Shows the logs resident in a {@link LogFeed}, newest first, as list rows or grid cells. Item IDs
+ * are derived from the logs' push keys, so rows keep their identity as pages come and go.
+ */
+public class LogAdapter extends RecyclerView.Adapter<LogsViewHolder> implements LogFeed.Listener {
+    private static final int VIEW_TYPE_ROW = 0;
+    private static final int VIEW_TYPE_CELL = 1;
+
+    private final LogFeed feed;
+    private final ImageLoadStats imageStats;
+    private boolean grid;
+
+    public LogAdapter(LogFeed feed, ImageLoadStats imageStats) {
+        this.feed = feed;
+        this.imageStats = imageStats;
+        setHasStableIds(true);
+        feed.setListener(this);
+    }
+
+    public void setGrid(boolean grid) {
+        if (this.grid != grid) {
+            this.grid = grid;
+            notifyDataSetChanged();
+        }
+    }
+
+    public boolean isGrid() {
+        return grid;
+    }
+
+    public LogFeed getFeed() {
+        return feed;
     }
 
     @Override
-    protected void onBindViewHolder(LogsViewHolder logsViewHolder, int i, FirebaseImageLog firebaseImageLog) {
-        logsViewHolder.setLog(firebaseImageLog);
+    public int getItemViewType(int position) {
+        return grid ? VIEW_TYPE_CELL : VIEW_TYPE_ROW;
     }
 
     @Override
-    public LogsViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item_log, parent, false);
+    public long getItemId(int position) {
+        return pushKeyId(feed.get(position).getName());
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull LogsViewHolder logsViewHolder, int i) {
+        logsViewHolder.setLog(feed.get(i).getLog(), imageStats);
+    }
+
+    @NonNull
+    @Override
+    public LogsViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        int layout = viewType == VIEW_TYPE_CELL ? R.layout.grid_item_log : R.layout.list_item_log;
+        View v = LayoutInflater.from(parent.getContext()).inflate(layout, parent, false);
         LogsViewHolder lvh = new LogsViewHolder(v);
 
         return lvh;
     }
+
+    @Override
+    public void onViewAttachedToWindow(@NonNull LogsViewHolder holder) {
+        imageStats.onShown(holder.isLoading());
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull LogsViewHolder holder) {
+        // Off-screen rows don't keep a request running or a bitmap alive
+        holder.clear();
+    }
+
+    @Override
+    public boolean onFailedToRecycleView(@NonNull LogsViewHolder holder) {
+        holder.clear();
+        return true;
+    }
+
+    @Override
+    public int getItemCount() {
+        return feed.size();
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    /**
+     * 64-bit FNV-1a of the key; push keys are unique, and collisions at feed sizes are negligible.
+     */
+    static long pushKeyId(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
 }
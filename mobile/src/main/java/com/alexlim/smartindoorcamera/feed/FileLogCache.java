@@ -0,0 +1,142 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import android.util.Log;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link LogCache} in a file, holding at most {@code maxCount} logs in at most {@code maxBytes}.
+ * The file is read and written on {@code io} and replaced whole, so a crash mid-write leaves the
+ * previous copy.
+ */
+public class FileLogCache implements LogCache {
+    private static final String TAG = FileLogCache.class.getSimpleName();
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final int maxCount;
+    private final int maxBytes;
+    private final Executor io;
+    private final Executor main;
+
+    public FileLogCache(File file, int maxCount, int maxBytes, Executor io, Executor main) {
+        this.file = file;
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.io = io;
+        this.main = main;
+    }
+
+    @Override
+    public void read(int limit, LogPageSource.PageCallback callback) {
+        io.execute(() -> {
+            List<LogEntry> entries;
+            try {
+                entries = readFile(limit);
+            } catch (FileNotFoundException e) {
+                entries = Collections.emptyList();
+            } catch (IOException e) {
+                Log.w(TAG, "read: " + e.getMessage());
+                entries = Collections.emptyList();
+            }
+            List<LogEntry> page = entries;
+            main.execute(() -> callback.onPage(page));
+        });
+    }
+
+    @Override
+    public void write(List<LogEntry> entries) {
+        List<LogEntry> copy = new ArrayList<>(entries.subList(0, Math.min(entries.size(), maxCount)));
+        io.execute(() -> {
+            try {
+                writeFile(copy);
+            } catch (IOException e) {
+                Log.w(TAG, "write: " + e.getMessage());
+            }
+        });
+    }
+
+    private List<LogEntry> readFile(int limit) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return Collections.emptyList();
+            }
+            int count = Math.min(in.readInt(), limit);
+            List<LogEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long timestamp = in.readLong();
+                String imageRef = in.readUTF();
+                String thumbnailRef = readNullable(in);
+                int frameCount = in.readInt();
+                String duplicateOf = readNullable(in);
+                entries.add(new LogEntry(name, new FirebaseImageLog(timestamp, imageRef, thumbnailRef, frameCount, duplicateOf)));
+            }
+            return entries;
+        }
+    }
+
+    private void writeFile(List<LogEntry> entries) throws IOException {
+        // Newest first until the byte budget runs out
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        int count = 0;
+        for (LogEntry entry : entries) {
+            int before = body.size();
+            FirebaseImageLog log = entry.getLog();
+            out.writeUTF(entry.getName());
+            out.writeLong(log.getTimestamp());
+            out.writeUTF(log.getImageRef());
+            writeNullable(out, log.getThumbnailRef());
+            out.writeInt(log.getFrameCount());
+            writeNullable(out, log.getDuplicateOf());
+            if (body.size() > maxBytes) {
+                body = truncate(body, before);
+                break;
+            }
+            count++;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream fileOut = new DataOutputStream(new FileOutputStream(temp))) {
+            fileOut.writeInt(VERSION);
+            fileOut.writeInt(count);
+            body.writeTo(fileOut);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static ByteArrayOutputStream truncate(ByteArrayOutputStream stream, int length) {
+        ByteArrayOutputStream truncated = new ByteArrayOutputStream(length);
+        truncated.write(stream.toByteArray(), 0, length);
+        return truncated;
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
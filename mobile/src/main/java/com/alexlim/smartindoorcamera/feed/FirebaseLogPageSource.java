@@ -0,0 +1,182 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link LogPageSource} over the motion logs node, queried by timestamp. Cursor queries are
+ * inclusive in Firebase, so they ask for one extra log and drop the cursor. Logs without an image
+ * are skipped, and a page they leave short is topped up from past them, so that only the end of the
+ * history gives a short page. Needs
+ * {@code ".indexOn": "timestamp"} on the node for the queries to run on the server.
+ */
+public class FirebaseLogPageSource implements LogPageSource {
+    private static final String ORDER_BY_TIMESTAMP = "timestamp";
+
+    private final DatabaseReference logsRef;
+
+    public FirebaseLogPageSource(DatabaseReference logsRef) {
+        this.logsRef = logsRef;
+    }
+
+    @Override
+    public void loadNewest(int limit, PageCallback callback) {
+        load(logsRef.orderByChild(ORDER_BY_TIMESTAMP).limitToLast(limit), null, limit, true, new ArrayList<>(), callback);
+    }
+
+    @Override
+    public void loadOlder(long timestamp, String name, int limit, PageCallback callback) {
+        load(olderQuery(timestamp, name, limit), name, limit, true, new ArrayList<>(), callback);
+    }
+
+    @Override
+    public void loadNewer(long timestamp, String name, int limit, PageCallback callback) {
+        load(newerQuery(timestamp, name, limit), name, limit, false, new ArrayList<>(), callback);
+    }
+
+    private Query olderQuery(long timestamp, String name, int limit) {
+        return logsRef.orderByChild(ORDER_BY_TIMESTAMP).endAt(timestamp, name).limitToLast(limit + 1);
+    }
+
+    private Query newerQuery(long timestamp, String name, int limit) {
+        return logsRef.orderByChild(ORDER_BY_TIMESTAMP).startAt(timestamp, name).limitToFirst(limit + 1);
+    }
+
+    @Override
+    public Registration listen(long timestamp, String name, LiveCallback callback) {
+        if (name != null) {
+            return follow(logsRef.orderByChild(ORDER_BY_TIMESTAMP).startAt(timestamp, name), callback);
+        }
+        // No cursor: an open-ended query would sync the whole node, so watch only the newest log and
+        // follow on from the first one to arrive. Removals from that window are just logs it pushed out.
+        Registration[] current = new Registration[1];
+        current[0] = follow(logsRef.orderByChild(ORDER_BY_TIMESTAMP).limitToLast(1), new LiveCallback() {
+            @Override
+            public void onAdded(LogEntry entry) {
+                if (current[0] != null) {
+                    current[0].remove();
+                    current[0] = listen(entry.getLog().getTimestamp(), entry.getName(), callback);
+                }
+            }
+
+            @Override
+            public void onChanged(LogEntry entry) {
+                callback.onChanged(entry);
+            }
+
+            @Override
+            public void onRemoved(String name) {
+            }
+        });
+        return () -> {
+            if (current[0] != null) {
+                current[0].remove();
+                current[0] = null;
+            }
+        };
+    }
+
+    private static Registration follow(Query query, LiveCallback callback) {
+        ChildEventListener listener = query.addChildEventListener(new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot dataSnapshot, @Nullable String previousChildName) {
+                LogEntry entry = toEntry(dataSnapshot);
+                if (entry != null) {
+                    callback.onAdded(entry);
+                }
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot dataSnapshot, @Nullable String previousChildName) {
+                LogEntry entry = toEntry(dataSnapshot);
+                if (entry != null) {
+                    callback.onChanged(entry);
+                }
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot dataSnapshot) {
+                callback.onRemoved(dataSnapshot.getKey());
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot dataSnapshot, @Nullable String previousChildName) {
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+            }
+        });
+        return () -> query.removeEventListener(listener);
+    }
+
+    /**
+     * @param older   whether the query runs towards older logs, and so keeps the newest if the cursor
+     *                was gone and it returned one too many
+     * @param entries the page so far, newest first
+     */
+    private void load(Query query, String cursor, int limit, boolean older, List<LogEntry> entries,
+                      PageCallback callback) {
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                // Children come oldest first
+                List<DataSnapshot> children = new ArrayList<>();
+                for (DataSnapshot child : dataSnapshot.getChildren()) {
+                    if (!child.getKey().equals(cursor)) {
+                        children.add(child);
+                    }
+                }
+                if (children.size() > limit) {
+                    children = older ? children.subList(children.size() - limit, children.size()) : children.subList(0, limit);
+                }
+
+                List<LogEntry> page = new ArrayList<>();
+                for (DataSnapshot child : children) {
+                    LogEntry entry = toEntry(child);
+                    if (entry != null) {
+                        page.add(entry);
+                    }
+                }
+                Collections.reverse(page);
+                entries.addAll(older ? entries.size() : 0, page);
+
+                // A full query can have more logs past it even though skipped ones left the page short
+                int missing = limit - page.size();
+                if (children.size() == limit && missing > 0) {
+                    DataSnapshot edge = children.get(older ? 0 : children.size() - 1);
+                    Long timestamp = edge.child(ORDER_BY_TIMESTAMP).getValue(Long.class);
+                    if (timestamp != null) {
+                        load(older ? olderQuery(timestamp, edge.getKey(), missing) : newerQuery(timestamp, edge.getKey(), missing),
+                                edge.getKey(), missing, older, entries, callback);
+                        return;
+                    }
+                }
+                callback.onPage(entries);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                callback.onError(databaseError.toException());
+            }
+        });
+    }
+
+    private static LogEntry toEntry(DataSnapshot snapshot) {
+        FirebaseImageLog log = snapshot.getValue(FirebaseImageLog.class);
+        return log != null && log.getImageRef() != null ? new LogEntry(snapshot.getKey(), log) : null;
+    }
+}
@@ -0,0 +1,176 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.engine.GlideException;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Where the feed's images came from, how long each took from bind to being set on its view, how
+ * many were loading at once, and how many rows came on screen before their image. Called on the
+ * main thread only.
+ */
+public class ImageLoadStats {
+    // Latencies of the most recent loads, for percentiles
+    private static final int WINDOW = 512;
+
+    private final long[] latencyNanos = new long[WINDOW];
+    private int latencyCount;
+    private long binds;
+    private long memoryHits;
+    private long diskHits;
+    private long remoteLoads;
+    private long failures;
+    private long cancelled;
+    private int inFlight;
+    private int maxInFlight;
+    private long shown;
+    private long shownBeforeReady;
+
+    /**
+     * One image request, from bind until its image is set, it fails, or its view is recycled.
+     */
+    public class Load implements RequestListener<Drawable> {
+        private final long bindNanos = SystemClock.elapsedRealtimeNanos();
+        private boolean done;
+
+        @Override
+        public boolean onLoadFailed(@Nullable GlideException e, Object model, Target<Drawable> target, boolean isFirstResource) {
+            if (finish()) {
+                failures++;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(Drawable resource, Object model, Target<Drawable> target, DataSource dataSource, boolean isFirstResource) {
+            if (finish()) {
+                onReady(dataSource, SystemClock.elapsedRealtimeNanos() - bindNanos);
+            }
+            return false;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * The request was cleared before it finished.
+         */
+        public void cancel() {
+            if (finish()) {
+                cancelled++;
+            }
+        }
+
+        private boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            inFlight--;
+            return true;
+        }
+    }
+
+    /**
+     * Starts tracking the request for a bind happening now; attach it as the request's listener.
+     */
+    public Load onBind() {
+        binds++;
+        inFlight++;
+        maxInFlight = Math.max(maxInFlight, inFlight);
+        return new Load();
+    }
+
+    /**
+     * A row came on screen, with its image set or still loading.
+     */
+    public void onShown(boolean loading) {
+        shown++;
+        if (loading) {
+            shownBeforeReady++;
+        }
+    }
+
+    private void onReady(DataSource dataSource, long nanos) {
+        switch (dataSource) {
+            case MEMORY_CACHE:
+                memoryHits++;
+                break;
+            case DATA_DISK_CACHE:
+            case RESOURCE_DISK_CACHE:
+                diskHits++;
+                break;
+            default:
+                remoteLoads++;
+                break;
+        }
+        latencyNanos[latencyCount % WINDOW] = nanos;
+        latencyCount++;
+    }
+
+    public long getBinds() {
+        return binds;
+    }
+
+    /**
+     * Share of rows that came on screen blank, their image still loading.
+     */
+    public double getShownBeforeReadyRate() {
+        return shown > 0 ? (double) shownBeforeReady / shown : 0;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Share of loaded images that didn't need the network.
+     */
+    public double getHitRate() {
+        long loaded = memoryHits + diskHits + remoteLoads;
+        return loaded > 0 ? (double) (memoryHits + diskHits) / loaded : 0;
+    }
+
+    /**
+     * Bind-to-pixels latency at the given percentile over the recent loads, in milliseconds.
+     */
+    public double getLatencyMillis(int percentile) {
+        int n = Math.min(latencyCount, WINDOW);
+        if (n == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencyNanos, n);
+        Arrays.sort(sorted);
+        return sorted[Math.min(n - 1, n * percentile / 100)] / 1e6;
+    }
+
+    public void reset() {
+        latencyCount = 0;
+        binds = 0;
+        memoryHits = 0;
+        diskHits = 0;
+        remoteLoads = 0;
+        failures = 0;
+        cancelled = 0;
+        maxInFlight = inFlight;
+        shown = 0;
+        shownBeforeReady = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "images: binds=%d memory=%d disk=%d remote=%d failed=%d cancelled=%d inFlight=%d/%d shown=%d blank=%d hitRate=%.2f p50=%.1fms p95=%.1fms",
+                binds, memoryHits, diskHits, remoteLoads, failures, cancelled, inFlight, maxInFlight, shown,
+                shownBeforeReady, getHitRate(), getLatencyMillis(50), getLatencyMillis(95));
+    }
+}
@@ -0,0 +1,22 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import java.util.List;
+
+/**
+ * A local copy of the newest logs that {@link LogFeed} shows while the first page is still on its
+ * way from the network. Callbacks come on the main thread.
+ */
+public interface LogCache {
+
+    /**
+     * The newest {@code limit} logs cached, newest first; empty if there are none.
+     */
+    void read(int limit, LogPageSource.PageCallback callback);
+
+    /**
+     * Replaces the cached logs with {@code entries}, newest first.
+     */
+    void write(List<LogEntry> entries);
+}
@@ -0,0 +1,501 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import android.util.Log;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The motion log list as a window of pages over the whole history, newest first.
+ * <p>
+ * It starts with the newest page and loads older pages by cursor as the end of the list comes into
+ * view. At most {@code maxResidentPages} pages are kept: loading past that drops the page at the
+ * other end of the window, and scrolling back towards it loads it again. New logs are followed live
+ * only while the window includes the newest page; older pages are loaded once and not followed.
+ * <p>
+ * With a {@link LogCache}, the cached logs are shown while the newest page loads, and the page is
+ * then merged into them row by row rather than replacing the list. The newest logs are cached again
+ * by {@link #writeCache()}.
+ */
+public class LogFeed {
+    private static final String TAG = LogFeed.class.getSimpleName();
+
+    public interface Listener {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position);
+    }
+
+    private final LogPageSource source;
+    private final LogCache cache;
+    private final int pageSize;
+    private final int maxResidentPages;
+    // Load the next page once a visible row is this close to the edge of the window
+    private final int prefetchDistance;
+
+    private final List<LogEntry> entries = new ArrayList<>();
+    // Sizes of the resident pages, newest first; they partition entries
+    private final ArrayDeque<Integer> pageSizes = new ArrayDeque<>();
+    private Listener listener;
+    private LogPageSource.Registration live;
+    private boolean started;
+    private boolean atNewest = true;
+    private boolean atOldest;
+    private boolean loadingNewer;
+    private boolean loadingOlder;
+    // Bumped on stop so that callbacks for an earlier start are dropped
+    private int generation;
+
+    private long pagesLoaded;
+    private long pagesDropped;
+    private boolean fromCache;
+
+    public LogFeed(LogPageSource source, int pageSize, int maxResidentPages, int prefetchDistance) {
+        this(source, null, pageSize, maxResidentPages, prefetchDistance);
+    }
+
+    public LogFeed(LogPageSource source, LogCache cache, int pageSize, int maxResidentPages, int prefetchDistance) {
+        if (maxResidentPages < 2) {
+            throw new IllegalArgumentException("Need room for at least two pages.");
+        }
+        this.source = source;
+        this.cache = cache;
+        this.pageSize = pageSize;
+        this.maxResidentPages = maxResidentPages;
+        this.prefetchDistance = prefetchDistance;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        loadingNewer = true;
+        int startGeneration = generation;
+        if (cache != null) {
+            cache.read(pageSize, new LogPageSource.PageCallback() {
+                @Override
+                public void onPage(List<LogEntry> page) {
+                    // Only worth showing if the network hasn't answered first
+                    if (startGeneration != generation || !loadingNewer || !entries.isEmpty() || page.isEmpty()) {
+                        return;
+                    }
+                    fromCache = true;
+                    addNewer(page);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                }
+            });
+        }
+        source.loadNewest(pageSize, new LogPageSource.PageCallback() {
+            @Override
+            public void onPage(List<LogEntry> page) {
+                if (startGeneration != generation) {
+                    return;
+                }
+                loadingNewer = false;
+                atNewest = true;
+                atOldest = page.size() < pageSize;
+                if (fromCache) {
+                    merge(page);
+                } else {
+                    addNewer(page);
+                }
+                follow();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "start: " + e.getMessage());
+                if (startGeneration == generation) {
+                    loadingNewer = false;
+                    started = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops everything; {@link #start()} begins again from the newest page.
+     */
+    public void stop() {
+        writeCache();
+        generation++;
+        started = false;
+        loadingNewer = false;
+        loadingOlder = false;
+        unfollow();
+        int count = entries.size();
+        entries.clear();
+        pageSizes.clear();
+        atNewest = true;
+        atOldest = false;
+        fromCache = false;
+        if (count > 0 && listener != null) {
+            listener.onRemoved(0, count);
+        }
+    }
+
+    /**
+     * Caches the newest logs for the next start, if the feed is showing them.
+     */
+    public void writeCache() {
+        if (cache != null && started && atNewest && !loadingNewer && !entries.isEmpty()) {
+            cache.write(entries);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public LogEntry get(int position) {
+        return entries.get(position);
+    }
+
+    public int indexOf(String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tells the feed which rows are on screen, so it can load the pages next to them.
+     */
+    public void onVisibleRange(int first, int last) {
+        if (!started || entries.isEmpty()) {
+            return;
+        }
+        if (last >= entries.size() - 1 - prefetchDistance) {
+            loadOlder();
+        }
+        if (first <= prefetchDistance) {
+            loadNewer();
+        }
+    }
+
+    private void loadOlder() {
+        if (atOldest || loadingOlder) {
+            return;
+        }
+        loadingOlder = true;
+        LogEntry cursor = entries.get(entries.size() - 1);
+        int requestGeneration = generation;
+        source.loadOlder(cursor.getLog().getTimestamp(), cursor.getName(), pageSize, new LogPageSource.PageCallback() {
+            @Override
+            public void onPage(List<LogEntry> page) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                loadingOlder = false;
+                // The window moved on while loading, so the page no longer joins up with it
+                if (entries.isEmpty() || entries.get(entries.size() - 1) != cursor) {
+                    return;
+                }
+                atOldest = page.size() < pageSize;
+                addOlder(page);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "loadOlder: " + e.getMessage());
+                if (requestGeneration == generation) {
+                    loadingOlder = false;
+                }
+            }
+        });
+    }
+
+    private void loadNewer() {
+        if (atNewest || loadingNewer) {
+            return;
+        }
+        loadingNewer = true;
+        LogEntry cursor = entries.get(0);
+        int requestGeneration = generation;
+        source.loadNewer(cursor.getLog().getTimestamp(), cursor.getName(), pageSize, new LogPageSource.PageCallback() {
+            @Override
+            public void onPage(List<LogEntry> page) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                loadingNewer = false;
+                if (entries.isEmpty() || entries.get(0) != cursor) {
+                    return;
+                }
+                atNewest = page.size() < pageSize;
+                addNewer(page);
+                if (atNewest) {
+                    follow();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "loadNewer: " + e.getMessage());
+                if (requestGeneration == generation) {
+                    loadingNewer = false;
+                }
+            }
+        });
+    }
+
+    private void addNewer(List<LogEntry> page) {
+        if (page.isEmpty()) {
+            return;
+        }
+        entries.addAll(0, page);
+        pageSizes.addFirst(page.size());
+        pagesLoaded++;
+        if (listener != null) {
+            listener.onInserted(0, page.size());
+        }
+        while (pageSizes.size() > maxResidentPages) {
+            dropOldest();
+        }
+    }
+
+    private void addOlder(List<LogEntry> page) {
+        if (page.isEmpty()) {
+            return;
+        }
+        int position = entries.size();
+        entries.addAll(page);
+        pageSizes.addLast(page.size());
+        pagesLoaded++;
+        if (listener != null) {
+            listener.onInserted(position, page.size());
+        }
+        while (pageSizes.size() > maxResidentPages) {
+            dropNewest();
+        }
+    }
+
+    /**
+     * Brings the cached logs on show up to date with the newest page: rows the page doesn't have are
+     * removed, new ones inserted and changed ones updated in place, so rows already drawn stay put.
+     * Cached logs older than the page are kept unless the page reaches the oldest log.
+     */
+    private void merge(List<LogEntry> page) {
+        fromCache = false;
+        pagesLoaded++;
+        LogEntry oldest = page.isEmpty() ? null : page.get(page.size() - 1);
+        List<LogEntry> target = new ArrayList<>(page);
+        if (!atOldest && oldest != null) {
+            for (LogEntry entry : entries) {
+                if (isOlder(entry, oldest) && !contains(page, entry.getName())) {
+                    target.add(entry);
+                }
+            }
+        }
+
+        int position = 0;
+        for (LogEntry wanted : target) {
+            while (position < entries.size() && !contains(target, entries.get(position).getName())) {
+                removeAt(position);
+            }
+            int existing = indexOf(wanted.getName());
+            if (existing > position) {
+                // Out of order in the cache; take it out and put it back where it goes
+                removeAt(existing);
+                existing = -1;
+            }
+            if (existing == position) {
+                if (!sameLog(entries.get(position).getLog(), wanted.getLog())) {
+                    entries.set(position, wanted);
+                    if (listener != null) {
+                        listener.onChanged(position);
+                    }
+                }
+            } else {
+                entries.add(position, wanted);
+                if (listener != null) {
+                    listener.onInserted(position, 1);
+                }
+            }
+            position++;
+        }
+        int extra = entries.size() - position;
+        if (extra > 0) {
+            entries.subList(position, entries.size()).clear();
+            if (listener != null) {
+                listener.onRemoved(position, extra);
+            }
+        }
+
+        pageSizes.clear();
+        for (int start = 0; start < entries.size(); start += pageSize) {
+            pageSizes.addLast(Math.min(pageSize, entries.size() - start));
+        }
+        while (pageSizes.size() > maxResidentPages) {
+            dropOldest();
+        }
+    }
+
+    private void removeAt(int position) {
+        entries.remove(position);
+        if (listener != null) {
+            listener.onRemoved(position, 1);
+        }
+    }
+
+    private static boolean isOlder(LogEntry entry, LogEntry than) {
+        long timestamp = entry.getLog().getTimestamp();
+        long thanTimestamp = than.getLog().getTimestamp();
+        return timestamp < thanTimestamp || timestamp == thanTimestamp && entry.getName().compareTo(than.getName()) < 0;
+    }
+
+    private static boolean contains(List<LogEntry> entries, String name) {
+        for (LogEntry entry : entries) {
+            if (entry.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameLog(FirebaseImageLog a, FirebaseImageLog b) {
+        return a.getTimestamp() == b.getTimestamp()
+                && a.getFrameCount() == b.getFrameCount()
+                && Objects.equals(a.getImageRef(), b.getImageRef())
+                && Objects.equals(a.getThumbnailRef(), b.getThumbnailRef())
+                && Objects.equals(a.getDuplicateOf(), b.getDuplicateOf());
+    }
+
+    private void dropOldest() {
+        int count = pageSizes.removeLast();
+        int position = entries.size() - count;
+        entries.subList(position, entries.size()).clear();
+        atOldest = false;
+        pagesDropped++;
+        if (listener != null) {
+            listener.onRemoved(position, count);
+        }
+    }
+
+    private void dropNewest() {
+        int count = pageSizes.removeFirst();
+        entries.subList(0, count).clear();
+        atNewest = false;
+        unfollow();
+        pagesDropped++;
+        if (listener != null) {
+            listener.onRemoved(0, count);
+        }
+    }
+
+    private void follow() {
+        if (live != null) {
+            return;
+        }
+        LogEntry newest = entries.isEmpty() ? null : entries.get(0);
+        long timestamp = newest != null ? newest.getLog().getTimestamp() : Long.MIN_VALUE;
+        String name = newest != null ? newest.getName() : null;
+        live = source.listen(timestamp, name, new LogPageSource.LiveCallback() {
+            @Override
+            public void onAdded(LogEntry entry) {
+                if (indexOf(entry.getName()) >= 0) {
+                    return;
+                }
+                // New logs start a new page once the newest one is full, so the window stays bounded
+                if (pageSizes.isEmpty() || pageSizes.peekFirst() >= pageSize) {
+                    pageSizes.addFirst(1);
+                } else {
+                    pageSizes.addFirst(pageSizes.removeFirst() + 1);
+                }
+                entries.add(0, entry);
+                if (listener != null) {
+                    listener.onInserted(0, 1);
+                }
+                while (pageSizes.size() > maxResidentPages) {
+                    dropOldest();
+                }
+            }
+
+            @Override
+            public void onChanged(LogEntry entry) {
+                int position = indexOf(entry.getName());
+                if (position >= 0) {
+                    entries.set(position, entry);
+                    if (listener != null) {
+                        listener.onChanged(position);
+                    }
+                }
+            }
+
+            @Override
+            public void onRemoved(String name) {
+                int position = indexOf(name);
+                if (position < 0) {
+                    return;
+                }
+                entries.remove(position);
+                removeFromPage(position);
+                if (listener != null) {
+                    listener.onRemoved(position, 1);
+                }
+            }
+        });
+    }
+
+    private void unfollow() {
+        if (live != null) {
+            live.remove();
+            live = null;
+        }
+    }
+
+    private void removeFromPage(int position) {
+        ArrayDeque<Integer> sizes = new ArrayDeque<>();
+        int start = 0;
+        for (int size : pageSizes) {
+            if (position >= start && position < start + size) {
+                size--;
+                position = -1;
+            } else {
+                start += size;
+            }
+            if (size > 0) {
+                sizes.addLast(size);
+            }
+        }
+        pageSizes.clear();
+        pageSizes.addAll(sizes);
+    }
+
+    public int getResidentPages() {
+        return pageSizes.size();
+    }
+
+    public boolean isAtNewest() {
+        return atNewest;
+    }
+
+    public boolean isAtOldest() {
+        return atOldest;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "feed: %d logs in %d pages, loaded=%d dropped=%d%s%s",
+                entries.size(), pageSizes.size(), pagesLoaded, pagesDropped,
+                atNewest ? " newest" : "", atOldest ? " oldest" : "");
+    }
+}
@@ -0,0 +1,55 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import java.util.List;
+
+/**
+ * Where {@link LogFeed} gets its pages from. Logs are ordered by timestamp and then name, and
+ * cursors are the timestamp and name of a log already in the feed. A page shorter than the limit
+ * means there are no more logs that way. Callbacks come on the main thread.
+ */
+public interface LogPageSource {
+
+    interface PageCallback {
+        /**
+         * @param entries newest first
+         */
+        void onPage(List<LogEntry> entries);
+
+        void onError(Exception e);
+    }
+
+    interface LiveCallback {
+        void onAdded(LogEntry entry);
+
+        void onChanged(LogEntry entry);
+
+        void onRemoved(String name);
+    }
+
+    interface Registration {
+        void remove();
+    }
+
+    /**
+     * The newest {@code limit} logs.
+     */
+    void loadNewest(int limit, PageCallback callback);
+
+    /**
+     * Up to {@code limit} logs just older than the cursor, excluding it.
+     */
+    void loadOlder(long timestamp, String name, int limit, PageCallback callback);
+
+    /**
+     * Up to {@code limit} logs just newer than the cursor, excluding it.
+     */
+    void loadNewer(long timestamp, String name, int limit, PageCallback callback);
+
+    /**
+     * Follows logs from the cursor on, including it, until the registration is removed. A null
+     * {@code name} follows from the newest log on.
+     */
+    Registration listen(long timestamp, String name, LiveCallback callback);
+}
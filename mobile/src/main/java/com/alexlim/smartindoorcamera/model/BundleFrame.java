@@ -0,0 +1,65 @@
+package com.alexlim.smartindoorcamera.model;
+
+/**
+ * One frame inside an event bundle object, as a Glide model. See {@code BundleFrameLoader} for
+ * the container layout.
+ */
+public class BundleFrame {
+    private final String bundleRef;
+    private final int frameCount;
+    private final int index;
+    private final boolean thumbnail;
+
+    /**
+     * @param thumbnail load the frame's thumbnail if it has one, rather than the full image
+     */
+    public BundleFrame(String bundleRef, int frameCount, int index, boolean thumbnail) {
+        this.bundleRef = bundleRef;
+        this.frameCount = frameCount;
+        this.index = index;
+        this.thumbnail = thumbnail;
+    }
+
+    public String getBundleRef() {
+        return bundleRef;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isThumbnail() {
+        return thumbnail;
+    }
+
+    // Glide keys its caches on the model
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BundleFrame)) {
+            return false;
+        }
+        BundleFrame other = (BundleFrame) o;
+        return frameCount == other.frameCount && index == other.index && thumbnail == other.thumbnail
+                && bundleRef.equals(other.bundleRef);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = bundleRef.hashCode();
+        result = 31 * result + frameCount;
+        result = 31 * result + index;
+        return 31 * result + (thumbnail ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return bundleRef + "#" + index + (thumbnail ? "/thumb" : "");
+    }
+}
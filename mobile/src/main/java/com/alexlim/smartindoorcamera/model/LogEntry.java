@@ -0,0 +1,22 @@
+package com.alexlim.smartindoorcamera.model;
+
+/**
+ * A motion log with the database key it is stored under.
+ */
+public class LogEntry {
+    private final String name;
+    private final FirebaseImageLog log;
+
+    public LogEntry(String name, FirebaseImageLog log) {
+        this.name = name;
+        this.log = log;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FirebaseImageLog getLog() {
+        return log;
+    }
+}
@@ -0,0 +1,32 @@
+package com.alexlim.smartindoorcamera.model;
+
+/**
+ * A single JPEG object in Cloud Storage, as a Glide model. Objects are never rewritten in place,
+ * so the path alone identifies the image and is its cache key. See {@code StorageImageLoader}.
+ */
+public class StorageImage {
+    private final String imageRef;
+
+    public StorageImage(String imageRef) {
+        this.imageRef = imageRef;
+    }
+
+    public String getImageRef() {
+        return imageRef;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StorageImage && imageRef.equals(((StorageImage) o).imageRef);
+    }
+
+    @Override
+    public int hashCode() {
+        return imageRef.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return imageRef;
+    }
+}
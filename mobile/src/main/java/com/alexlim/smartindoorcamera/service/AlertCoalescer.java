@@ -0,0 +1,161 @@
+package com.alexlim.smartindoorcamera.service;
+
+import java.util.Locale;
+
+/**
+ * Collapses bursts of motion alerts into one notification per window.
+ * <p>
+ * The first alert opens a window of {@code windowMillis} and is posted with sound. Alerts inside
+ * the window update that notification silently with the running count and the latest preview, at
+ * most once every {@code minUpdateMillis}; an update held back by that limit is returned by
+ * {@link #flush(long)} once it is due. The first alert after the window closes starts a new one.
+ * <p>
+ * The burst number and its window outlive the process through {@link #restore(int, long, int)}, so a
+ * new burst never reuses the id of a notification that is still showing.
+ */
+public class AlertCoalescer {
+
+    public static final class Post {
+        private final int id;
+        private final int count;
+        private final boolean alert;
+        private final String preview;
+        private final long firstMillis;
+
+        Post(int id, int count, boolean alert, String preview, long firstMillis) {
+            this.id = id;
+            this.count = count;
+            this.alert = alert;
+            this.preview = preview;
+            this.firstMillis = firstMillis;
+        }
+
+        /**
+         * The notification to post to; the same for every post in a window.
+         */
+        public int getId() {
+            return id;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Whether to make a sound; only the post that opens a window does.
+         */
+        public boolean isAlert() {
+            return alert;
+        }
+
+        public String getPreview() {
+            return preview;
+        }
+
+        public long getFirstMillis() {
+            return firstMillis;
+        }
+    }
+
+    private final long windowMillis;
+    private final long minUpdateMillis;
+
+    private int burst;
+    private long windowStartMillis;
+    private long lastPostMillis;
+    private int count;
+    private String preview;
+    private boolean pending;
+
+    // Per burst and since start, to check that a storm of alerts costs one sound and a few redraws
+    private int burstPosts;
+    private long alerts;
+    private long posts;
+    private long sounds;
+
+    public AlertCoalescer(long windowMillis, long minUpdateMillis) {
+        this.windowMillis = windowMillis;
+        this.minUpdateMillis = minUpdateMillis;
+    }
+
+    /**
+     * Carries on from the burst saved by a previous process.
+     */
+    public synchronized void restore(int burst, long windowStartMillis, int count) {
+        this.burst = burst;
+        this.windowStartMillis = windowStartMillis;
+        this.count = count;
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    public synchronized long getWindowStartMillis() {
+        return windowStartMillis;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @param preview the alert's micro preview, or null if it came without one
+     * @return what to post now, or null if the update is held back until {@link #getFlushMillis()}
+     */
+    public synchronized Post onAlert(long nowMillis, String preview) {
+        alerts++;
+        if (preview != null) {
+            this.preview = preview;
+        }
+        if (burst == 0 || nowMillis - windowStartMillis >= windowMillis) {
+            burst++;
+            windowStartMillis = nowMillis;
+            count = 1;
+            this.preview = preview;
+            burstPosts = 0;
+            sounds++;
+            return post(nowMillis, true);
+        }
+        count++;
+        if (nowMillis - lastPostMillis >= minUpdateMillis) {
+            return post(nowMillis, false);
+        }
+        pending = true;
+        return null;
+    }
+
+    /**
+     * @return the update held back by the rate limit, or null if there is none
+     */
+    public synchronized Post flush(long nowMillis) {
+        return pending ? post(nowMillis, false) : null;
+    }
+
+    /**
+     * When the held back update is due.
+     */
+    public synchronized long getFlushMillis() {
+        return lastPostMillis + minUpdateMillis;
+    }
+
+    private Post post(long nowMillis, boolean alert) {
+        pending = false;
+        lastPostMillis = nowMillis;
+        burstPosts++;
+        posts++;
+        return new Post(burst, count, alert, preview, windowStartMillis);
+    }
+
+    /**
+     * Alerts and posts in the current burst.
+     */
+    public synchronized String describeBurst() {
+        return String.format(Locale.US, "burst %d: %d alerts, %d posts", burst, count, burstPosts);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "alerts: wakeups=%d posts=%d sounds=%d bursts=%d", alerts, posts, sounds, burst);
+    }
+}
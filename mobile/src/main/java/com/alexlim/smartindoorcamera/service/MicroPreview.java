@@ -0,0 +1,86 @@
+package com.alexlim.smartindoorcamera.service;
+
+import android.graphics.Bitmap;
+import android.util.Base64;
+import android.util.Log;
+
+/**
+ * Decodes the micro preview the camera puts in each motion alert: version, width, height, then a
+ * raw YCbCr 4:2:0 frame, one byte per sample, base64 encoded.
+ */
+public final class MicroPreview {
+    private static final String TAG = MicroPreview.class.getSimpleName();
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 3;
+
+    private MicroPreview() {
+    }
+
+    /**
+     * @param scale how many times larger than the preview the bitmap is; it is upscaled with
+     *              filtering so the blocks blur together rather than show
+     * @return the preview, or null if it is missing or not one this app understands
+     */
+    public static Bitmap decode(String preview, int scale) {
+        if (preview == null) {
+            return null;
+        }
+        byte[] data;
+        try {
+            data = Base64.decode(preview, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "decode: " + e.getMessage());
+            return null;
+        }
+        int[] pixels = toArgb(data);
+        if (pixels == null) {
+            Log.w(TAG, "decode: unknown preview of " + data.length + " bytes");
+            return null;
+        }
+        int width = data[1] & 0xff;
+        int height = data[2] & 0xff;
+        Bitmap bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        if (scale <= 1) {
+            return bitmap;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width * scale, height * scale, true);
+        bitmap.recycle();
+        return scaled;
+    }
+
+    /**
+     * @return the pixels of the preview row by row, or null if the data isn't a preview
+     */
+    static int[] toArgb(byte[] data) {
+        if (data.length < HEADER_BYTES || data[0] != VERSION) {
+            return null;
+        }
+        int width = data[1] & 0xff;
+        int height = data[2] & 0xff;
+        if (width == 0 || height == 0 || width % 2 != 0 || height % 2 != 0
+                || data.length != HEADER_BYTES + width * height * 3 / 2) {
+            return null;
+        }
+        int cbOffset = HEADER_BYTES + width * height;
+        int crOffset = cbOffset + width * height / 4;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = data[HEADER_BYTES + y * width + x] & 0xff;
+                int block = (y / 2) * (width / 2) + x / 2;
+                int cb = (data[cbOffset + block] & 0xff) - 128;
+                int cr = (data[crOffset + block] & 0xff) - 128;
+                // JFIF full-range BT.601, the inverse of what the camera encodes with
+                int r = clamp(Math.round(luma + 1.402f * cr));
+                int g = clamp(Math.round(luma - 0.344136f * cb - 0.714136f * cr));
+                int b = clamp(Math.round(luma + 1.772f * cb));
+                pixels[y * width + x] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -5,9 +5,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
@@ -17,9 +21,33 @@ import com.alexlim.smartindoorcamera.R;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
+import java.util.Locale;
+
 public class NotificationService extends FirebaseMessagingService {
 
     private static final String TAG = NotificationService.class.getSimpleName();
+    // 32 pixels across to 256, about what the expanded notification shows
+    private static final int PREVIEW_SCALE = 8;
+    private static final String CHANNEL_ID = "motionChannel";
+    private static final String GROUP_MOTION = "motion";
+    // Burst notifications are numbered from 1
+    private static final int SUMMARY_ID = 0;
+    // Alerts this close to the first of a burst join its notification; one sound per window
+    private static final long ALERT_WINDOW_MILLIS = 60 * 1000;
+    private static final long MIN_UPDATE_MILLIS = 2000;
+    private static final String PREFS_ALERTS = "alerts";
+    private static final String PREF_BURST = "burst";
+    private static final String PREF_WINDOW_START = "windowStart";
+    private static final String PREF_COUNT = "count";
+
+    // The service can be created for each message, so this lives as long as the process and its
+    // burst is saved for the next one; wall clock time, since the window outlives the process
+    private static final AlertCoalescer coalescer = new AlertCoalescer(ALERT_WINDOW_MILLIS, MIN_UPDATE_MILLIS);
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static boolean restored;
+    private static volatile boolean channelCreated;
+    private static volatile String title;
+    private static volatile String body;
 
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
@@ -28,47 +56,103 @@ public class NotificationService extends FirebaseMessagingService {
 
         if (!remoteMessage.getData().isEmpty()) {
             Log.d(TAG, "onMessageReceived: Message data payload " + remoteMessage.getData());
-            String title = remoteMessage.getData().get("title");
-            String body = remoteMessage.getData().get("body");
-            String imageRef = remoteMessage.getData().get("imageRef");
-            sendNotification(title, body);
+            title = remoteMessage.getData().get("title");
+            body = remoteMessage.getData().get("body");
+            String preview = remoteMessage.getData().get("preview");
+            Context context = getApplicationContext();
+            AlertCoalescer.Post post = onAlert(context, preview);
+            if (post != null) {
+                sendNotification(context, post);
+            } else {
+                // Held back by the rate limit; the count is brought up to date once it's due
+                handler.removeCallbacksAndMessages(null);
+                handler.postDelayed(() -> {
+                    AlertCoalescer.Post due = coalescer.flush(System.currentTimeMillis());
+                    if (due != null) {
+                        sendNotification(context, due);
+                    }
+                }, Math.max(0, coalescer.getFlushMillis() - System.currentTimeMillis()));
+            }
         }
     }
 
-    private void sendNotification(String title, String body) {
-        Intent intent = new Intent(this, MainActivity.class);
+    private static synchronized AlertCoalescer.Post onAlert(Context context, String preview) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFS_ALERTS, Context.MODE_PRIVATE);
+        if (!restored) {
+            coalescer.restore(preferences.getInt(PREF_BURST, 0), preferences.getLong(PREF_WINDOW_START, 0),
+                    preferences.getInt(PREF_COUNT, 0));
+            restored = true;
+        }
+        AlertCoalescer.Post post = coalescer.onAlert(System.currentTimeMillis(), preview);
+        preferences.edit()
+                .putInt(PREF_BURST, coalescer.getBurst())
+                .putLong(PREF_WINDOW_START, coalescer.getWindowStartMillis())
+                .putInt(PREF_COUNT, coalescer.getCount())
+                .apply();
+        return post;
+    }
+
+    private static void sendNotification(Context context, AlertCoalescer.Post post) {
+        Log.d(TAG, "sendNotification: " + coalescer.describeBurst() + ", " + coalescer);
+        Intent intent = new Intent(context, MainActivity.class);
         intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
 
-        PendingIntent pendingIntent = PendingIntent.getActivity(this,
+        PendingIntent pendingIntent = PendingIntent.getActivity(context,
                 0,
                 intent,
                 PendingIntent.FLAG_ONE_SHOT);
 
-        String channelId = "motionChannel";
         Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
+        String text = post.getCount() == 1 ? body
+                : String.format(Locale.US, "%d motions have been detected", post.getCount());
 
-        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(this, channelId)
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context, CHANNEL_ID)
                 .setSmallIcon(getNotificationIcon())
                 .setContentTitle(title)
-                .setContentText(body)
+                .setContentText(text)
+                .setNumber(post.getCount())
                 .setAutoCancel(true)
                 .setSound(defaultSoundUri)
+                // Updates within a window redraw the notification without sounding again
+                .setOnlyAlertOnce(true)
+                .setGroup(GROUP_MOTION)
                 .setContentIntent(pendingIntent);
+        Bitmap preview = MicroPreview.decode(post.getPreview(), PREVIEW_SCALE);
+        if (preview != null) {
+            // Shown straight away from the message itself; the full image loads when the app opens
+            notificationBuilder.setLargeIcon(preview)
+                    .setStyle(new NotificationCompat.BigPictureStyle()
+                            .bigPicture(preview)
+                            .bigLargeIcon(null));
+        }
 
-        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
 
         // Notification channel is needed for Android Oreo and later.
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(channelId,
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && !channelCreated) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
                     "Channel human readable title",
                     NotificationManager.IMPORTANCE_DEFAULT);
             notificationManager.createNotificationChannel(channel);
+            channelCreated = true;
         }
 
-        notificationManager.notify(5, notificationBuilder.build());
+        notificationManager.notify(post.getId(), notificationBuilder.build());
+        if (post.isAlert()) {
+            // Keeps the bursts together in the shade; the children make the sound
+            notificationManager.notify(SUMMARY_ID, new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(getNotificationIcon())
+                    .setContentTitle(title)
+                    .setAutoCancel(true)
+                    .setGroup(GROUP_MOTION)
+                    .setGroupSummary(true)
+                    .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                    .setContentIntent(pendingIntent)
+                    .build());
+        }
     }
 
-    private int getNotificationIcon() {
+    private static int getNotificationIcon() {
         boolean useWhiteIcon = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
         return useWhiteIcon ? R.drawable.ic_warning_white : R.drawable.ic_warning;
     }
@@ -1,5 +1,6 @@
 package com.alexlim.smartindoorcamera.view;
 
+import android.graphics.drawable.Drawable;
 import android.text.format.DateUtils;
 import android.view.View;
 import android.widget.ImageView;
@@ -8,14 +9,19 @@ import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.alexlim.smartindoorcamera.R;
+import com.alexlim.smartindoorcamera.feed.ImageLoadStats;
+import com.alexlim.smartindoorcamera.model.BundleFrame;
 import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.StorageImage;
 import com.bumptech.glide.Glide;
-import com.google.firebase.storage.FirebaseStorage;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
 
 public class LogsViewHolder extends RecyclerView.ViewHolder {
 
     ImageView imageViewLog;
     TextView timestampTextView;
+    private ImageLoadStats.Load load;
 
     public LogsViewHolder(View itemView) {
         super(itemView);
@@ -24,14 +30,64 @@ public class LogsViewHolder extends RecyclerView.ViewHolder {
         timestampTextView = itemView.findViewById(R.id.textViewTimestamp);
     }
 
-    public void setLog(FirebaseImageLog log) {
+    public void setLog(FirebaseImageLog log, ImageLoadStats stats) {
+        clear();
+        load = stats.onBind();
         Long timestamp = log.getTimestamp();
         CharSequence timeDifference = DateUtils.getRelativeTimeSpanString(timestamp, System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS);
         timestampTextView.setText(timeDifference);
 
-        String imageRef = log.getImageRef();
-        Glide.with(imageViewLog.getContext())
-                .load(FirebaseStorage.getInstance().getReference(imageRef))
+        boolean crop = imageViewLog.getScaleType() == ImageView.ScaleType.CENTER_CROP;
+        imageRequest(Glide.with(imageViewLog.getContext()), log, crop)
+                .listener(load)
                 .into(imageViewLog);
     }
+
+    /**
+     * The request that shows a log's image, so that preloads of it hit the same cache entry. The
+     * transformation is explicit rather than taken from the view's scale type for the same reason.
+     *
+     * @param crop whether the image fills its view, as grid cells do, rather than fitting inside it
+     */
+    public static RequestBuilder<Drawable> imageRequest(RequestManager glide, FirebaseImageLog log, boolean crop) {
+        Object model;
+        if (log.getFrameCount() > 0) {
+            // Event bundle: range-read just the newest frame's thumbnail out of it
+            model = new BundleFrame(log.getImageRef(), log.getFrameCount(), log.getFrameCount() - 1, true);
+        } else {
+            // The list only needs the thumbnail; older logs fall back to the full image
+            model = new StorageImage(log.getThumbnailRef() != null ? log.getThumbnailRef() : log.getImageRef());
+        }
+        RequestBuilder<Drawable> request = glide.load(model);
+        return crop ? request.centerCrop() : request.fitCenter();
+    }
+
+    /**
+     * Whether the row's image is still on its way.
+     */
+    public boolean isLoading() {
+        return load != null && !load.isDone();
+    }
+
+    /**
+     * Cancels the image request, if still running, and lets go of the image.
+     */
+    public void clear() {
+        if (load != null) {
+            load.cancel();
+            load = null;
+        }
+        Glide.with(imageViewLog.getContext()).clear(imageViewLog);
+    }
+
+    /**
+     * Size the image is decoded at, once the row has been laid out.
+     */
+    public int getImageWidth() {
+        return imageViewLog.getWidth();
+    }
+
+    public int getImageHeight() {
+        return imageViewLog.getHeight();
+    }
 }
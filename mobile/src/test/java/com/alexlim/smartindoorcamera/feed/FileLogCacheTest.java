@@ -0,0 +1,86 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileLogCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        FileLogCache cache = cache(100, 64 * 1024);
+        List<LogEntry> entries = new ArrayList<>();
+        entries.add(new LogEntry("b", new FirebaseImageLog(2000, "/bundle", null, 5)));
+        entries.add(new LogEntry("a", new FirebaseImageLog(1000, "/image", "/thumb", 0, "z")));
+        cache.write(entries);
+
+        List<LogEntry> read = read(cache, 10);
+        assertEquals(2, read.size());
+        assertEquals("b", read.get(0).getName());
+        assertEquals(5, read.get(0).getLog().getFrameCount());
+        assertNull(read.get(0).getLog().getThumbnailRef());
+        assertEquals(1000, read.get(1).getLog().getTimestamp());
+        assertEquals("/thumb", read.get(1).getLog().getThumbnailRef());
+        assertEquals("z", read.get(1).getLog().getDuplicateOf());
+        assertEquals(1, read(cache, 1).size());
+    }
+
+    @Test
+    public void keepsNewestWithinCountAndBytes() throws IOException {
+        List<LogEntry> entries = new ArrayList<>();
+        for (int i = 99; i >= 0; i--) {
+            entries.add(new LogEntry("log" + i, new FirebaseImageLog(i, "/motion/image" + i + ".jpg")));
+        }
+
+        FileLogCache byCount = cache(30, 64 * 1024);
+        byCount.write(entries);
+        List<LogEntry> read = read(byCount, 100);
+        assertEquals(30, read.size());
+        assertEquals("log99", read.get(0).getName());
+
+        FileLogCache byBytes = cache(100, 1000);
+        byBytes.write(entries);
+        read = read(byBytes, 100);
+        assertTrue(read.size() > 0 && read.size() < 30);
+        assertEquals("log99", read.get(0).getName());
+    }
+
+    @Test
+    public void readsNothingWithoutAFile() throws IOException {
+        assertEquals(0, read(cache(10, 1000), 10).size());
+    }
+
+    private FileLogCache cache(int maxCount, int maxBytes) throws IOException {
+        File file = new File(folder.newFolder(), "logs");
+        return new FileLogCache(file, maxCount, maxBytes, Runnable::run, Runnable::run);
+    }
+
+    private static List<LogEntry> read(FileLogCache cache, int limit) {
+        List<LogEntry> result = new ArrayList<>();
+        cache.read(limit, new LogPageSource.PageCallback() {
+            @Override
+            public void onPage(List<LogEntry> entries) {
+                result.addAll(entries);
+            }
+
+            @Override
+            public void onError(Exception e) {
+            }
+        });
+        return result;
+    }
+}
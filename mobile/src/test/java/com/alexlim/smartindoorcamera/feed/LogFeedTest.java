@@ -0,0 +1,321 @@
+package com.alexlim.smartindoorcamera.feed;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.model.LogEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LogFeedTest {
+    private static final int PAGE_SIZE = 10;
+    private static final int MAX_PAGES = 3;
+
+    private final FakeSource source = new FakeSource();
+    private LogFeed feed;
+    private int notifiedSize;
+    private int notifiedChanges;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 100; i++) {
+            source.logs.add(entry(i));
+        }
+        feed = new LogFeed(source, PAGE_SIZE, MAX_PAGES, 2);
+        feed.setListener(new LogFeed.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifiedSize += count;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifiedSize -= count;
+            }
+
+            @Override
+            public void onChanged(int position) {
+                notifiedChanges++;
+            }
+        });
+    }
+
+    @Test
+    public void startsWithNewestPage() {
+        feed.start();
+
+        assertEquals(PAGE_SIZE, feed.size());
+        assertEquals("log99", feed.get(0).getName());
+        assertEquals("log90", feed.get(PAGE_SIZE - 1).getName());
+        assertTrue(feed.isAtNewest());
+        assertNotNull(source.live);
+    }
+
+    @Test
+    public void loadsOlderPagesByCursorWithoutGapsOrRepeats() {
+        feed.start();
+        scrollToEnd();
+        scrollToEnd();
+
+        assertEquals(3 * PAGE_SIZE, feed.size());
+        for (int i = 0; i < feed.size(); i++) {
+            assertEquals("log" + (99 - i), feed.get(i).getName());
+        }
+        assertEquals(feed.size(), notifiedSize);
+    }
+
+    @Test
+    public void keepsAtMostMaxPagesResident() {
+        feed.start();
+        for (int i = 0; i < 5; i++) {
+            scrollToEnd();
+        }
+
+        assertEquals(MAX_PAGES, feed.getResidentPages());
+        assertEquals(MAX_PAGES * PAGE_SIZE, feed.size());
+        assertEquals("log69", feed.get(0).getName());
+        assertEquals("log40", feed.get(feed.size() - 1).getName());
+        assertFalse(feed.isAtNewest());
+        // Off the newest page, new logs aren't followed
+        assertNull(source.live);
+        assertEquals(feed.size(), notifiedSize);
+    }
+
+    @Test
+    public void reloadsNewerPagesScrollingBack() {
+        feed.start();
+        for (int i = 0; i < 5; i++) {
+            scrollToEnd();
+        }
+        for (int i = 0; i < 5; i++) {
+            feed.onVisibleRange(0, 1);
+        }
+
+        assertTrue(feed.isAtNewest());
+        assertEquals("log99", feed.get(0).getName());
+        assertEquals(MAX_PAGES * PAGE_SIZE, feed.size());
+        assertNotNull(source.live);
+    }
+
+    @Test
+    public void stopsAtOldestLog() {
+        feed = new LogFeed(source, PAGE_SIZE, 20, 2);
+        feed.start();
+        for (int i = 0; i < 20; i++) {
+            scrollToEnd();
+        }
+
+        assertTrue(feed.isAtOldest());
+        assertEquals(100, feed.size());
+        assertEquals("log00", feed.get(99).getName());
+    }
+
+    @Test
+    public void followsNewLogsAtTheHead() {
+        feed.start();
+        source.live.onAdded(feed.get(0));
+        assertEquals(PAGE_SIZE, feed.size());
+
+        for (int i = 100; i < 100 + 3 * PAGE_SIZE; i++) {
+            source.live.onAdded(entry(i));
+        }
+        assertEquals("log129", feed.get(0).getName());
+        assertEquals(MAX_PAGES, feed.getResidentPages());
+
+        source.live.onRemoved("log129");
+        assertEquals("log128", feed.get(0).getName());
+        assertEquals(feed.size(), notifiedSize);
+    }
+
+    @Test
+    public void ignoresPagesForAnEarlierStart() {
+        source.deferred = true;
+        feed.start();
+        feed.stop();
+        source.deferred = false;
+        feed.start();
+        source.runDeferred();
+
+        assertEquals(PAGE_SIZE, feed.size());
+    }
+
+    @Test
+    public void showsCacheThenMergesNewestPage() {
+        FakeCache cache = new FakeCache();
+        for (int i = 95; i >= 84; i--) {
+            cache.entries.add(entry(i));
+        }
+        // Since cached: four new logs, one deleted and one rewritten
+        source.logs.set(93, new LogEntry("log93", new FirebaseImageLog(1046, "compacted93")));
+        source.logs.remove(90);
+        LogFeed.Listener listener = feedListener();
+        feed = new LogFeed(source, cache, PAGE_SIZE, MAX_PAGES, 2);
+        feed.setListener(listener);
+        source.deferred = true;
+        feed.start();
+
+        assertEquals(PAGE_SIZE, feed.size());
+        assertEquals("log95", feed.get(0).getName());
+        assertNull(source.live);
+
+        source.runDeferred();
+        String[] expected = {"log99", "log98", "log97", "log96", "log95", "log94", "log93", "log92", "log91", "log89"};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], feed.get(i).getName());
+        }
+        assertEquals("compacted93", feed.get(6).getLog().getImageRef());
+        // Cached logs older than the page stay until the older page replaces them
+        assertEquals("log88", feed.get(10).getName());
+        assertEquals("log86", feed.get(12).getName());
+        assertEquals(13, feed.size());
+        assertEquals(feed.size(), notifiedSize);
+        assertEquals(1, notifiedChanges);
+        assertNotNull(source.live);
+
+        feed.stop();
+        assertEquals(13, cache.written.size());
+        assertEquals("log99", cache.written.get(0).getName());
+    }
+
+    @Test
+    public void skipsCacheIfNetworkAnswersFirst() {
+        FakeCache cache = new FakeCache();
+        cache.entries.add(entry(50));
+        cache.deferred = true;
+        feed = new LogFeed(source, cache, PAGE_SIZE, MAX_PAGES, 2);
+        feed.setListener(feedListener());
+        feed.start();
+        cache.runDeferred();
+
+        assertEquals(PAGE_SIZE, feed.size());
+        assertEquals("log99", feed.get(0).getName());
+        assertEquals(feed.size(), notifiedSize);
+    }
+
+    private LogFeed.Listener feedListener() {
+        return new LogFeed.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                notifiedSize += count;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                notifiedSize -= count;
+            }
+
+            @Override
+            public void onChanged(int position) {
+                notifiedChanges++;
+            }
+        };
+    }
+
+    private void scrollToEnd() {
+        feed.onVisibleRange(Math.max(0, feed.size() - 3), feed.size() - 1);
+    }
+
+    private static LogEntry entry(int i) {
+        // Pairs of logs share a timestamp, so cursors have to break ties by name
+        return new LogEntry(String.format(Locale.US, "log%02d", i), new FirebaseImageLog(1000 + i / 2, "image" + i));
+    }
+
+    private static class FakeCache implements LogCache {
+        final List<LogEntry> entries = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+        List<LogEntry> written;
+        boolean deferred;
+
+        @Override
+        public void read(int limit, LogPageSource.PageCallback callback) {
+            List<LogEntry> page = new ArrayList<>(entries.subList(0, Math.min(limit, entries.size())));
+            if (deferred) {
+                pending.add(() -> callback.onPage(page));
+            } else {
+                callback.onPage(page);
+            }
+        }
+
+        @Override
+        public void write(List<LogEntry> entries) {
+            written = new ArrayList<>(entries);
+        }
+
+        void runDeferred() {
+            for (Runnable runnable : pending) {
+                runnable.run();
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Ascending logs answered synchronously, or on demand when deferred.
+     */
+    private static class FakeSource implements LogPageSource {
+        final List<LogEntry> logs = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+        LiveCallback live;
+        boolean deferred;
+
+        @Override
+        public void loadNewest(int limit, PageCallback callback) {
+            answer(callback, Math.max(0, logs.size() - limit), logs.size());
+        }
+
+        @Override
+        public void loadOlder(long timestamp, String name, int limit, PageCallback callback) {
+            int end = indexOf(name);
+            answer(callback, Math.max(0, end - limit), end);
+        }
+
+        @Override
+        public void loadNewer(long timestamp, String name, int limit, PageCallback callback) {
+            int start = indexOf(name) + 1;
+            answer(callback, start, Math.min(logs.size(), start + limit));
+        }
+
+        @Override
+        public Registration listen(long timestamp, String name, LiveCallback callback) {
+            live = callback;
+            return () -> live = null;
+        }
+
+        void runDeferred() {
+            for (Runnable runnable : pending) {
+                runnable.run();
+            }
+            pending.clear();
+        }
+
+        private int indexOf(String name) {
+            for (int i = 0; i < logs.size(); i++) {
+                if (logs.get(i).getName().equals(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException(name);
+        }
+
+        private void answer(PageCallback callback, int from, int to) {
+            List<LogEntry> page = new ArrayList<>();
+            for (int i = to - 1; i >= from; i--) {
+                page.add(logs.get(i));
+            }
+            if (deferred) {
+                pending.add(() -> callback.onPage(page));
+            } else {
+                callback.onPage(page);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.alexlim.smartindoorcamera.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AlertCoalescerTest {
+    private static final long WINDOW = 60000;
+    private static final long MIN_UPDATE = 2000;
+
+    private final AlertCoalescer coalescer = new AlertCoalescer(WINDOW, MIN_UPDATE);
+
+    @Test
+    public void burstMakesOneSoundAndFewPosts() {
+        // 20 alerts 250 ms apart, each of which used to be its own sounding notification
+        int posts = 0;
+        int sounds = 0;
+        AlertCoalescer.Post last = null;
+        for (int i = 0; i < 20; i++) {
+            AlertCoalescer.Post post = coalescer.onAlert(i * 250, "p" + i);
+            if (post != null) {
+                posts++;
+                sounds += post.isAlert() ? 1 : 0;
+                assertEquals(1, post.getId());
+                last = post;
+            }
+        }
+        AlertCoalescer.Post flushed = coalescer.flush(coalescer.getFlushMillis());
+        assertNotNull(flushed);
+        posts++;
+        last = flushed;
+
+        assertEquals(1, sounds);
+        assertEquals(4, posts);
+        assertEquals(20, last.getCount());
+        assertEquals("p19", last.getPreview());
+        assertFalse(last.isAlert());
+        assertNull(coalescer.flush(coalescer.getFlushMillis()));
+    }
+
+    @Test
+    public void newWindowSoundsAgainUnderANewId() {
+        AlertCoalescer.Post first = coalescer.onAlert(0, "a");
+        AlertCoalescer.Post second = coalescer.onAlert(WINDOW, null);
+        assertTrue(first.isAlert());
+        assertTrue(second.isAlert());
+        assertEquals(first.getId() + 1, second.getId());
+        assertEquals(1, second.getCount());
+        assertNull(second.getPreview());
+    }
+
+    @Test
+    public void keepsLatestPreviewWhenAlertHasNone() {
+        coalescer.onAlert(0, "a");
+        AlertCoalescer.Post post = coalescer.onAlert(MIN_UPDATE, null);
+        assertNotNull(post);
+        assertEquals(2, post.getCount());
+        assertEquals("a", post.getPreview());
+        assertEquals(0, post.getFirstMillis());
+    }
+
+    @Test
+    public void restoredBurstCarriesOnAcrossProcesses() {
+        coalescer.onAlert(0, "a");
+        coalescer.onAlert(MIN_UPDATE, "b");
+
+        AlertCoalescer next = new AlertCoalescer(WINDOW, MIN_UPDATE);
+        next.restore(coalescer.getBurst(), coalescer.getWindowStartMillis(), coalescer.getCount());
+        AlertCoalescer.Post sameWindow = next.onAlert(2 * MIN_UPDATE, null);
+        assertFalse(sameWindow.isAlert());
+        assertEquals(1, sameWindow.getId());
+        assertEquals(3, sameWindow.getCount());
+
+        AlertCoalescer.Post newWindow = next.onAlert(WINDOW, null);
+        assertTrue(newWindow.isAlert());
+        assertEquals(2, newWindow.getId());
+    }
+}
@@ -0,0 +1,74 @@
+package com.alexlim.smartindoorcamera.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MicroPreviewTest {
+
+    @Test
+    public void decodesColour() {
+        // Pure red as the camera encodes it: Y=76, Cb=85, Cr=255
+        int[] pixels = MicroPreview.toArgb(preview(4, 2, 76, 85, 255));
+        assertNotNull(pixels);
+        assertEquals(8, pixels.length);
+        for (int pixel : pixels) {
+            assertTrue(((pixel >> 16) & 0xff) >= 250);
+            assertTrue(((pixel >> 8) & 0xff) <= 5);
+            assertTrue((pixel & 0xff) <= 5);
+            assertEquals(0xff, pixel >>> 24);
+        }
+    }
+
+    @Test
+    public void sharesChromaAcrossEachBlock() {
+        byte[] data = preview(4, 2, 128, 128, 128);
+        // Left block red, right block blue; luma varies per pixel
+        data[3 + 8] = (byte) 85;
+        data[3 + 8 + 2] = (byte) 255;
+        data[3 + 9] = (byte) 255;
+        data[3 + 9 + 2] = (byte) 107;
+        int[] pixels = MicroPreview.toArgb(data);
+        assertNotNull(pixels);
+        for (int i : new int[]{0, 1, 4, 5}) {
+            assertTrue(((pixels[i] >> 16) & 0xff) > (pixels[i] & 0xff));
+        }
+        for (int i : new int[]{2, 3, 6, 7}) {
+            assertTrue((pixels[i] & 0xff) > ((pixels[i] >> 16) & 0xff));
+        }
+    }
+
+    @Test
+    public void rejectsUnknownPreviews() {
+        byte[] wrongVersion = preview(4, 2, 0, 128, 128);
+        wrongVersion[0] = 2;
+        assertNull(MicroPreview.toArgb(wrongVersion));
+
+        byte[] truncated = new byte[preview(4, 2, 0, 128, 128).length - 1];
+        System.arraycopy(preview(4, 2, 0, 128, 128), 0, truncated, 0, truncated.length);
+        truncated[0] = 1;
+        truncated[1] = 4;
+        truncated[2] = 2;
+        assertNull(MicroPreview.toArgb(truncated));
+        assertNull(MicroPreview.toArgb(new byte[0]));
+    }
+
+    private static byte[] preview(int width, int height, int luma, int cb, int cr) {
+        byte[] data = new byte[3 + width * height * 3 / 2];
+        data[0] = 1;
+        data[1] = (byte) width;
+        data[2] = (byte) height;
+        int chroma = width * height / 4;
+        for (int i = 0; i < width * height; i++) {
+            data[3 + i] = (byte) luma;
+        }
+        for (int i = 0; i < chroma; i++) {
+            data[3 + width * height + i] = (byte) cb;
+            data[3 + width * height + chroma + i] = (byte) cr;
+        }
+        return data;
+    }
+}
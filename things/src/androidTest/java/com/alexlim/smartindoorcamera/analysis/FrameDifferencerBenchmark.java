@@ -0,0 +1,59 @@
+package com.alexlim.smartindoorcamera.analysis;
+
+import android.util.Log;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Single-core throughput at the analysis resolution, read through the ByteBuffer path the camera
+ * uses. Runs on the camera itself, since that is the CPU the analysis rate depends on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameDifferencerBenchmark {
+    private static final String TAG = FrameDifferencerBenchmark.class.getSimpleName();
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    // The lowest analysis rate that still catches a person walking through the frame
+    private static final double MIN_FRAMES_PER_SECOND = 30;
+
+    @Test
+    public void throughputAt320x240() {
+        FrameDifferencer differencer = new FrameDifferencer(WIDTH, HEIGHT, 25, 4);
+        ByteBuffer[] frames = new ByteBuffer[8];
+        for (int i = 0; i < frames.length; i++) {
+            byte[] noise = new byte[WIDTH * HEIGHT];
+            new Random(i).nextBytes(noise);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+            buffer.put(noise);
+            buffer.flip();
+            frames[i] = buffer;
+        }
+
+        // Warm up the JIT before timing
+        long sink = 0;
+        for (int i = 0; i < 200; i++) {
+            sink += differencer.process(frames[i % frames.length], WIDTH, 1);
+        }
+
+        int iterations = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += differencer.process(frames[i % frames.length], WIDTH, 1);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        double framesPerSecond = iterations / (elapsed / 1e9);
+        Log.i(TAG, String.format(Locale.US, "throughputAt320x240: %.0f frames/s (%.2f Mpx/s), sink=%d",
+                framesPerSecond, framesPerSecond * WIDTH * HEIGHT / 1e6, sink));
+        assertTrue("Analysis slower than " + MIN_FRAMES_PER_SECOND + " frames/s", framesPerSecond > MIN_FRAMES_PER_SECOND);
+    }
+}
@@ -1,15 +1,27 @@
 package com.alexlim.smartindoorcamera;
 
 import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.hardware.camera2.CameraAccessException;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.ImageView;
+import android.widget.TextView;
 
+import com.alexlim.smartindoorcamera.analysis.FrameDifferencer;
 import com.alexlim.smartindoorcamera.assistant.EmbeddedAssistant;
+import com.alexlim.smartindoorcamera.camera.AdaptiveQualityController;
 import com.alexlim.smartindoorcamera.camera.CaptureDevice;
+import com.alexlim.smartindoorcamera.camera.EncodedFrame;
+import com.alexlim.smartindoorcamera.camera.PreRollBuffer;
+import com.alexlim.smartindoorcamera.journal.UploadScheduler;
+import com.alexlim.smartindoorcamera.metrics.LatencyTracker;
+import com.alexlim.smartindoorcamera.pipeline.PipelineStage;
 import com.google.android.things.contrib.driver.button.Button;
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.PeripheralManager;
@@ -18,8 +30,11 @@ import com.google.auth.oauth2.UserCredentials;
 
 import org.json.JSONException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.Lifecycle;
@@ -66,10 +81,58 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
     private static final String DEVICE_INSTANCE_ID = "something-unique-they-said";
     private static final String LANGUAGE_CODE = "en-US";
 
+    // The on-screen preview doesn't need the full capture resolution
+    private static final int PREVIEW_SAMPLE_SIZE = 2;
+
+    // Motion verification constants. Off by default: it adds a second, continuous camera stream.
+    private static final boolean VERIFY_MOTION = false;
+    private static final int ANALYSIS_WIDTH = 320;
+    private static final int ANALYSIS_HEIGHT = 240;
+    private static final int ANALYSIS_PIXEL_THRESHOLD = 25;
+    private static final int ANALYSIS_LEARNING_SHIFT = 4;
+    // 1% of the analysis frame
+    private static final int ANALYSIS_CHANGED_PIXELS = ANALYSIS_WIDTH * ANALYSIS_HEIGHT / 100;
+    private static final long ANALYSIS_VERIFY_WINDOW_MS = 1500;
+
+    // Pre-roll constants: 3 seconds of history at 2 frames per second, capped at 1.5 MB
+    private static final boolean PRE_ROLL = true;
+    private static final long PRE_ROLL_INTERVAL_MS = 500;
+    private static final int PRE_ROLL_FRAMES = 6;
+    private static final int PRE_ROLL_MAX_BYTES = 1536 * 1024;
+
+    // Each triggered capture also yields a small JPEG from the low-resolution stream for the feed
+    private static final boolean THUMBNAILS = true;
+
+    // Adaptive capture constants: JPEG size and quality follow the measured uplink so that a new
+    // frame reaches the cloud within about 2 seconds
+    private static final boolean ADAPTIVE_QUALITY = true;
+    private static final long ADAPT_INTERVAL_MS = 2000;
+    private static final long ADAPT_TARGET_MS = 2000;
+    private static final int[] ADAPT_QUALITIES = {50, 65, 80, 90};
+    private static final int ADAPT_MAX_WIDTH = 1600;
+    private static final int ADAPT_MAX_HEIGHT = 1200;
+    private static final int INITIAL_WIDTH = 640;
+    private static final int INITIAL_HEIGHT = 480;
+    private static final int INITIAL_QUALITY = 90;
+
+    // Pipeline constants, sized for the 4-core board
+    private static final String CAMERA_THREAD_NAME = "CameraBackground";
+    private static final int ANALYSIS_THREADS = 2;
+    private static final int UPLOAD_THREADS = 1;
+    private static final int PIPELINE_QUEUE_CAPACITY = 8;
+    private static final String UPLOAD_JOURNAL_DIR = "upload-journal";
+    private static final String EVIDENCE_DIR = "evidence";
+
+    // Latency report constants
+    private static final long LATENCY_REFRESH_MS = 5000;
+    private static final String LATENCY_DUMP_FILE = "latency.txt";
+
     private Gpio ledMotionIndicatorGpio;
     private Gpio ledArmedIndicatorGpio;
     private CaptureDevice camera;
+    private AdaptiveQualityController qualityController;
     private MotionSensor motionSensor;
+    private MotionVerifier motionVerifier;
 
     private Button assistButton;
     private Gpio ledAssistantIndicatorGpio;
@@ -78,6 +141,14 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
 
     private ImageView imageViewUI;
     private android.widget.Button buttonUI;
+    private TextView latencyTextViewUI;
+    private final Handler latencyHandler = new Handler();
+    private final ExecutorService latencyDumpExecutor = Executors.newSingleThreadExecutor();
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private PipelineStage<EncodedFrame> analysisStage;
+    private PipelineStage<EncodedFrame> uploadStage;
 
     private Boolean isAssistantActive = null;
 
@@ -88,6 +159,7 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
         setTitle(R.string.app_name);
 
         setupViewModel();
+        setupPipeline();
         setupCamera();
         setupActuators();
         setupSensors();
@@ -100,6 +172,15 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
     protected void onDestroy() {
         super.onDestroy();
 
+        latencyHandler.removeCallbacks(latencyReport);
+        latencyDumpExecutor.shutdown();
+        cameraHandler.removeCallbacks(adaptCapture);
+
+        // Stop the frame pipeline; the camera thread goes last so in-flight callbacks can finish
+        analysisStage.shutdown();
+        uploadStage.shutdown();
+        cameraThread.quitSafely();
+
         // Destroy motion LEDs
         try {
             ledMotionIndicatorGpio.close();
@@ -121,6 +202,8 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
 
     private void setupUI() {
         imageViewUI = findViewById(R.id.image_view_motion);
+        latencyTextViewUI = findViewById(R.id.text_view_latency);
+        latencyHandler.post(latencyReport);
 
         buttonUI = findViewById(R.id.button_arm_disarm);
         buttonUI.setOnClickListener(v -> mainActivityViewModel.toggleSystemArmedStatus());
@@ -137,10 +220,65 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+
+                if ((Boolean) armed) {
+                    cameraHandler.post(() -> {
+                        try {
+                            camera.startHotSession();
+                        } catch (CameraAccessException e) {
+                            Log.e(TAG, "setupUI: failed to start hot capture session", e);
+                        }
+                    });
+                } else {
+                    cameraHandler.post(() -> camera.stopHotSession());
+                }
             }
         });
     }
 
+    private final Runnable latencyReport = new Runnable() {
+        @Override
+        public void run() {
+            String report = LatencyTracker.getInstance().summary()
+                    + camera.getHotLatency() + "\n"
+                    + camera.getColdLatency() + "\n"
+                    + camera.getRequestStats() + "\n"
+                    + getStartupStats() + "\n"
+                    + camera.getCaptureSettings() + "\n"
+                    + (qualityController != null ? qualityController + "\n" : "")
+                    + analysisStage + "\n"
+                    + uploadStage + "\n"
+                    + mainActivityViewModel.getUploadStats();
+            latencyTextViewUI.setText(report);
+
+            File dumpFile = new File(getFilesDir(), LATENCY_DUMP_FILE);
+            latencyDumpExecutor.execute(() -> {
+                try {
+                    LatencyTracker.getInstance().dump(dumpFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "latencyReport: failed to dump latency histograms", e);
+                }
+            });
+            latencyHandler.postDelayed(this, LATENCY_REFRESH_MS);
+        }
+    };
+
+    /**
+     * Time from boot to armed and capturing: until then motion goes unrecorded. Capture counts from
+     * the first hot session, which only starts once the system is armed.
+     */
+    private String getStartupStats() {
+        long armedMillis = mainActivityViewModel.getBootToArmedMillis();
+        if (armedMillis < 0) {
+            return "startup: not armed yet";
+        }
+        long capturingMillis = camera.getFirstHotSessionReadyMillis();
+        return "startup: boot to armed=" + armedMillis + "ms (" + mainActivityViewModel.getArmedSource()
+                + ") capturing=" + (capturingMillis >= 0 ? capturingMillis + "ms" : "pending")
+                + ", process start to capturing="
+                + (capturingMillis >= 0 ? (capturingMillis - Process.getStartElapsedRealtime()) + "ms" : "pending");
+    }
+
     private void setupAssistant() {
         isAssistantActive = true;
         try {
@@ -231,6 +369,9 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
 
     private void setupViewModel() {
         mainActivityViewModel = ViewModelProviders.of(this).get(MainActivityViewModel.class);
+        mainActivityViewModel.startUploadJournal(new File(getFilesDir(), UPLOAD_JOURNAL_DIR));
+        mainActivityViewModel.startEvidenceStore(new File(getFilesDir(), EVIDENCE_DIR));
+        mainActivityViewModel.startRetention();
     }
 
     private void setupActuators() {
@@ -245,31 +386,100 @@ public class MainActivity extends AppCompatActivity implements MotionSensor.Moti
     }
 
     private void setupSensors() {
-        motionSensor = new MotionSensor(this, MOTION_SENSOR_GPIO_PIN);
+        motionSensor = new MotionSensor(motionVerifier != null ? motionVerifier : this, MOTION_SENSOR_GPIO_PIN);
         Lifecycle lifecycle = this.getLifecycle();
         lifecycle.addObserver(motionSensor);
     }
 
     private void setupCamera() {
         camera = CaptureDevice.getInstance();
-        camera.initializeCamera(this, new Handler(), imageAvailableListener);
+        if (VERIFY_MOTION) {
+            motionVerifier = new MotionVerifier(this,
+                    new FrameDifferencer(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, ANALYSIS_PIXEL_THRESHOLD, ANALYSIS_LEARNING_SHIFT),
+                    ANALYSIS_CHANGED_PIXELS, ANALYSIS_VERIFY_WINDOW_MS);
+            camera.setAnalysisListener(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, motionVerifier);
+        }
+        if (PRE_ROLL) {
+            camera.setPreRollBuffer(new PreRollBuffer(PRE_ROLL_MAX_BYTES, PRE_ROLL_FRAMES,
+                    PRE_ROLL_FRAMES * PRE_ROLL_INTERVAL_MS), PRE_ROLL_INTERVAL_MS);
+        }
+        camera.setThumbnailsEnabled(THUMBNAILS);
+        camera.initializeCamera(this, cameraHandler, imageAvailableListener);
+
+        if (ADAPTIVE_QUALITY) {
+            qualityController = new AdaptiveQualityController(camera.getSupportedJpegSizes(), ADAPT_QUALITIES,
+                    ADAPT_MAX_WIDTH, ADAPT_MAX_HEIGHT, ADAPT_TARGET_MS,
+                    new AdaptiveQualityController.Setting(INITIAL_WIDTH, INITIAL_HEIGHT, INITIAL_QUALITY));
+            cameraHandler.postDelayed(adaptCapture, ADAPT_INTERVAL_MS);
+        }
     }
 
-    private CaptureDevice.ImageCapturedListener imageAvailableListener = bitmap -> {
-        imageViewUI.setImageBitmap(bitmap);
-        mainActivityViewModel.uploadMotionImage(bitmap);
+    /**
+     * Feeds the upload counters to the quality controller and applies what it picks. Runs on the
+     * camera thread, where capture settings may change.
+     */
+    private final Runnable adaptCapture = new Runnable() {
+        @Override
+        public void run() {
+            UploadScheduler scheduler = mainActivityViewModel.getUploadScheduler();
+            if (scheduler != null) {
+                AdaptiveQualityController.Setting setting = qualityController.update(scheduler.getUploadedBytes(),
+                        scheduler.getBusyNanos(), scheduler.getPendingBytes(), SystemClock.elapsedRealtime());
+                try {
+                    camera.setCaptureSettings(setting.getWidth(), setting.getHeight(), setting.getQuality());
+                } catch (CameraAccessException e) {
+                    Log.w(TAG, "adaptCapture: failed to apply " + setting, e);
+                }
+            }
+            cameraHandler.postDelayed(this, ADAPT_INTERVAL_MS);
+        }
     };
 
+    /**
+     * Frame pipeline: camera callbacks run on their own thread and hand frames to the analysis
+     * stage (preview decode), which passes them on to the upload stage. Each stage has a bounded
+     * queue and its own workers, so a slow upload never holds up the camera or the UI.
+     */
+    private void setupPipeline() {
+        cameraThread = new HandlerThread(CAMERA_THREAD_NAME);
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+
+        uploadStage = new PipelineStage<>("upload", UPLOAD_THREADS, PIPELINE_QUEUE_CAPACITY,
+                PipelineStage.OverflowPolicy.DROP_OLDEST,
+                frame -> mainActivityViewModel.uploadMotionImage(frame),
+                EncodedFrame::release);
+        analysisStage = new PipelineStage<>("analysis", ANALYSIS_THREADS, PIPELINE_QUEUE_CAPACITY,
+                PipelineStage.OverflowPolicy.DROP_OLDEST,
+                frame -> {
+                    // Pre-roll frames were encoded before the motion and arrive all at once
+                    if (qualityController != null && !frame.isPreRoll()) {
+                        qualityController.onFrameEncoded(new AdaptiveQualityController.Setting(frame.getWidth(),
+                                frame.getHeight(), frame.getQuality()), frame.getLength());
+                    }
+                    if (!frame.isPreRoll()) {
+                        Bitmap preview = frame.decode(PREVIEW_SAMPLE_SIZE);
+                        runOnUiThread(() -> imageViewUI.setImageBitmap(preview));
+                    }
+                    uploadStage.submit(frame);
+                },
+                EncodedFrame::release);
+    }
+
+    private CaptureDevice.ImageCapturedListener imageAvailableListener = frame -> analysisStage.submit(frame);
+
     @Override
     public void onMotionDetected() throws IOException {
         Log.d(TAG, "onMotionDetected");
         ledMotionIndicatorGpio.setValue(true);
 
-        try {
-            camera.takePicture();
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+        cameraHandler.post(() -> {
+            try {
+                camera.takePicture();
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            }
+        });
     }
 
     @Override
@@ -1,46 +1,166 @@
 package com.alexlim.smartindoorcamera;
 
+import android.app.Application;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.AndroidViewModel;
 
+import com.alexlim.smartindoorcamera.analysis.FrameDeduplicator;
+import com.alexlim.smartindoorcamera.camera.EncodedFrame;
+import com.alexlim.smartindoorcamera.camera.MicroPreview;
+import com.alexlim.smartindoorcamera.evidence.EvidenceStore;
+import com.alexlim.smartindoorcamera.journal.EventBundle;
+import com.alexlim.smartindoorcamera.journal.JournalCommitter;
+import com.alexlim.smartindoorcamera.journal.JournalDrain;
+import com.alexlim.smartindoorcamera.journal.JournalEntry;
+import com.alexlim.smartindoorcamera.journal.JournalReference;
+import com.alexlim.smartindoorcamera.journal.JournalUploader;
+import com.alexlim.smartindoorcamera.journal.UploadJournal;
+import com.alexlim.smartindoorcamera.journal.UploadScheduler;
+import com.alexlim.smartindoorcamera.metrics.MotionTrace;
 import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.alexlim.smartindoorcamera.retention.FirebaseRetentionBackend;
+import com.alexlim.smartindoorcamera.retention.RetentionBackend;
+import com.alexlim.smartindoorcamera.retention.RetentionEngine;
+import com.alexlim.smartindoorcamera.retention.StoragePaths;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
-public class MainActivityViewModel extends ViewModel {
+public class MainActivityViewModel extends AndroidViewModel {
     private static final String TAG = MainActivityViewModel.class.getSimpleName();
 
     private static String FIREBASE_MOTION_REF = "motion";
     private static String FIREBASE_MOTION_LOGS = "motion-logs";
-    private static String FIREBASE_IMAGE_PREFIX = "images/motion";
+    private static String FIREBASE_MOTION_DAYS = "motion-days";
+    private static String FIREBASE_MOTION_LATEST = "motion-latest";
+    // Micro previews by log name, for the push message only, so the feed never downloads them
+    private static String FIREBASE_MOTION_PREVIEWS = "motion-previews";
     private static String FIREBASE_ON_OFF_REF = "OnOff";
+    private static String JPEG_CONTENT_TYPE = "image/jpeg";
+
+    // Last armed state seen from Firebase, so capture can start before the listener first fires
+    private static final String PREF_ARMED = "armed";
+
+    // Upload journal: about 10 minutes of continuous capture before the oldest frames are evicted
+    private static final long JOURNAL_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long JOURNAL_SEGMENT_BYTES = 4L * 1024 * 1024;
+    private static final int UPLOAD_CONCURRENCY = 2;
+    // Frames further apart than this belong to different motion events for upload ordering
+    private static final long UPLOAD_EVENT_GAP_MS = 10_000;
+    // Upload each event as one bundle object once it has been quiet for the event gap. Saves
+    // requests, DB writes and function runs per event, but delays its first upload by the gap.
+    private static final boolean BUNDLE_EVENTS = false;
+    private static final long UPLOAD_INITIAL_BACKOFF_MS = 1000;
+    private static final long UPLOAD_MAX_BACKOFF_MS = 60_000;
+    // Log metadata goes out in one multi-path write per burst of uploads; the delay bounds how long
+    // a finished upload waits for the rest of its burst
+    private static final int LOG_BATCH_MAX_UPLOADS = 16;
+    private static final long LOG_BATCH_MAX_DELAY_MS = 500;
+    // Duplicate frames only add rows to the history, so those of a still scene can wait to share a write
+    private static final long LOG_BATCH_MAX_REFERENCE_DELAY_MS = 5000;
+
+    // Deduplication: frames within a few bits of one kept in the last 30 s are not uploaded again.
+    // References need per-frame objects to point at, so bundling falls back to skipping.
+    private static final FrameDeduplicator.Policy DEDUP_POLICY =
+            BUNDLE_EVENTS ? FrameDeduplicator.Policy.SKIP : FrameDeduplicator.Policy.REFERENCE;
+    private static final int DEDUP_WINDOW = 8;
+    private static final int DEDUP_MAX_DISTANCE = 5;
+    private static final long DEDUP_MAX_AGE_MS = 30_000;
+
+    // Local evidence: every frame captured while armed, uploaded or not, about 3 hours at 2
+    // frames per second of 20 KB
+    private static final long EVIDENCE_MAX_BYTES = 256L * 1024 * 1024;
+    private static final int EVIDENCE_SEGMENT_BYTES = 8 * 1024 * 1024;
+    private static final long EVIDENCE_SEGMENT_MAX_AGE_MS = 10 * 60_000;
+
+    // Retention: full resolution for a week, then the thumbnail only, deleted after 30 days. Runs
+    // every 6 hours at up to 50 logs a second.
+    private static final long RETENTION_FULL_RESOLUTION_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long RETENTION_MS = TimeUnit.DAYS.toMillis(30);
+    private static final int RETENTION_BATCH_SIZE = 50;
+    private static final long RETENTION_BATCH_INTERVAL_MS = 1000;
+    private static final long RETENTION_INITIAL_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long RETENTION_PERIOD_MS = TimeUnit.HOURS.toMillis(6);
 
     SingleLiveEvent armed = new SingleLiveEvent<Boolean>();
 
+    private JournalDrain uploadDrain;
+    // Guards opening, writing to and closing the store, which happen on different threads
+    private final Object evidenceLock = new Object();
+    private volatile EvidenceStore evidenceStore;
+    private boolean evidenceStarted;
+    private boolean evidenceCleared;
+    private RetentionEngine retentionEngine;
+    private ScheduledExecutorService retentionExecutor;
+    // Newest capture time committed to motion-latest; commits run one at a time
+    private volatile long latestLogTimeMillis;
+    private final FrameDeduplicator deduplicator =
+            new FrameDeduplicator(DEDUP_POLICY, DEDUP_WINDOW, DEDUP_MAX_DISTANCE, DEDUP_MAX_AGE_MS);
+
     private DatabaseReference dbRef = FirebaseDatabase.getInstance().getReference(FIREBASE_ON_OFF_REF).child("on");
+    private final SharedPreferences preferences;
+    // When the system first became armed in this process, in elapsed realtime, and from where
+    private volatile long armedAtMillis = -1;
+    private volatile String armedSource;
 
     SingleLiveEvent getArmed() {
         return armed;
     }
 
-    public MainActivityViewModel() {
+    public MainActivityViewModel(@NonNull Application application) {
+        super(application);
+        preferences = PreferenceManager.getDefaultSharedPreferences(application);
+        if (preferences.contains(PREF_ARMED)) {
+            boolean cachedArmed = preferences.getBoolean(PREF_ARMED, false);
+            Log.d(TAG, "MainActivityViewModel: cached armed state " + cachedArmed);
+            armed.setValue(cachedArmed);
+            if (cachedArmed) {
+                recordArmed("cache");
+            }
+        }
+
         dbRef.addValueEventListener(new ValueEventListener() {
             @Override
             public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
                 Boolean systemArmed = (Boolean) dataSnapshot.getValue();
                 Log.d(TAG, "onDataChange: " + systemArmed);
+                if (systemArmed == null) {
+                    return;
+                }
+                preferences.edit().putBoolean(PREF_ARMED, systemArmed).apply();
+                // Confirming the cached state would only restart the camera session
+                if (systemArmed.equals(armed.getValue())) {
+                    return;
+                }
                 armed.setValue(systemArmed);
+                if (systemArmed) {
+                    recordArmed("firebase");
+                }
             }
 
             @Override
@@ -50,22 +170,384 @@ public class MainActivityViewModel extends ViewModel {
         });
     }
 
-    void uploadMotionImage(Bitmap imageBytes) {
+    private void recordArmed(String source) {
+        if (armedAtMillis < 0) {
+            armedAtMillis = SystemClock.elapsedRealtime();
+            armedSource = source;
+        }
+    }
+
+    /**
+     * Milliseconds from boot until the system was first known to be armed in this process, or -1 if
+     * it hasn't been yet.
+     */
+    long getBootToArmedMillis() {
+        return armedAtMillis;
+    }
+
+    String getArmedSource() {
+        return armedSource;
+    }
+
+    /**
+     * Opens the upload journal in {@code directory} and starts draining it, including anything a
+     * previous run left behind.
+     */
+    void startUploadJournal(File directory) {
+        if (uploadDrain != null) {
+            return;
+        }
+        uploadDrain = new JournalDrain(new UploadJournal(directory, JOURNAL_MAX_BYTES, JOURNAL_SEGMENT_BYTES),
+                this::uploadJournalEntries, new UploadScheduler(UPLOAD_EVENT_GAP_MS, BUNDLE_EVENTS), UPLOAD_CONCURRENCY,
+                UPLOAD_INITIAL_BACKOFF_MS, UPLOAD_MAX_BACKOFF_MS);
+        uploadDrain.setCommitter(this::commitMotionLogs, LOG_BATCH_MAX_UPLOADS, LOG_BATCH_MAX_DELAY_MS,
+                LOG_BATCH_MAX_REFERENCE_DELAY_MS);
+        uploadDrain.start();
+    }
+
+    /**
+     * Keeps captured frames in {@code directory} for local playback. The store is opened on a
+     * background thread, as recovery reads every segment left on disk; frames that arrive before
+     * it is open, or if it can't be opened, go unstored.
+     */
+    void startEvidenceStore(File directory) {
+        synchronized (evidenceLock) {
+            if (evidenceStarted) {
+                return;
+            }
+            evidenceStarted = true;
+        }
+        EvidenceStore store = new EvidenceStore(directory, EVIDENCE_MAX_BYTES, EVIDENCE_SEGMENT_BYTES,
+                EVIDENCE_SEGMENT_MAX_AGE_MS);
+        Thread thread = new Thread(() -> {
+            try {
+                // Not under the lock, so frames are dropped rather than held up while it opens
+                store.open();
+            } catch (IOException e) {
+                Log.e(TAG, "startEvidenceStore: failed to open evidence store", e);
+                return;
+            }
+            synchronized (evidenceLock) {
+                if (!evidenceCleared) {
+                    evidenceStore = store;
+                    return;
+                }
+            }
+            try {
+                store.close();
+            } catch (IOException e) {
+                Log.w(TAG, "startEvidenceStore: failed to seal evidence store", e);
+            }
+        }, "Evidence");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    EvidenceStore getEvidenceStore() {
+        return evidenceStore;
+    }
+
+    /**
+     * Starts applying the retention policy to uploaded frames in the background.
+     */
+    void startRetention() {
+        if (retentionEngine != null) {
+            return;
+        }
+        RetentionBackend backend = new FirebaseRetentionBackend(FIREBASE_MOTION_LOGS, FIREBASE_MOTION_DAYS,
+                FIREBASE_MOTION_PREVIEWS);
+        retentionEngine = new RetentionEngine(backend, RETENTION_FULL_RESOLUTION_MS, RETENTION_MS, RETENTION_BATCH_SIZE,
+                RETENTION_BATCH_INTERVAL_MS, DEDUP_MAX_AGE_MS);
+        retentionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Retention");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        retentionExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                retentionEngine.runOnce(System.currentTimeMillis());
+                Log.d(TAG, "startRetention: " + retentionEngine);
+            } catch (IOException | RuntimeException e) {
+                // Picked up again by the next run
+                Log.w(TAG, "startRetention: retention run failed", e);
+            }
+        }, RETENTION_INITIAL_DELAY_MS, RETENTION_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The scheduler's byte counters are what the capture side adapts to; null until the journal
+     * is started.
+     */
+    UploadScheduler getUploadScheduler() {
+        return uploadDrain != null ? uploadDrain.getScheduler() : null;
+    }
+
+    String getUploadStats() {
+        return (uploadDrain != null ? uploadDrain.toString() : "upload drain: not started") + "\n" + deduplicator
+                + (evidenceStore != null ? "\n" + evidenceStore : "")
+                + (retentionEngine != null ? "\n" + retentionEngine : "");
+    }
+
+    void uploadMotionImage(EncodedFrame frame) {
         Boolean isArmed = (Boolean) armed.getValue();
-        if (isArmed != null && isArmed) {
-            StorageReference storageReference = FirebaseStorage.getInstance().getReference(FIREBASE_MOTION_REF);
-            StorageReference imageStorageRef = storageReference.child(FIREBASE_IMAGE_PREFIX + System.currentTimeMillis() + ".jpg");
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            imageBytes.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-            UploadTask uploadTask = imageStorageRef.putBytes(stream.toByteArray());
-
-            uploadTask.addOnFailureListener(e -> Log.d(TAG, "uploadMotionImage: upload failed"))
-                    .addOnSuccessListener(taskSnapshot -> {
-                        Log.d(TAG, "uploadMotionImage: upload succeed");
-                        String downloadUrl = imageStorageRef.getPath();
-                        DatabaseReference ref = FirebaseDatabase.getInstance().getReference(FIREBASE_MOTION_LOGS).push();
-                        ref.setValue(new FirebaseImageLog(System.currentTimeMillis(), downloadUrl));
-                    });
+        if (isArmed == null || !isArmed || uploadDrain == null) {
+            frame.release();
+            return;
+        }
+        // Kept locally before deduplication, so near-identical frames are still in the history
+        storeEvidence(frame);
+
+        if (frame.hasPerceptualHash()) {
+            String name = JournalDrain.entryName(frame);
+            String original = deduplicator.check(name, frame.getPerceptualHash(), frame.getCaptureTimeMillis(), frame.getLength());
+            if (original != null) {
+                if (deduplicator.getPolicy() == FrameDeduplicator.Policy.REFERENCE) {
+                    // Logged with the next batch of upload metadata rather than a write of its own
+                    uploadDrain.submitReference(new JournalReference(name, frame.getCaptureTimeMillis(), original));
+                }
+                frame.release();
+                return;
+            }
+        }
+        // Journaled first, so the frame outlives a failed upload or a restart
+        uploadDrain.submit(frame);
+    }
+
+    private void storeEvidence(EncodedFrame frame) {
+        synchronized (evidenceLock) {
+            // Null until opened and once cleared, so an upload still running then doesn't write to a closed store
+            if (evidenceStore == null) {
+                return;
+            }
+            try {
+                evidenceStore.append(frame.getCaptureTimeMillis(), frame.getData(), frame.getLength());
+            } catch (IOException e) {
+                Log.w(TAG, "storeEvidence: failed to store frame", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the logs of a batch of finished uploads and duplicate frames, their per-day index
+     * entries, the previews of the uploads and, if the batch has the newest upload so far, the
+     * latest-event pointer, all in one atomic multi-path update. Paths are keyed by entry name, so a retried batch rewrites the same
+     * children.
+     */
+    private void commitMotionLogs(List<List<JournalEntry>> uploads, List<JournalReference> references,
+                                  JournalUploader.Callback callback) {
+        Map<String, Object> updates = new HashMap<>();
+        for (JournalReference reference : references) {
+            putLog(updates, reference.getName(), duplicateLog(reference));
+        }
+        FirebaseImageLog latest = null;
+        for (List<JournalEntry> entries : uploads) {
+            JournalEntry first = entries.get(0);
+            FirebaseImageLog log = BUNDLE_EVENTS ? bundleLog(entries) : frameLog(first);
+            putLog(updates, first.getName(), log);
+            // Written with the log, so it is there when the log's creation triggers the push
+            String preview = previewOf(BUNDLE_EVENTS ? entries.get(entries.size() - 1) : first);
+            if (preview != null) {
+                updates.put(FIREBASE_MOTION_PREVIEWS + "/" + first.getName(), preview);
+            }
+            if (latest == null || log.getTimestamp() > latest.getTimestamp()) {
+                latest = log;
+            }
+        }
+        // Backfill and retries finish out of order; the pointer only ever moves forward
+        long latestTimeMillis = latest != null ? latest.getTimestamp() : Long.MIN_VALUE;
+        if (latestTimeMillis > latestLogTimeMillis) {
+            updates.put(FIREBASE_MOTION_LATEST, latest);
+        }
+
+        FirebaseDatabase.getInstance().getReference().updateChildren(updates)
+                .addOnSuccessListener(aVoid -> {
+                    latestLogTimeMillis = Math.max(latestLogTimeMillis, latestTimeMillis);
+                    for (List<JournalEntry> entries : uploads) {
+                        MotionTrace trace = entries.get(entries.size() - 1).getTrace();
+                        if (trace != null) {
+                            trace.stamp(MotionTrace.Stage.DB_WRITE_ACKED);
+                        }
+                    }
+                    callback.onSuccess();
+                })
+                .addOnFailureListener(callback::onFailure);
+    }
+
+    private static void putLog(Map<String, Object> updates, String name, FirebaseImageLog log) {
+        updates.put(FIREBASE_MOTION_LOGS + "/" + name, log);
+        updates.put(FIREBASE_MOTION_DAYS + "/" + StoragePaths.dayKey(log.getTimestamp()) + "/" + name, log.getTimestamp());
+    }
+
+    private static FirebaseImageLog frameLog(JournalEntry entry) {
+        StorageReference storageReference = FirebaseStorage.getInstance().getReference(FIREBASE_MOTION_REF);
+        String thumbnailRef = entry.hasThumbnail()
+                ? storageReference.child(StoragePaths.thumbnail(entry.getName(), entry.getCaptureTimeMillis())).getPath() : null;
+        // Capture time rather than now: a journaled entry can go up long after it was taken
+        return new FirebaseImageLog(entry.getCaptureTimeMillis(),
+                storageReference.child(StoragePaths.image(entry.getName(), entry.getCaptureTimeMillis())).getPath(), thumbnailRef);
+    }
+
+    /**
+     * A duplicate frame's log, pointing at the images its original was committed with. The
+     * duplicateOf field also tells the cloud function not to push it.
+     */
+    private static FirebaseImageLog duplicateLog(JournalReference reference) {
+        StorageReference storageReference = FirebaseStorage.getInstance().getReference(FIREBASE_MOTION_REF);
+        JournalEntry original = reference.getOriginal();
+        String thumbnailRef = original.hasThumbnail()
+                ? storageReference.child(StoragePaths.thumbnail(original.getName(), original.getCaptureTimeMillis())).getPath() : null;
+        return new FirebaseImageLog(reference.getCaptureTimeMillis(),
+                storageReference.child(StoragePaths.image(original.getName(), original.getCaptureTimeMillis())).getPath(),
+                thumbnailRef, 0, original.getName());
+    }
+
+    private static FirebaseImageLog bundleLog(List<JournalEntry> frames) {
+        JournalEntry lead = frames.get(frames.size() - 1);
+        return new FirebaseImageLog(lead.getCaptureTimeMillis(), bundleStorageRef(frames.get(0)).getPath(), null,
+                frames.size());
+    }
+
+    /**
+     * The {@link MicroPreview} that goes out in the push message, made from the entry's thumbnail
+     * if it has one. The JPEG is decoded at the largest power-of-two reduction still wider than the
+     * preview, which costs a fraction of a full decode. Returns null if the entry can't be read.
+     */
+    private static String previewOf(JournalEntry entry) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            try (InputStream in = entry.hasThumbnail() ? entry.openThumbnailStream() : entry.openImageStream()) {
+                BitmapFactory.decodeStream(in, null, options);
+            }
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= MicroPreview.WIDTH) {
+                sampleSize *= 2;
+            }
+            options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap;
+            try (InputStream in = entry.hasThumbnail() ? entry.openThumbnailStream() : entry.openImageStream()) {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+            if (bitmap == null) {
+                return null;
+            }
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap.recycle();
+            return MicroPreview.encode(pixels, width, height);
+        } catch (IOException e) {
+            Log.w(TAG, "previewOf: cannot read " + entry.getName(), e);
+            return null;
+        }
+    }
+
+    private static StorageReference bundleStorageRef(JournalEntry first) {
+        return FirebaseStorage.getInstance().getReference(FIREBASE_MOTION_REF)
+                .child(StoragePaths.bundle(first.getName(), first.getCaptureTimeMillis()));
+    }
+
+    private void uploadJournalEntries(List<JournalEntry> entries, JournalUploader.Callback callback) {
+        if (BUNDLE_EVENTS) {
+            uploadEventBundle(entries, callback);
+        } else {
+            uploadJournalEntry(entries.get(0), callback);
+        }
+    }
+
+    private void uploadJournalEntry(JournalEntry entry, JournalUploader.Callback callback) {
+        MotionTrace trace = entry.getTrace();
+        StorageReference storageReference = FirebaseStorage.getInstance().getReference(FIREBASE_MOTION_REF);
+        // Paths come from the capture, so a retried entry overwrites rather than duplicates
+        StorageReference imageStorageRef = storageReference.child(StoragePaths.image(entry.getName(), entry.getCaptureTimeMillis()));
+        StorageReference thumbnailStorageRef = entry.hasThumbnail()
+                ? storageReference.child(StoragePaths.thumbnail(entry.getName(), entry.getCaptureTimeMillis())) : null;
+        // Upload the camera's JPEG as is, streamed from the journal file rather than the heap
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType(JPEG_CONTENT_TYPE)
+                .build();
+        Task<List<Task<?>>> uploads;
+        UploadTask uploadTask;
+        UploadTask thumbnailTask;
+        try {
+            uploadTask = imageStorageRef.putStream(entry.openImageStream(), metadata);
+            thumbnailTask = thumbnailStorageRef != null ? thumbnailStorageRef.putStream(entry.openThumbnailStream(), metadata) : null;
+            uploads = thumbnailTask != null ? Tasks.whenAllComplete(uploadTask, thumbnailTask) : Tasks.whenAllComplete(uploadTask);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+
+        uploads.addOnCompleteListener(tasks -> {
+            Exception failure = uploadTask.getException() != null ? uploadTask.getException()
+                    : thumbnailTask != null ? thumbnailTask.getException() : null;
+            if (failure != null) {
+                Log.d(TAG, "uploadJournalEntry: upload failed");
+                callback.onFailure(failure);
+                return;
+            }
+            Log.d(TAG, "uploadJournalEntry: upload succeed");
+            if (trace != null) {
+                trace.stamp(MotionTrace.Stage.UPLOAD_DONE);
+            }
+            // The log is written with the rest of the burst in commitMotionLogs
+            callback.onSuccess();
+        });
+    }
+
+    /**
+     * Uploads every frame of one event as a single {@link EventBundle} object with a single log
+     * entry. Named after the event's first frame, so a retry overwrites both.
+     */
+    private void uploadEventBundle(List<JournalEntry> frames, JournalUploader.Callback callback) {
+        MotionTrace trace = frames.get(frames.size() - 1).getTrace();
+        StorageReference bundleStorageRef = bundleStorageRef(frames.get(0));
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType(EventBundle.CONTENT_TYPE)
+                .build();
+        UploadTask uploadTask;
+        try {
+            uploadTask = bundleStorageRef.putStream(EventBundle.openStream(frames), metadata);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+
+        uploadTask.addOnFailureListener(e -> {
+            Log.d(TAG, "uploadEventBundle: upload failed");
+            callback.onFailure(e);
+        }).addOnSuccessListener(taskSnapshot -> {
+            Log.d(TAG, "uploadEventBundle: uploaded " + frames.size() + " frames");
+            if (trace != null) {
+                trace.stamp(MotionTrace.Stage.UPLOAD_DONE);
+            }
+            callback.onSuccess();
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        if (uploadDrain != null) {
+            uploadDrain.shutdown();
+        }
+        if (retentionExecutor != null) {
+            retentionEngine.stop();
+            retentionExecutor.shutdown();
+        }
+        synchronized (evidenceLock) {
+            // A store still opening is closed by its own thread
+            evidenceCleared = true;
+            if (evidenceStore != null) {
+                try {
+                    evidenceStore.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "onCleared: failed to seal evidence store", e);
+                }
+                evidenceStore = null;
+            }
         }
     }
 
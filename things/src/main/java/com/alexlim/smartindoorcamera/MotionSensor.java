@@ -3,6 +3,7 @@ package com.alexlim.smartindoorcamera;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.LifecycleObserver;
 import androidx.lifecycle.OnLifecycleEvent;
+import com.alexlim.smartindoorcamera.metrics.LatencyTracker;
 import com.google.android.things.pio.Gpio;
 import com.google.android.things.pio.PeripheralManager;
 
@@ -39,6 +40,7 @@ public class MotionSensor implements LifecycleObserver {
                 if (gpio != null) {
                     try {
                         if (gpio.getValue()) {
+                            LatencyTracker.getInstance().startEvent();
                             motionListener.onMotionDetected();
                         } else {
                             motionListener.onMotionStopped();
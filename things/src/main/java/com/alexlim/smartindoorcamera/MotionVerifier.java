@@ -0,0 +1,115 @@
+package com.alexlim.smartindoorcamera;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.alexlim.smartindoorcamera.analysis.FrameDifferencer;
+import com.alexlim.smartindoorcamera.camera.CaptureDevice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sits between {@link MotionSensor} and the real listener and only lets a PIR trigger through if
+ * the camera's analysis stream also sees enough changed pixels within a short window. Drafts and
+ * sunlight trip the PIR without changing the picture, so those are swallowed here instead of
+ * costing a capture, an upload and a push.
+ * <p>
+ * If no analysis frames arrive at all during the window the trigger is passed on anyway, so a
+ * missing stream can't silently disable alerts.
+ */
+class MotionVerifier implements MotionSensor.MotionListener, CaptureDevice.AnalysisFrameListener {
+    private static final String TAG = MotionVerifier.class.getSimpleName();
+
+    private final MotionSensor.MotionListener motionListener;
+    private final FrameDifferencer frameDifferencer;
+    private final int changedPixelThreshold;
+    private final long verifyWindowMillis;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Elapsed-realtime nanos of the PIR edge being verified, 0 when none is pending
+    private final AtomicLong pendingSinceNanos = new AtomicLong();
+    private volatile long lastFrameNanos;
+
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong passedUnverified = new AtomicLong();
+
+    MotionVerifier(MotionSensor.MotionListener motionListener, FrameDifferencer frameDifferencer,
+                   int changedPixelThreshold, long verifyWindowMillis) {
+        this.motionListener = motionListener;
+        this.frameDifferencer = frameDifferencer;
+        this.changedPixelThreshold = changedPixelThreshold;
+        this.verifyWindowMillis = verifyWindowMillis;
+    }
+
+    @Override
+    public void onMotionDetected() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (pendingSinceNanos.compareAndSet(0, now)) {
+            mainHandler.postDelayed(() -> onWindowExpired(now), verifyWindowMillis);
+        }
+    }
+
+    @Override
+    public void onMotionStopped() throws IOException {
+        motionListener.onMotionStopped();
+    }
+
+    @Override
+    public void onLumaFrame(ByteBuffer luma, int rowStride, int pixelStride, long timestampNanos) {
+        lastFrameNanos = SystemClock.elapsedRealtimeNanos();
+        // Every frame feeds the background model, pending trigger or not
+        int changed = frameDifferencer.process(luma, rowStride, pixelStride);
+
+        long pending = pendingSinceNanos.get();
+        if (pending != 0 && changed >= changedPixelThreshold && pendingSinceNanos.compareAndSet(pending, 0)) {
+            verified.incrementAndGet();
+            Log.d(TAG, "onLumaFrame: motion verified, changed pixels: " + changed);
+            mainHandler.post(this::forwardMotion);
+        }
+    }
+
+    private void onWindowExpired(long triggerNanos) {
+        if (!pendingSinceNanos.compareAndSet(triggerNanos, 0)) {
+            return;
+        }
+        if (lastFrameNanos < triggerNanos) {
+            passedUnverified.incrementAndGet();
+            Log.w(TAG, "onWindowExpired: no analysis frames, passing motion through unverified");
+            forwardMotion();
+        } else {
+            suppressed.incrementAndGet();
+            Log.d(TAG, "onWindowExpired: motion suppressed, " + this);
+        }
+    }
+
+    private void forwardMotion() {
+        try {
+            motionListener.onMotionDetected();
+        } catch (IOException e) {
+            Log.e(TAG, "forwardMotion: motion listener failed", e);
+        }
+    }
+
+    long getVerified() {
+        return verified.get();
+    }
+
+    long getSuppressed() {
+        return suppressed.get();
+    }
+
+    long getPassedUnverified() {
+        return passedUnverified.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MotionVerifier{verified=" + verified + ", suppressed=" + suppressed
+                + ", unverified=" + passedUnverified + "}";
+    }
+}
@@ -0,0 +1,92 @@
+package com.alexlim.smartindoorcamera.analysis;
+
+import java.util.Locale;
+
+/**
+ * Spots frames that look like one uploaded moments ago, by {@link PerceptualHash} distance to a
+ * small window of recently kept frames. Only kept frames enter the window, so a scene that drifts
+ * slowly still gets a new frame once it has drifted past the threshold, and hashes expire after
+ * {@code maxAgeMillis} so a new event after a quiet spell is never suppressed.
+ */
+public class FrameDeduplicator {
+
+    public enum Policy {
+        /** Drop duplicates altogether. */
+        SKIP,
+        /** Log duplicates as pointing at the frame they duplicate, without uploading their bytes. */
+        REFERENCE
+    }
+
+    private final Policy policy;
+    private final int maxDistance;
+    private final long maxAgeMillis;
+    private final long[] hashes;
+    private final long[] times;
+    private final String[] names;
+    private int next;
+    private int size;
+
+    private long frames;
+    private long duplicates;
+    private long bytesSaved;
+
+    /**
+     * @param maxDistance frames at most this many bits from a recent frame are duplicates
+     */
+    public FrameDeduplicator(Policy policy, int windowSize, int maxDistance, long maxAgeMillis) {
+        this.policy = policy;
+        this.maxDistance = maxDistance;
+        this.maxAgeMillis = maxAgeMillis;
+        this.hashes = new long[windowSize];
+        this.times = new long[windowSize];
+        this.names = new String[windowSize];
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Checks a frame against the window. Returns the name of the recent frame it duplicates, or
+     * null if it should be kept, in which case it joins the window under {@code name}.
+     */
+    public synchronized String check(String name, long hash, long captureTimeMillis, int sizeInBytes) {
+        frames++;
+        for (int i = 0; i < size; i++) {
+            if (captureTimeMillis - times[i] <= maxAgeMillis && PerceptualHash.distance(hash, hashes[i]) <= maxDistance) {
+                duplicates++;
+                bytesSaved += sizeInBytes;
+                return names[i];
+            }
+        }
+
+        hashes[next] = hash;
+        times[next] = captureTimeMillis;
+        names[next] = name;
+        next = (next + 1) % hashes.length;
+        size = Math.min(size + 1, hashes.length);
+        return null;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized double getDedupRatio() {
+        return frames == 0 ? 0 : duplicates / (double) frames;
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "dedup (%s): frames=%d duplicates=%d ratio=%.0f%% saved=%dKB",
+                policy, frames, duplicates, getDedupRatio() * 100, bytesSaved / 1024);
+    }
+}
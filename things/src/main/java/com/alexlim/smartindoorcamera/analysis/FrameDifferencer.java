@@ -0,0 +1,108 @@
+package com.alexlim.smartindoorcamera.analysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares luma frames against a running-average background model and counts the pixels that
+ * changed. All state lives in arrays sized at construction, so {@link #process} doesn't allocate.
+ * <p>
+ * The background is kept in 8.8 fixed point and moves towards each new frame by
+ * 1/2^{@code learningShift}, which lets slow lighting changes fade into the model while a person
+ * walking through the frame still stands out.
+ */
+public class FrameDifferencer {
+    private final int width;
+    private final int height;
+    private final int pixelThreshold;
+    private final int learningShift;
+    private final int[] background;
+    private boolean initialized;
+
+    /**
+     * @param pixelThreshold luma difference (0-255) above which a pixel counts as changed
+     * @param learningShift  background adapts by 1/2^learningShift of the difference per frame
+     */
+    public FrameDifferencer(int width, int height, int pixelThreshold, int learningShift) {
+        this.width = width;
+        this.height = height;
+        this.pixelThreshold = pixelThreshold << 8;
+        this.learningShift = learningShift;
+        this.background = new int[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Diffs a luma plane read straight from an {@link android.media.Image.Plane} buffer and folds it
+     * into the background. Returns the number of changed pixels; the first frame only seeds the
+     * model and returns 0.
+     */
+    public int process(ByteBuffer luma, int rowStride, int pixelStride) {
+        int base = luma.position();
+        if (!initialized) {
+            for (int y = 0, i = 0; y < height; y++) {
+                int row = base + y * rowStride;
+                for (int x = 0; x < width; x++, i++) {
+                    background[i] = (luma.get(row + x * pixelStride) & 0xFF) << 8;
+                }
+            }
+            initialized = true;
+            return 0;
+        }
+
+        int changed = 0;
+        for (int y = 0, i = 0; y < height; y++) {
+            int row = base + y * rowStride;
+            for (int x = 0; x < width; x++, i++) {
+                int delta = ((luma.get(row + x * pixelStride) & 0xFF) << 8) - background[i];
+                if (delta > pixelThreshold || -delta > pixelThreshold) {
+                    changed++;
+                }
+                background[i] += delta >> learningShift;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Same as {@link #process(ByteBuffer, int, int)} for a tightly packed array.
+     */
+    public int process(byte[] luma, int offset, int rowStride) {
+        if (!initialized) {
+            for (int y = 0, i = 0; y < height; y++) {
+                int row = offset + y * rowStride;
+                for (int x = 0; x < width; x++, i++) {
+                    background[i] = (luma[row + x] & 0xFF) << 8;
+                }
+            }
+            initialized = true;
+            return 0;
+        }
+
+        int changed = 0;
+        for (int y = 0, i = 0; y < height; y++) {
+            int row = offset + y * rowStride;
+            for (int x = 0; x < width; x++, i++) {
+                int delta = ((luma[row + x] & 0xFF) << 8) - background[i];
+                if (delta > pixelThreshold || -delta > pixelThreshold) {
+                    changed++;
+                }
+                background[i] += delta >> learningShift;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the background; the next frame seeds a new one.
+     */
+    public void reset() {
+        initialized = false;
+    }
+}
@@ -0,0 +1,55 @@
+package com.alexlim.smartindoorcamera.analysis;
+
+/**
+ * 64-bit difference hash (dHash) of a luma plane: the plane is averaged down to 9x8 blocks and
+ * each bit says whether a block is brighter than its right-hand neighbour. Frames that look the
+ * same hash to values a few bits apart, whatever their JPEG bytes, while a person moving through
+ * the frame flips many bits. Computed without allocating, straight from the plane.
+ */
+public final class PerceptualHash {
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Hashes the {@code width}x{@code height} luma plane starting at {@code offset} in
+     * {@code luma}, one byte per pixel.
+     */
+    public static long dHash(byte[] luma, int offset, int width, int height, int rowStride) {
+        long hash = 0;
+        for (int r = 0; r < ROWS; r++) {
+            int y0 = r * height / ROWS;
+            int y1 = (r + 1) * height / ROWS;
+            long previousSum = 0;
+            long previousCount = 1;
+            for (int c = 0; c < COLUMNS; c++) {
+                int x0 = c * width / COLUMNS;
+                int x1 = (c + 1) * width / COLUMNS;
+                long sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    int row = offset + y * rowStride;
+                    for (int x = x0; x < x1; x++) {
+                        sum += luma[row + x] & 0xff;
+                    }
+                }
+                long count = Math.max(1, (long) (y1 - y0) * (x1 - x0));
+                // Compare means without dividing: blocks in a row can differ in width by a pixel
+                if (c > 0) {
+                    hash <<= 1;
+                    if (previousSum * count > sum * previousCount) {
+                        hash |= 1;
+                    }
+                }
+                previousSum = sum;
+                previousCount = count;
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
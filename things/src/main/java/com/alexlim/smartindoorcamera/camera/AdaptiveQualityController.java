@@ -0,0 +1,223 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the JPEG size and quality that get a new frame to the cloud within a target time at the
+ * uplink speed actually being measured.
+ * <p>
+ * Each candidate setting's frame size is predicted from its pixel count and a bits-per-pixel
+ * curve for its quality, scaled by how far real frames have come out from that prediction. A
+ * setting fits if, behind the current backlog, its frame would finish uploading within the target
+ * and the frames arriving at the recent frame rate would not outrun the uplink. The controller
+ * takes the largest setting that fits; stepping up needs extra headroom so it doesn't flap
+ * between two settings.
+ */
+public class AdaptiveQualityController {
+    private static final double EWMA_WEIGHT = 0.3;
+    // A step up must fit with this much of the target to spare
+    private static final double UPGRADE_HEADROOM = 0.7;
+    // Share of the uplink the frame stream may use on average
+    private static final double MAX_UTILIZATION = 0.8;
+    // Throughput estimate is halved for every update the backlog makes no progress
+    private static final double STALL_DECAY = 0.5;
+
+    public static final class Setting {
+        private final int width;
+        private final int height;
+        private final int quality;
+
+        public Setting(int width, int height, int quality) {
+            this.width = width;
+            this.height = height;
+            this.quality = quality;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Setting)) {
+                return false;
+            }
+            Setting other = (Setting) o;
+            return width == other.width && height == other.height && quality == other.quality;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + quality;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@q" + quality;
+        }
+    }
+
+    private final List<Setting> candidates = new ArrayList<>();
+    private final long targetMillis;
+    private Setting current;
+
+    private double throughputBytesPerSecond;
+    private double frameRate;
+    private boolean rateMeasured;
+    private double sizeCorrection = 1;
+    private long lastUploadedBytes;
+    private long lastBusyNanos;
+    private long lastUpdateMillis = -1;
+    private int framesSinceUpdate;
+    private long changes;
+
+    /**
+     * @param jpegSizes     {width, height} pairs the camera supports for JPEG; only those with the
+     *                      initial aspect ratio and within the maximum size are used
+     * @param qualities     JPEG qualities to choose from
+     * @param targetMillis  time from capture to upload complete to aim for
+     */
+    public AdaptiveQualityController(int[][] jpegSizes, int[] qualities, int maxWidth, int maxHeight,
+                                     long targetMillis, Setting initial) {
+        this.targetMillis = targetMillis;
+        for (int[] size : jpegSizes) {
+            boolean sameAspect = Math.abs((long) size[0] * initial.height - (long) size[1] * initial.width)
+                    <= (long) initial.width * initial.height / 100;
+            if (!sameAspect || size[0] > maxWidth || size[1] > maxHeight) {
+                continue;
+            }
+            for (int quality : qualities) {
+                candidates.add(new Setting(size[0], size[1], quality));
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.add(initial);
+        }
+        Collections.sort(candidates, Comparator.comparingDouble(AdaptiveQualityController::nominalBytes));
+
+        current = candidates.get(0);
+        for (Setting candidate : candidates) {
+            if (nominalBytes(candidate) <= nominalBytes(initial)) {
+                current = candidate;
+            }
+        }
+    }
+
+    /**
+     * Typical JPEG size: bits per pixel grows roughly quadratically with quality, from about 0.3 at
+     * quality 30 to 3 at quality 100.
+     */
+    static double nominalBytes(Setting setting) {
+        double q = Math.max(0, Math.min(70, setting.quality - 30)) / 70d;
+        double bitsPerPixel = 0.3 + 2.7 * q * q;
+        return (double) setting.width * setting.height * bitsPerPixel / 8;
+    }
+
+    /**
+     * Reports the size of a frame, to correct the size model. Frames encoded with another setting
+     * than the current one, such as those still in flight when it changed or taken before the
+     * camera got round to applying a new size, are ignored.
+     *
+     * @param encodedWith the size and quality the camera encoded the frame with
+     */
+    public synchronized void onFrameEncoded(Setting encodedWith, int bytes) {
+        if (!encodedWith.equals(current)) {
+            return;
+        }
+        framesSinceUpdate++;
+        double sample = bytes / nominalBytes(current);
+        sizeCorrection += EWMA_WEIGHT * (sample - sizeCorrection);
+    }
+
+    /**
+     * Folds in the latest upload counters and re-picks the setting.
+     *
+     * @param uploadedBytes total bytes uploaded so far
+     * @param busyNanos     total time at least one upload was in flight
+     * @param backlogBytes  bytes waiting to be uploaded now
+     * @return the setting to capture with from now on
+     */
+    public synchronized Setting update(long uploadedBytes, long busyNanos, long backlogBytes, long nowMillis) {
+        long bytes = uploadedBytes - lastUploadedBytes;
+        long busy = busyNanos - lastBusyNanos;
+        lastUploadedBytes = uploadedBytes;
+        lastBusyNanos = busyNanos;
+        if (bytes > 0 && busy > 0) {
+            double sample = bytes * 1e9 / busy;
+            throughputBytesPerSecond = throughputBytesPerSecond == 0 ? sample
+                    : throughputBytesPerSecond + EWMA_WEIGHT * (sample - throughputBytesPerSecond);
+        } else if (backlogBytes > 0 && bytes == 0) {
+            throughputBytesPerSecond *= STALL_DECAY;
+        }
+
+        // The frame rate needs two updates to measure; until then there's nothing to decide on
+        boolean firstUpdate = lastUpdateMillis < 0;
+        // Idle stretches between motion events don't count as a low frame rate
+        if (!firstUpdate && nowMillis > lastUpdateMillis && framesSinceUpdate > 0) {
+            double rate = framesSinceUpdate * 1000d / (nowMillis - lastUpdateMillis);
+            frameRate = rateMeasured ? frameRate + EWMA_WEIGHT * (rate - frameRate) : rate;
+            rateMeasured = true;
+        }
+        lastUpdateMillis = nowMillis;
+        framesSinceUpdate = 0;
+
+        if (firstUpdate || throughputBytesPerSecond <= 0) {
+            return current;
+        }
+
+        Setting best = candidates.get(0);
+        double currentBytes = nominalBytes(current);
+        for (Setting candidate : candidates) {
+            double headroom = nominalBytes(candidate) > currentBytes ? UPGRADE_HEADROOM : 1;
+            if (fits(candidate, backlogBytes, headroom)) {
+                best = candidate;
+            }
+        }
+        if (best != current) {
+            changes++;
+            current = best;
+        }
+        return current;
+    }
+
+    private boolean fits(Setting candidate, long backlogBytes, double headroom) {
+        double bytes = predictedBytes(candidate);
+        double millis = (backlogBytes + bytes) * 1000 / throughputBytesPerSecond;
+        double load = bytes * frameRate / throughputBytesPerSecond;
+        return millis <= targetMillis * headroom && load <= MAX_UTILIZATION * headroom;
+    }
+
+    public synchronized double predictedBytes(Setting setting) {
+        return nominalBytes(setting) * sizeCorrection;
+    }
+
+    public synchronized Setting getCurrent() {
+        return current;
+    }
+
+    public synchronized double getThroughputBytesPerSecond() {
+        return throughputBytesPerSecond;
+    }
+
+    public synchronized long getChanges() {
+        return changes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "capture: %s uplink=%.0fKB/s frames=%.1f/s size x%.2f changes=%d",
+                current, throughputBytesPerSecond / 1024, frameRate, sizeCorrection, changes);
+    }
+}
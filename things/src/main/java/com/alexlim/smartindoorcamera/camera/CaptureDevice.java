@@ -1,12 +1,10 @@
 package com.alexlim.smartindoorcamera.camera;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureFailure;
@@ -14,16 +12,28 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureRequest.Builder;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
+import com.alexlim.smartindoorcamera.metrics.LatencyHistogram;
+import com.alexlim.smartindoorcamera.metrics.LatencyTracker;
+import com.alexlim.smartindoorcamera.metrics.MotionTrace;
+
 import kotlin.collections.CollectionsKt;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.hardware.camera2.CameraAccessException.CAMERA_ERROR;
 
@@ -32,16 +42,107 @@ public class CaptureDevice implements AutoCloseable {
     private static final String TAG = CaptureDevice.class.getSimpleName();
     private static final int IMAGE_WIDTH = 640;
     private static final int IMAGE_HEIGHT = 480;
-    private static final int MAX_IMAGE = 1;
+    private static final int DEFAULT_MAX_IMAGES = 4;
+    private static final int DEFAULT_POOL_FRAMES = 16;
+    // Typical 640x480 JPEGs are well under this; bigger frames grow the buffer they land in
+    private static final int FRAME_BUFFER_SIZE = IMAGE_WIDTH * IMAGE_HEIGHT / 2;
+    private static final long DEFAULT_MIN_CAPTURE_INTERVAL_MS = 1000;
+    private static final int DEFAULT_LOW_RES_WIDTH = 320;
+    private static final int DEFAULT_LOW_RES_HEIGHT = 240;
+    private static final int LOW_RES_MAX_IMAGES = 3;
+    private static final int THUMBNAIL_QUALITY = 70;
+    private static final int THUMBNAIL_POOL_FRAMES = 8;
+    // How long a full JPEG waits for its thumbnail before it is delivered without one
+    private static final long THUMBNAIL_PAIRING_TIMEOUT_MS = 250;
+    private static final String REQUEST_TRIGGER = "trigger";
+    private static final String REQUEST_PRE_ROLL = "preRoll";
     private static CaptureDevice mCaptureDevice = new CaptureDevice();
     
     private ImageReader mImageReader;
+    private int mImageWidth = IMAGE_WIDTH;
+    private int mImageHeight = IMAGE_HEIGHT;
+    // 0 leaves JPEG quality to the camera's default
+    private int mJpegQuality;
+    private int[][] mSupportedJpegSizes = {{IMAGE_WIDTH, IMAGE_HEIGHT}};
+    // A new JPEG size waits for a gap between captures; the old reader lives until its session closes
+    private int mPendingWidth;
+    private int mPendingHeight;
+    private ImageReader mRetiredReader;
     private CameraDevice mCameraDevice;
     private CameraCaptureSession mCameraCaptureSession;
     private ImageCapturedListener imageCapturedListener;
+    private Handler mBackgroundHandler;
+
+    private int mMaxImages = DEFAULT_MAX_IMAGES;
+    private int mBurstSize = 1;
+    private int mInFlightCaptures;
+    private FrameBufferPool mFramePool = new FrameBufferPool(DEFAULT_POOL_FRAMES, DEFAULT_MAX_IMAGES, FRAME_BUFFER_SIZE);
+    private List<CaptureRequest> mHotBurstRequests;
+
+    // Optional low-resolution YUV stream, repeated for analysis while the hot session is up and
+    // added to trigger requests as the thumbnail source
+    private ImageReader mLowResReader;
+    private int mLowResWidth = DEFAULT_LOW_RES_WIDTH;
+    private int mLowResHeight = DEFAULT_LOW_RES_HEIGHT;
+    private AnalysisFrameListener mAnalysisListener;
+
+    // Thumbnails: sensor timestamps of trigger captures tell their low-res frames apart from
+    // analysis frames, and the pairer joins each thumbnail to its full JPEG
+    private boolean mThumbnailsEnabled;
+    private ThumbnailEncoder mThumbnailEncoder;
+    private final FrameBufferPool mThumbnailPool = new FrameBufferPool(THUMBNAIL_POOL_FRAMES, THUMBNAIL_POOL_FRAMES / 2,
+            DEFAULT_LOW_RES_WIDTH * DEFAULT_LOW_RES_HEIGHT / 4);
+    private final long[] mThumbnailTimestamps = new long[THUMBNAIL_POOL_FRAMES];
+    private int mNextThumbnailTimestamp;
+    private FramePairer mFramePairer;
+
+    // Optional low-rate capture into a ring buffer while the hot session is up
+    private PreRollBuffer mPreRollBuffer;
+    private long mPreRollIntervalMillis;
+    private CaptureRequest mPreRollRequest;
+    private EncodedFrame[] mPreRollFrames;
+    // Tags of submitted requests in submission order, to tell which reader image belongs to which
+    private final ArrayDeque<Object> mExpectedFrames = new ArrayDeque<>();
+    // JPEG quality of each expected trigger frame, in the same order, as it can change mid-flight
+    private final ArrayDeque<Integer> mExpectedQualities = new ArrayDeque<>();
+
+    // Hot session: the session stays configured while armed and the request is built once
+    private boolean mHotSessionEnabled;
+    private boolean mSessionConfiguring;
+    // Elapsed realtime at which a hot session was first ready, i.e. armed and able to capture
+    private volatile long mFirstHotSessionReadyMillis = -1;
+
+    // Capture state machine: one triggered capture runs at a time, triggers arriving meanwhile
+    // fold into a single follow-up, and captures start at least mMinCaptureIntervalMillis apart
+    private enum CaptureState { IDLE, CONFIGURING, CAPTURING }
+    private CaptureState mCaptureState = CaptureState.IDLE;
+    private boolean mFollowUpPending;
+    private boolean mCaptureCycleFailed;
+    private int mInFlightTriggerCaptures;
+    private long mMinCaptureIntervalMillis = DEFAULT_MIN_CAPTURE_INTERVAL_MS;
+    private long mLastCaptureStartMillis = Long.MIN_VALUE / 2;
+    private final AtomicLong mCoalescedRequests = new AtomicLong();
+    private final AtomicLong mDroppedRequests = new AtomicLong();
+    private final AtomicLong mFailedRequests = new AtomicLong();
+
+    // Trigger-to-frame latency, split by whether the trigger found a warm session
+    private long mTriggerTimestampNanos;
+    private boolean mTriggerWasHot;
+    private final LatencyHistogram mHotLatency = new LatencyHistogram("hot trigger-to-frame");
+    private final LatencyHistogram mColdLatency = new LatencyHistogram("cold trigger-to-frame");
+    // Motion event the current trigger belongs to
+    private MotionTrace mTrace;
     
     public interface ImageCapturedListener {
-        void onImageCaptured(Bitmap bitmap);
+        void onImageCaptured(EncodedFrame frame);
+    }
+
+    public interface AnalysisFrameListener {
+        /**
+         * Called with the luma plane of each analysis frame. The buffer is only valid for the
+         * duration of the call.
+         */
+        void onLumaFrame(ByteBuffer luma, int rowStride, int pixelStride, long timestampNanos);
     }
 
     public void initializeCamera(Context context, Handler backgroundHandler, ImageCapturedListener imageListener) {
@@ -69,10 +170,17 @@ public class CaptureDevice implements AutoCloseable {
         }
 
         String id = camIds[0];
-        mImageReader = ImageReader.newInstance(IMAGE_WIDTH, IMAGE_HEIGHT, ImageFormat.JPEG, MAX_IMAGE);
+        mBackgroundHandler = backgroundHandler;
+        readSupportedJpegSizes(cameraManager, id);
+        mImageReader = newImageReader();
         imageCapturedListener = imageListener;
-        if (mImageReader != null) {
-            mImageReader.setOnImageAvailableListener(imageAvailableListener, backgroundHandler);
+        if (mAnalysisListener != null || mThumbnailsEnabled) {
+            mLowResReader = ImageReader.newInstance(mLowResWidth, mLowResHeight, ImageFormat.YUV_420_888, LOW_RES_MAX_IMAGES);
+            mLowResReader.setOnImageAvailableListener(lowResAvailableListener, backgroundHandler);
+        }
+        if (mThumbnailsEnabled) {
+            mThumbnailEncoder = new ThumbnailEncoder(mLowResWidth, mLowResHeight, THUMBNAIL_QUALITY);
+            mFramePairer = new FramePairer(Math.max(mMaxImages, mBurstSize), frame -> imageCapturedListener.onImageCaptured(frame));
         }
         try {
             cameraManager.openCamera(id, mStateCallback, backgroundHandler);
@@ -81,41 +189,567 @@ public class CaptureDevice implements AutoCloseable {
         }
     }
 
+    private void readSupportedJpegSizes(CameraManager cameraManager, String id) {
+        try {
+            StreamConfigurationMap map = cameraManager.getCameraCharacteristics(id)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Size[] sizes = map != null ? map.getOutputSizes(ImageFormat.JPEG) : null;
+            if (sizes != null && sizes.length > 0) {
+                mSupportedJpegSizes = new int[sizes.length][];
+                for (int i = 0; i < sizes.length; i++) {
+                    mSupportedJpegSizes[i] = new int[]{sizes[i].getWidth(), sizes[i].getHeight()};
+                }
+            }
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.w(TAG, "readSupportedJpegSizes: using the default size only", e);
+        }
+    }
+
+    private ImageReader newImageReader() {
+        ImageReader reader = ImageReader.newInstance(mImageWidth, mImageHeight, ImageFormat.JPEG, Math.max(mMaxImages, mBurstSize));
+        reader.setOnImageAvailableListener(imageAvailableListener, mBackgroundHandler);
+        return reader;
+    }
+
     private ImageReader.OnImageAvailableListener imageAvailableListener = reader -> {
-        Image image = reader.acquireLatestImage();
-        Image.Plane[] imagePlane = image.getPlanes();
-        ByteBuffer imageBuffer = imagePlane[0].getBuffer();
-        byte[] imageBytes = new byte[imageBuffer.remaining()];
-        imageBuffer.get(imageBytes);
-        image.close();
-        Bitmap bitmap = getBitmapFromByteArray(imageBytes);
-        imageCapturedListener.onImageCaptured(bitmap);
+        // Drain everything queued so burst frames aren't skipped the way acquireLatestImage() would
+        Image image;
+        while ((image = reader.acquireNextImage()) != null) {
+            ByteBuffer imageBuffer = image.getPlanes()[0].getBuffer();
+            if (mExpectedFrames.poll() == REQUEST_PRE_ROLL) {
+                mPreRollBuffer.write(imageBuffer, image.getTimestamp(), System.currentTimeMillis());
+                image.close();
+                continue;
+            }
+            Integer quality = mExpectedQualities.poll();
+
+            // The only copy: the Image has to go back to the reader, so its buffer can't be kept
+            stampTrace(MotionTrace.Stage.IMAGE_AVAILABLE);
+            EncodedFrame frame = mFramePool.acquire(imageBuffer.remaining());
+            if (frame != null) {
+                frame.fill(imageBuffer, image.getTimestamp(), System.currentTimeMillis());
+                frame.setSize(image.getWidth(), image.getHeight());
+                frame.setQuality(quality != null ? quality : 0);
+                frame.setTrace(mTrace);
+                stampTrace(MotionTrace.Stage.ENCODED);
+            }
+            image.close();
+            recordTriggerLatency();
+
+            if (frame == null) {
+                Log.w(TAG, "onImageAvailable: no free frame buffer, frame dropped. " + mFramePool);
+                continue;
+            }
+            if (mFramePairer == null) {
+                imageCapturedListener.onImageCaptured(frame);
+            } else if (!mFramePairer.offerJpeg(frame)) {
+                mBackgroundHandler.removeCallbacks(mFlushPairer);
+                mBackgroundHandler.postDelayed(mFlushPairer, THUMBNAIL_PAIRING_TIMEOUT_MS);
+            }
+        }
+        applyPendingSize();
     };
 
+    private ImageReader.OnImageAvailableListener lowResAvailableListener = reader -> {
+        // Drained in order rather than skipped to the latest, so thumbnail frames aren't lost
+        Image image;
+        while ((image = reader.acquireNextImage()) != null) {
+            long timestamp = image.getTimestamp();
+            if (mAnalysisListener != null) {
+                Image.Plane luma = image.getPlanes()[0];
+                mAnalysisListener.onLumaFrame(luma.getBuffer(), luma.getRowStride(), luma.getPixelStride(), timestamp);
+            }
+            if (mFramePairer != null && takeThumbnailTimestamp(timestamp)) {
+                EncodedFrame thumbnail = mThumbnailEncoder.encode(image, mThumbnailPool);
+                if (thumbnail != null) {
+                    mFramePairer.offerThumbnail(thumbnail);
+                } else {
+                    Log.w(TAG, "onImageAvailable: no free thumbnail buffer. " + mThumbnailPool);
+                }
+            }
+            image.close();
+        }
+    };
+
+    private final Runnable mFlushPairer = () -> mFramePairer.flush();
+
+    private boolean takeThumbnailTimestamp(long timestamp) {
+        for (int i = 0; i < mThumbnailTimestamps.length; i++) {
+            if (mThumbnailTimestamps[i] == timestamp) {
+                mThumbnailTimestamps[i] = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Requests a capture. If one is already configuring or capturing, or the minimum interval
+     * hasn't passed yet, the request is folded into a single follow-up capture instead.
+     */
     public void takePicture() throws CameraAccessException {
-        mCameraDevice.createCaptureSession(CollectionsKt.arrayListOf(mImageReader != null ? mImageReader.getSurface() : null),
-                    mSessionCallback, null);
+        if (mCameraDevice == null) {
+            mDroppedRequests.incrementAndGet();
+            Log.w(TAG, "takePicture: Camera not opened yet.");
+            return;
+        }
+
+        if (mCaptureState != CaptureState.IDLE || mFollowUpPending) {
+            mFollowUpPending = true;
+            mCoalescedRequests.incrementAndGet();
+            return;
+        }
+
+        if (SystemClock.elapsedRealtime() - mLastCaptureStartMillis < mMinCaptureIntervalMillis) {
+            mFollowUpPending = true;
+            mCoalescedRequests.incrementAndGet();
+            scheduleFollowUp();
+            return;
+        }
+
+        startCapture();
+    }
+
+    private void startCapture() throws CameraAccessException {
+        mLastCaptureStartMillis = SystemClock.elapsedRealtime();
+        mCaptureCycleFailed = false;
+        mTriggerTimestampNanos = SystemClock.elapsedRealtimeNanos();
+        mTrace = LatencyTracker.getInstance().getCurrentEvent();
+        stampTrace(MotionTrace.Stage.TAKE_PICTURE);
+        deliverPreRoll();
+
+        try {
+            if (mCameraCaptureSession != null) {
+                mTriggerWasHot = mHotBurstRequests != null;
+                mCaptureState = CaptureState.CAPTURING;
+                triggerImageCapture();
+            } else {
+                mTriggerWasHot = false;
+                mCaptureState = CaptureState.CONFIGURING;
+                createCaptureSession();
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            mInFlightTriggerCaptures = 0;
+            finishCaptureCycle(true);
+            throw e;
+        }
     }
 
-    private Bitmap getBitmapFromByteArray(byte[] imageBytes) {
-        Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-        Matrix matrix = new Matrix();
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    private void scheduleFollowUp() {
+        long wait = mLastCaptureStartMillis + mMinCaptureIntervalMillis - SystemClock.elapsedRealtime();
+        mBackgroundHandler.removeCallbacks(mFollowUpCapture);
+        mBackgroundHandler.postDelayed(mFollowUpCapture, Math.max(0, wait));
     }
 
-    private void triggerImageCapture() throws CameraAccessException {
+    private final Runnable mFollowUpCapture = () -> {
+        mFollowUpPending = false;
+        if (mCameraDevice == null || mCaptureState != CaptureState.IDLE) {
+            mDroppedRequests.incrementAndGet();
+            return;
+        }
+        try {
+            startCapture();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "followUpCapture: capture failed", e);
+        }
+    };
+
+    /**
+     * Ends the current capture, whether it completed or failed, and starts the follow-up if
+     * triggers came in meanwhile.
+     */
+    private void finishCaptureCycle(boolean failed) {
+        if (failed || mCaptureCycleFailed) {
+            mFailedRequests.incrementAndGet();
+            mTriggerTimestampNanos = 0;
+        }
+        mCaptureState = CaptureState.IDLE;
+        if (mFollowUpPending) {
+            scheduleFollowUp();
+        } else {
+            applyPendingSize();
+        }
+    }
+
+    /**
+     * Number of images the ImageReader can hold before the camera stalls. Takes effect on the next
+     * {@link #initializeCamera(Context, Handler, ImageCapturedListener)}.
+     */
+    public void setMaxImages(int maxImages) {
+        mMaxImages = maxImages;
+    }
+
+    /**
+     * Number of frames grabbed per {@link #takePicture()}.
+     */
+    public void setBurstSize(int burstSize) throws CameraAccessException {
+        mBurstSize = Math.max(1, burstSize);
+        if (mHotBurstRequests != null) {
+            mHotBurstRequests = buildBurstRequests();
+        }
+    }
+
+    /**
+     * Minimum time between the starts of two triggered captures; triggers inside it are coalesced.
+     */
+    public void setMinCaptureInterval(long minCaptureIntervalMillis) {
+        mMinCaptureIntervalMillis = minCaptureIntervalMillis;
+    }
+
+    /**
+     * Triggers folded into a follow-up capture rather than captured on their own.
+     */
+    public long getCoalescedRequests() {
+        return mCoalescedRequests.get();
+    }
+
+    /**
+     * Triggers discarded because the camera wasn't available.
+     */
+    public long getDroppedRequests() {
+        return mDroppedRequests.get();
+    }
+
+    /**
+     * Captures that failed to configure or to produce a frame.
+     */
+    public long getFailedRequests() {
+        return mFailedRequests.get();
+    }
+
+    /**
+     * {width, height} pairs the camera can produce JPEGs at; only the default size until
+     * {@link #initializeCamera(Context, Handler, ImageCapturedListener)} has run.
+     */
+    public int[][] getSupportedJpegSizes() {
+        return mSupportedJpegSizes;
+    }
+
+    /**
+     * Changes the JPEG size and quality of subsequent captures. Must be called on the camera
+     * thread. A new quality applies from the next capture; a new size needs the session
+     * reconfigured, so it waits until no capture is in progress.
+     */
+    public void setCaptureSettings(int width, int height, int quality) throws CameraAccessException {
+        if (quality != mJpegQuality) {
+            mJpegQuality = quality;
+            if (mHotBurstRequests != null) {
+                mHotBurstRequests = buildBurstRequests();
+            }
+            if (mPreRollRequest != null) {
+                mPreRollRequest = buildPreRollRequest();
+            }
+        }
+        if (width == mImageWidth && height == mImageHeight) {
+            mPendingWidth = 0;
+            return;
+        }
+        mPendingWidth = width;
+        mPendingHeight = height;
+        applyPendingSize();
+    }
+
+    private void applyPendingSize() {
+        if (mPendingWidth == 0 || mCameraDevice == null || mCaptureState != CaptureState.IDLE || mFollowUpPending
+                || mInFlightCaptures > 0 || !mExpectedFrames.isEmpty() || mSessionConfiguring) {
+            return;
+        }
+        Log.d(TAG, "applyPendingSize: " + mImageWidth + "x" + mImageHeight + " -> " + mPendingWidth + "x" + mPendingHeight);
+        mImageWidth = mPendingWidth;
+        mImageHeight = mPendingHeight;
+        mPendingWidth = 0;
+
+        CameraCaptureSession session = mCameraCaptureSession;
+        if (session != null) {
+            mCameraCaptureSession = null;
+            mHotBurstRequests = null;
+            stopPreRoll();
+            if (mRetiredReader != null) {
+                mRetiredReader.close();
+            }
+            mRetiredReader = mImageReader;
+            session.close();
+        } else {
+            mImageReader.close();
+        }
+        mImageReader = newImageReader();
+
+        if (mHotSessionEnabled) {
+            try {
+                createCaptureSession();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.e(TAG, "applyPendingSize: failed to reconfigure hot session", e);
+            }
+        }
+    }
+
+    public String getCaptureSettings() {
+        String settings = "capture size: " + mImageWidth + "x" + mImageHeight + " quality="
+                + (mJpegQuality > 0 ? String.valueOf(mJpegQuality) : "default");
+        return mPendingWidth > 0 ? settings + " pending=" + mPendingWidth + "x" + mPendingHeight : settings;
+    }
+
+    public String getRequestStats() {
+        return "capture requests: coalesced=" + mCoalescedRequests + " dropped=" + mDroppedRequests
+                + " failed=" + mFailedRequests;
+    }
+
+    /**
+     * Streams {@code width}x{@code height} YUV frames to {@code listener} for as long as the hot
+     * session is up. Must be called before
+     * {@link #initializeCamera(Context, Handler, ImageCapturedListener)}.
+     */
+    public void setAnalysisListener(int width, int height, AnalysisFrameListener listener) {
+        mLowResWidth = width;
+        mLowResHeight = height;
+        mAnalysisListener = listener;
+    }
+
+    /**
+     * Adds the low-resolution YUV surface to every triggered capture and attaches the result, JPEG
+     * encoded, to the full frame as {@link EncodedFrame#getThumbnail()}. The thumbnail has the
+     * analysis size if an analysis listener is set. Must be called before
+     * {@link #initializeCamera(Context, Handler, ImageCapturedListener)}.
+     */
+    public void setThumbnailsEnabled(boolean enabled) {
+        mThumbnailsEnabled = enabled;
+    }
+
+    public FrameBufferPool getThumbnailPool() {
+        return mThumbnailPool;
+    }
+
+    /**
+     * Captures a frame every {@code intervalMillis} into {@code buffer} while the hot session is up;
+     * on each trigger the buffered frames are delivered, flagged as pre-roll, ahead of the frames
+     * the trigger captures.
+     */
+    public void setPreRollBuffer(PreRollBuffer buffer, long intervalMillis) {
+        mPreRollBuffer = buffer;
+        mPreRollIntervalMillis = intervalMillis;
+        mPreRollFrames = new EncodedFrame[buffer.getCapacity()];
+    }
+
+    /**
+     * Replaces the frame pool; meant for sizing it from the pool counters.
+     */
+    public void setFramePool(FrameBufferPool framePool) {
+        mFramePool = framePool;
+    }
+
+    public FrameBufferPool getFramePool() {
+        return mFramePool;
+    }
+
+    /**
+     * Configures a capture session now and keeps it open, so that {@link #takePicture()} only has
+     * to submit the prebuilt request. Meant to be called when the system is armed.
+     */
+    public void startHotSession() throws CameraAccessException {
+        mHotSessionEnabled = true;
+        if (mCameraCaptureSession != null) {
+            mHotBurstRequests = buildBurstRequests();
+            startAnalysisStream(mCameraCaptureSession);
+            startPreRoll();
+        } else if (mCameraDevice != null) {
+            createCaptureSession();
+        }
+    }
+
+    /**
+     * Closes the warm session; subsequent triggers go back to configuring a session per capture.
+     */
+    public void stopHotSession() {
+        mHotSessionEnabled = false;
+        mHotBurstRequests = null;
+        stopPreRoll();
+        if (mCameraCaptureSession != null) {
+            mCameraCaptureSession.close();
+            mCameraCaptureSession = null;
+        }
+    }
+
+    /**
+     * Milliseconds from boot until the first hot session of this process was ready, or -1 if none
+     * has been yet.
+     */
+    public long getFirstHotSessionReadyMillis() {
+        return mFirstHotSessionReadyMillis;
+    }
+
+    public LatencyHistogram getHotLatency() {
+        return mHotLatency;
+    }
+
+    public LatencyHistogram getColdLatency() {
+        return mColdLatency;
+    }
+
+    private void createCaptureSession() throws CameraAccessException {
+        if (mSessionConfiguring) {
+            return;
+        }
+        mSessionConfiguring = true;
+        List<Surface> surfaces = CollectionsKt.arrayListOf(mImageReader != null ? mImageReader.getSurface() : null);
+        if (mLowResReader != null) {
+            surfaces.add(mLowResReader.getSurface());
+        }
+        try {
+            mCameraDevice.createCaptureSession(surfaces, mSessionCallback, mBackgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            mSessionConfiguring = false;
+            throw e;
+        }
+    }
+
+    private void startAnalysisStream(CameraCaptureSession session) throws CameraAccessException {
+        if (mAnalysisListener == null || mLowResReader == null) {
+            return;
+        }
+        Builder analysisBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+        analysisBuilder.addTarget(mLowResReader.getSurface());
+        session.setRepeatingRequest(analysisBuilder.build(), null, mBackgroundHandler);
+    }
+
+    private void startPreRoll() throws CameraAccessException {
+        if (mPreRollBuffer == null || mPreRollRequest != null) {
+            return;
+        }
+        mPreRollRequest = buildPreRollRequest();
+        mBackgroundHandler.postDelayed(mPreRollTick, mPreRollIntervalMillis);
+    }
+
+    private CaptureRequest buildPreRollRequest() throws CameraAccessException {
+        Builder preRollBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+        preRollBuilder.addTarget(mImageReader.getSurface());
+        if (mJpegQuality > 0) {
+            preRollBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) mJpegQuality);
+        }
+        preRollBuilder.setTag(REQUEST_PRE_ROLL);
+        return preRollBuilder.build();
+    }
+
+    private void stopPreRoll() {
+        if (mBackgroundHandler != null) {
+            mBackgroundHandler.removeCallbacks(mPreRollTick);
+        }
+        mPreRollRequest = null;
+    }
+
+    private final Runnable mPreRollTick = new Runnable() {
+        @Override
+        public void run() {
+            if (mCameraCaptureSession == null || mPreRollRequest == null) {
+                return;
+            }
+            try {
+                mExpectedFrames.add(REQUEST_PRE_ROLL);
+                mInFlightCaptures++;
+                mCameraCaptureSession.capture(mPreRollRequest, mCaptureCallback, mBackgroundHandler);
+            } catch (CameraAccessException e) {
+                mExpectedFrames.removeLastOccurrence(REQUEST_PRE_ROLL);
+                mInFlightCaptures--;
+                Log.w(TAG, "preRollTick: capture failed", e);
+            }
+            mBackgroundHandler.postDelayed(this, mPreRollIntervalMillis);
+        }
+    };
+
+    private void deliverPreRoll() {
+        if (mPreRollBuffer == null) {
+            return;
+        }
+        int count = mPreRollBuffer.drainTo(mFramePool, mPreRollFrames, System.currentTimeMillis());
+        for (int i = 0; i < count; i++) {
+            imageCapturedListener.onImageCaptured(mPreRollFrames[i]);
+            mPreRollFrames[i] = null;
+        }
+    }
+
+    private void recordTriggerLatency() {
+        if (mTriggerTimestampNanos == 0) {
+            return;
+        }
+        long latency = SystemClock.elapsedRealtimeNanos() - mTriggerTimestampNanos;
+        mTriggerTimestampNanos = 0;
+        LatencyHistogram histogram = mTriggerWasHot ? mHotLatency : mColdLatency;
+        histogram.recordNanos(latency);
+        Log.d(TAG, "recordTriggerLatency: " + histogram);
+    }
+
+    private void stampTrace(MotionTrace.Stage stage) {
+        if (mTrace != null) {
+            mTrace.stamp(stage);
+        }
+    }
+
+    private CaptureRequest buildCaptureRequest() throws CameraAccessException {
         Builder captureBuilder = mCameraDevice != null ? mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE) : null;
-        if (captureBuilder != null) {
-            captureBuilder.addTarget(mImageReader.getSurface());
+        if (captureBuilder == null) {
+            return null;
+        }
+        captureBuilder.addTarget(mImageReader.getSurface());
+        if (mThumbnailsEnabled && mLowResReader != null) {
+            // Same request, so the thumbnail is the same exposure, scaled by the camera
+            captureBuilder.addTarget(mLowResReader.getSurface());
+        }
 
-            captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-            captureBuilder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
-            Log.d(TAG, "triggerImageCapture: Session initialized.");
-            mCameraCaptureSession.capture(captureBuilder.build(), mCaptureCallback, null);
+        captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+        captureBuilder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+        if (mJpegQuality > 0) {
+            captureBuilder.set(CaptureRequest.JPEG_QUALITY, (byte) mJpegQuality);
+        }
+        captureBuilder.setTag(REQUEST_TRIGGER);
+        return captureBuilder.build();
+    }
+
+    private List<CaptureRequest> buildBurstRequests() throws CameraAccessException {
+        CaptureRequest request = buildCaptureRequest();
+        if (request == null) {
+            return null;
+        }
+        return Collections.nCopies(mBurstSize, request);
+    }
+
+    private void triggerImageCapture() throws CameraAccessException {
+        List<CaptureRequest> requests = mHotBurstRequests != null ? mHotBurstRequests : buildBurstRequests();
+        if (requests == null) {
+            throw new IllegalStateException("Camera closed before capture.");
+        }
+        Log.d(TAG, "triggerImageCapture: Session initialized.");
+        mInFlightCaptures += requests.size();
+        mInFlightTriggerCaptures += requests.size();
+        Byte quality = requests.get(0).get(CaptureRequest.JPEG_QUALITY);
+        for (int i = 0; i < requests.size(); i++) {
+            mExpectedFrames.add(REQUEST_TRIGGER);
+            mExpectedQualities.add(quality != null ? quality & 0xff : 0);
+        }
+        try {
+            if (requests.size() == 1) {
+                mCameraCaptureSession.capture(requests.get(0), mCaptureCallback, mBackgroundHandler);
+            } else {
+                mCameraCaptureSession.captureBurst(requests, mCaptureCallback, mBackgroundHandler);
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
+            mInFlightCaptures -= requests.size();
+            mInFlightTriggerCaptures -= requests.size();
+            for (int i = 0; i < requests.size(); i++) {
+                mExpectedFrames.removeLastOccurrence(REQUEST_TRIGGER);
+                mExpectedQualities.removeLast();
+            }
+            throw e;
         }
     }
 
     private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            if (mFramePairer != null && request.getTag() == REQUEST_TRIGGER) {
+                mThumbnailTimestamps[mNextThumbnailTimestamp] = timestamp;
+                mNextThumbnailTimestamp = (mNextThumbnailTimestamp + 1) % mThumbnailTimestamps.length;
+            }
+        }
+
         @Override
         public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
             Log.d(TAG, "onCaptureProgressed: Partial result");
@@ -124,12 +758,46 @@ public class CaptureDevice implements AutoCloseable {
         @Override
         public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
             Log.d(TAG, "onCaptureFailed: Capture session failed");
+            if (!failure.wasImageCaptured()) {
+                mExpectedFrames.removeFirstOccurrence(request.getTag());
+                if (request.getTag() == REQUEST_TRIGGER) {
+                    mExpectedQualities.poll();
+                }
+            }
+            if (request.getTag() == REQUEST_TRIGGER) {
+                mCaptureCycleFailed = true;
+                onTriggerCaptureDone();
+            }
+            closeSessionIfCold(session);
         }
 
         @Override
         public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            if (request.getTag() == REQUEST_TRIGGER) {
+                stampTrace(MotionTrace.Stage.CAPTURE_COMPLETED);
+                onTriggerCaptureDone();
+            }
+            closeSessionIfCold(session);
+        }
+
+        private void onTriggerCaptureDone() {
+            mInFlightTriggerCaptures = Math.max(0, mInFlightTriggerCaptures - 1);
+            if (mInFlightTriggerCaptures == 0 && mCaptureState == CaptureState.CAPTURING) {
+                finishCaptureCycle(false);
+            }
+        }
+
+        private void closeSessionIfCold(CameraCaptureSession session) {
+            mInFlightCaptures = Math.max(0, mInFlightCaptures - 1);
+            applyPendingSize();
+            // A pending follow-up reuses the session rather than configuring a new one
+            if (mHotSessionEnabled || mInFlightCaptures > 0 || mFollowUpPending) {
+                return;
+            }
             session.close();
-            mCameraCaptureSession = null;
+            if (mCameraCaptureSession == session) {
+                mCameraCaptureSession = null;
+            }
             Log.d(TAG, "onCaptureCompleted: Capture session closed");
         }
     };
@@ -137,20 +805,61 @@ public class CaptureDevice implements AutoCloseable {
     private CameraCaptureSession.StateCallback mSessionCallback = new CameraCaptureSession.StateCallback() {
         @Override
         public void onConfigured(@NonNull CameraCaptureSession session) {
+            mSessionConfiguring = false;
             if (mCameraDevice == null) {
                 return;
             }
             mCameraCaptureSession = session;
             try {
-                triggerImageCapture();
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
+                if (mHotSessionEnabled) {
+                    mHotBurstRequests = buildBurstRequests();
+                    startAnalysisStream(session);
+                    startPreRoll();
+                    if (mFirstHotSessionReadyMillis < 0) {
+                        mFirstHotSessionReadyMillis = SystemClock.elapsedRealtime();
+                    }
+                    Log.d(TAG, "onConfigured: Hot session ready.");
+                }
+                if (mCaptureState == CaptureState.CONFIGURING) {
+                    stampTrace(MotionTrace.Stage.SESSION_CONFIGURED);
+                    mCaptureState = CaptureState.CAPTURING;
+                    triggerImageCapture();
+                }
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.e(TAG, "onConfigured: Capture failed", e);
+                if (mCaptureState != CaptureState.IDLE && mInFlightTriggerCaptures == 0) {
+                    finishCaptureCycle(true);
+                }
             }
         }
 
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
             Log.w(TAG, "onConfigureFailed: Configure camera failed.");
+            mSessionConfiguring = false;
+            if (mCaptureState == CaptureState.CONFIGURING) {
+                finishCaptureCycle(true);
+            }
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraCaptureSession session) {
+            if (mRetiredReader != null && mCameraCaptureSession != session) {
+                mRetiredReader.close();
+                mRetiredReader = null;
+            }
+            if (mCameraCaptureSession == session) {
+                mCameraCaptureSession = null;
+                mHotBurstRequests = null;
+                mInFlightCaptures = 0;
+                mExpectedFrames.clear();
+                mExpectedQualities.clear();
+                stopPreRoll();
+                if (mCaptureState != CaptureState.IDLE) {
+                    mInFlightTriggerCaptures = 0;
+                    finishCaptureCycle(true);
+                }
+            }
         }
     };
 
@@ -159,6 +868,13 @@ public class CaptureDevice implements AutoCloseable {
         public void onOpened(@NonNull CameraDevice camera) {
             Log.d(TAG, "onOpened: Camera opened.");
             mCameraDevice = camera;
+            if (mHotSessionEnabled) {
+                try {
+                    createCaptureSession();
+                } catch (CameraAccessException e) {
+                    Log.e(TAG, "onOpened: Failed to configure hot session", e);
+                }
+            }
         }
 
         @Override
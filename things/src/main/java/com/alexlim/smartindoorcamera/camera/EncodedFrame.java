@@ -0,0 +1,213 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.alexlim.smartindoorcamera.metrics.MotionTrace;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A JPEG frame exactly as the camera encoded it. Pixels are only produced on demand through
+ * {@link #decode(int)}; the upload path sends the encoded bytes as they are.
+ * <p>
+ * Frames are owned by a {@link FrameBufferPool} and their buffer is reused, so whoever receives
+ * one must call {@link #release()} once it no longer needs the bytes.
+ */
+public class EncodedFrame {
+    private final FrameBufferPool pool;
+    private byte[] data;
+    private int length;
+    private int width;
+    private int height;
+    private int quality;
+    private long timestampNanos;
+    private long captureTimeMillis;
+    private boolean preRoll;
+    private MotionTrace trace;
+    private EncodedFrame thumbnail;
+    private boolean hasPerceptualHash;
+    private long perceptualHash;
+    // Set once back in the pool, so a second release of the same frame is ignored
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    EncodedFrame(FrameBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    int capacity() {
+        return data.length;
+    }
+
+    void onAcquired() {
+        released.set(false);
+    }
+
+    void ensureCapacity(int size) {
+        if (data.length < size) {
+            data = new byte[size];
+        }
+    }
+
+    void fill(ByteBuffer source, long timestampNanos, long captureTimeMillis) {
+        this.length = source.remaining();
+        source.get(data, 0, length);
+        this.timestampNanos = timestampNanos;
+        this.captureTimeMillis = captureTimeMillis;
+        this.width = 0;
+        this.height = 0;
+        this.quality = 0;
+        this.preRoll = false;
+        this.hasPerceptualHash = false;
+    }
+
+    void fill(byte[] source, int offset, int length, long timestampNanos, long captureTimeMillis) {
+        System.arraycopy(source, offset, data, 0, length);
+        this.length = length;
+        this.timestampNanos = timestampNanos;
+        this.captureTimeMillis = captureTimeMillis;
+        this.width = 0;
+        this.height = 0;
+        this.quality = 0;
+        this.preRoll = false;
+        this.hasPerceptualHash = false;
+    }
+
+    void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    void setPreRoll(boolean preRoll) {
+        this.preRoll = preRoll;
+    }
+
+    void setTrace(MotionTrace trace) {
+        this.trace = trace;
+    }
+
+    void setThumbnail(EncodedFrame thumbnail) {
+        this.thumbnail = thumbnail;
+        if (thumbnail.hasPerceptualHash) {
+            setPerceptualHash(thumbnail.perceptualHash);
+        }
+    }
+
+    void setPerceptualHash(long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+        this.hasPerceptualHash = true;
+    }
+
+    /**
+     * Backing array; only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * The size the camera encoded the frame at; 0 for pre-roll frames, which don't record it.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The JPEG quality the frame's request asked for; 0 for the camera's default, and for pre-roll
+     * frames.
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Sensor timestamp of the frame, as reported by {@link android.media.Image#getTimestamp()}.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public long getCaptureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    /**
+     * Whether the frame was taken from the pre-roll buffer, i.e. before the trigger.
+     */
+    public boolean isPreRoll() {
+        return preRoll;
+    }
+
+    /**
+     * Latency trace of the motion event this frame was captured for, null for pre-roll frames.
+     */
+    public MotionTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Small JPEG of the same moment, taken from the camera's low-resolution stream, or null if
+     * none was captured.
+     */
+    public EncodedFrame getThumbnail() {
+        return thumbnail;
+    }
+
+    /**
+     * True if the camera's low-resolution stream gave this frame a
+     * {@link com.alexlim.smartindoorcamera.analysis.PerceptualHash}.
+     */
+    public boolean hasPerceptualHash() {
+        return hasPerceptualHash;
+    }
+
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    public InputStream openStream() {
+        return new ByteArrayInputStream(data, 0, length);
+    }
+
+    /**
+     * Decodes the JPEG, subsampled by {@code sampleSize} (1 for full resolution).
+     */
+    public Bitmap decode(int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeByteArray(data, 0, length, options);
+    }
+
+    /**
+     * Hands the buffer, and the thumbnail's, back to the pool. The frame must not be touched
+     * afterwards; releasing it again before the pool hands it out anew does nothing.
+     */
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        if (thumbnail != null) {
+            thumbnail.release();
+            thumbnail = null;
+        }
+        length = 0;
+        trace = null;
+        pool.release(this);
+    }
+}
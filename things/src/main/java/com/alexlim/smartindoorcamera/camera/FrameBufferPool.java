@@ -0,0 +1,86 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Fixed-size pool of {@link EncodedFrame}s so the capture path doesn't allocate a new buffer per
+ * frame. Buffers are handed out most-recently-released first.
+ * <ul>
+ * <li>hit: a pooled buffer was large enough and reused as is</li>
+ * <li>miss: a buffer had to be allocated, either to grow the pool or because a frame didn't fit</li>
+ * <li>drop: every buffer was in use and the pool was at its limit, so the frame was discarded</li>
+ * </ul>
+ */
+public class FrameBufferPool {
+    private final ArrayDeque<EncodedFrame> free;
+    private final int maxFrames;
+    private final int bufferSize;
+    private int allocated;
+
+    private long hits;
+    private long misses;
+    private long drops;
+
+    public FrameBufferPool(int maxFrames, int preallocatedFrames, int bufferSize) {
+        this.maxFrames = maxFrames;
+        this.bufferSize = bufferSize;
+        this.free = new ArrayDeque<>(maxFrames);
+        for (int i = 0; i < Math.min(preallocatedFrames, maxFrames); i++) {
+            free.push(new EncodedFrame(this, bufferSize));
+            allocated++;
+        }
+    }
+
+    /**
+     * Returns a frame whose buffer can hold {@code size} bytes, or null if the pool is exhausted.
+     */
+    public synchronized EncodedFrame acquire(int size) {
+        EncodedFrame frame = free.poll();
+        if (frame != null) {
+            if (frame.capacity() >= size) {
+                hits++;
+            } else {
+                misses++;
+                frame.ensureCapacity(size);
+            }
+            frame.onAcquired();
+            return frame;
+        }
+
+        if (allocated < maxFrames) {
+            allocated++;
+            misses++;
+            return new EncodedFrame(this, Math.max(size, bufferSize));
+        }
+
+        drops++;
+        return null;
+    }
+
+    synchronized void release(EncodedFrame frame) {
+        free.push(frame);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getDrops() {
+        return drops;
+    }
+
+    public synchronized int getAvailable() {
+        return free.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "FrameBufferPool{hits=%d, misses=%d, drops=%d, free=%d/%d}",
+                hits, misses, drops, free.size(), allocated);
+    }
+}
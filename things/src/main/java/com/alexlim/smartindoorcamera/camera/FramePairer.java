@@ -0,0 +1,93 @@
+package com.alexlim.smartindoorcamera.camera;
+
+/**
+ * Matches full-size JPEGs with the thumbnail the same capture request produced. The two come from
+ * different readers in no guaranteed order, so whichever arrives first waits in a slot until its
+ * partner, with the same sensor timestamp, shows up.
+ */
+class FramePairer {
+
+    interface Sink {
+        void onFrameReady(EncodedFrame frame);
+    }
+
+    private final Sink sink;
+    private final EncodedFrame[] jpegs;
+    private final EncodedFrame[] thumbnails;
+
+    FramePairer(int slots, Sink sink) {
+        this.sink = sink;
+        this.jpegs = new EncodedFrame[slots];
+        this.thumbnails = new EncodedFrame[slots];
+    }
+
+    /**
+     * Returns true if the JPEG was delivered straight away, false if it now waits for its
+     * thumbnail.
+     */
+    boolean offerJpeg(EncodedFrame jpeg) {
+        int match = find(thumbnails, jpeg.getTimestampNanos());
+        if (match >= 0) {
+            jpeg.setThumbnail(thumbnails[match]);
+            thumbnails[match] = null;
+            sink.onFrameReady(jpeg);
+            return true;
+        }
+        if (!store(jpegs, jpeg)) {
+            sink.onFrameReady(jpeg);
+            return true;
+        }
+        return false;
+    }
+
+    void offerThumbnail(EncodedFrame thumbnail) {
+        int match = find(jpegs, thumbnail.getTimestampNanos());
+        if (match >= 0) {
+            EncodedFrame jpeg = jpegs[match];
+            jpegs[match] = null;
+            jpeg.setThumbnail(thumbnail);
+            sink.onFrameReady(jpeg);
+            return;
+        }
+        if (!store(thumbnails, thumbnail)) {
+            thumbnail.release();
+        }
+    }
+
+    /**
+     * Gives up on every pending pair: waiting JPEGs are delivered without a thumbnail and orphaned
+     * thumbnails are released.
+     */
+    void flush() {
+        for (int i = 0; i < jpegs.length; i++) {
+            if (jpegs[i] != null) {
+                EncodedFrame jpeg = jpegs[i];
+                jpegs[i] = null;
+                sink.onFrameReady(jpeg);
+            }
+            if (thumbnails[i] != null) {
+                thumbnails[i].release();
+                thumbnails[i] = null;
+            }
+        }
+    }
+
+    private static int find(EncodedFrame[] slots, long timestampNanos) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null && slots[i].getTimestampNanos() == timestampNanos) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean store(EncodedFrame[] slots, EncodedFrame frame) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == null) {
+                slots[i] = frame;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import java.util.Base64;
+
+/**
+ * A preview of a frame small enough to travel inside a push message, so the phone can show the
+ * alert with a picture before it has fetched anything.
+ * <p>
+ * The frame is box-filtered down to {@link #WIDTH} pixels across, keeping its aspect ratio up to
+ * {@link #MAX_HEIGHT} rows, and stored as raw YCbCr 4:2:0: version, width, height, then the Y
+ * plane and the subsampled Cb and Cr planes, one byte per sample, base64 encoded. The size depends
+ * only on the dimensions, so it can never exceed {@link #MAX_ENCODED_LENGTH}.
+ */
+public final class MicroPreview {
+    public static final int VERSION = 1;
+    public static final int WIDTH = 32;
+    public static final int MAX_HEIGHT = 32;
+    private static final int HEADER_BYTES = 3;
+    // FCM caps a data payload at 4096 bytes; this leaves 1.5 KB for the title, body and refs
+    public static final int MAX_ENCODED_LENGTH = 2560;
+
+    private MicroPreview() {
+    }
+
+    /**
+     * @param argb {@code width * height} pixels, row by row
+     */
+    public static String encode(int[] argb, int width, int height) {
+        if (width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("Bad frame " + width + "x" + height);
+        }
+        int outHeight = Math.round((float) WIDTH * height / width / 2) * 2;
+        outHeight = Math.max(2, Math.min(MAX_HEIGHT, outHeight));
+
+        byte[] data = new byte[HEADER_BYTES + WIDTH * outHeight * 3 / 2];
+        data[0] = VERSION;
+        data[1] = WIDTH;
+        data[2] = (byte) outHeight;
+        int yOffset = HEADER_BYTES;
+        int cbOffset = yOffset + WIDTH * outHeight;
+        int crOffset = cbOffset + WIDTH * outHeight / 4;
+        // Cb and Cr summed over each 2x2 block of output pixels
+        int[] cbSum = new int[WIDTH * outHeight / 4];
+        int[] crSum = new int[WIDTH * outHeight / 4];
+
+        for (int y = 0; y < outHeight; y++) {
+            int top = y * height / outHeight;
+            int bottom = Math.max(top + 1, (y + 1) * height / outHeight);
+            for (int x = 0; x < WIDTH; x++) {
+                int left = x * width / WIDTH;
+                int right = Math.max(left + 1, (x + 1) * width / WIDTH);
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int sy = top; sy < bottom; sy++) {
+                    for (int sx = left; sx < right; sx++) {
+                        int pixel = argb[sy * width + sx];
+                        r += (pixel >> 16) & 0xff;
+                        g += (pixel >> 8) & 0xff;
+                        b += pixel & 0xff;
+                    }
+                }
+                int count = (bottom - top) * (right - left);
+                r /= count;
+                g /= count;
+                b /= count;
+
+                // JFIF full-range BT.601
+                data[yOffset + y * WIDTH + x] = (byte) clamp(Math.round(0.299f * r + 0.587f * g + 0.114f * b));
+                int block = (y / 2) * (WIDTH / 2) + x / 2;
+                cbSum[block] += Math.round(128 - 0.168736f * r - 0.331264f * g + 0.5f * b);
+                crSum[block] += Math.round(128 + 0.5f * r - 0.418688f * g - 0.081312f * b);
+            }
+        }
+        for (int i = 0; i < cbSum.length; i++) {
+            data[cbOffset + i] = (byte) clamp((cbSum[i] + 2) / 4);
+            data[crOffset + i] = (byte) clamp((crSum[i] + 2) / 4);
+        }
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
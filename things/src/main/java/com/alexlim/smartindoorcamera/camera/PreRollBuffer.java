@@ -0,0 +1,98 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Circular buffer of the most recent encoded frames, used to attach what the camera saw just
+ * before a trigger to the motion event.
+ * <p>
+ * All memory is allocated up front: one arena of {@code maxBytes} split into equal slots. Writes
+ * copy straight from the camera buffer into the oldest slot, so running it continuously doesn't
+ * allocate. A frame larger than a slot is skipped and counted as oversized.
+ */
+public class PreRollBuffer {
+    private final byte[] arena;
+    private final int slotSize;
+    private final int[] lengths;
+    private final long[] timestampNanos;
+    private final long[] captureTimeMillis;
+    private final long maxAgeMillis;
+
+    // Next slot to write and number of valid slots behind it
+    private int head;
+    private int count;
+
+    private long written;
+    private long oversized;
+
+    /**
+     * @param maxBytes     hard cap on the memory used for frame data
+     * @param slots        number of frames kept; with frames captured every {@code interval} this
+     *                     covers {@code slots * interval} of history
+     * @param maxAgeMillis frames older than this at drain time are not handed out
+     */
+    public PreRollBuffer(int maxBytes, int slots, long maxAgeMillis) {
+        this.slotSize = maxBytes / slots;
+        this.arena = new byte[slotSize * slots];
+        this.lengths = new int[slots];
+        this.timestampNanos = new long[slots];
+        this.captureTimeMillis = new long[slots];
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public synchronized boolean write(ByteBuffer source, long timestampNanos, long captureTimeMillis) {
+        int length = source.remaining();
+        if (length > slotSize) {
+            oversized++;
+            return false;
+        }
+        source.get(arena, head * slotSize, length);
+        lengths[head] = length;
+        this.timestampNanos[head] = timestampNanos;
+        this.captureTimeMillis[head] = captureTimeMillis;
+
+        head = (head + 1) % lengths.length;
+        count = Math.min(count + 1, lengths.length);
+        written++;
+        return true;
+    }
+
+    /**
+     * Copies the buffered frames, oldest first, into frames from {@code pool} and empties the
+     * buffer. Returns how many entries of {@code out} were filled; frames the pool can't take are
+     * dropped (and counted by the pool).
+     */
+    public synchronized int drainTo(FrameBufferPool pool, EncodedFrame[] out, long nowMillis) {
+        int filled = 0;
+        int slot = (head - count + lengths.length) % lengths.length;
+        for (int i = 0; i < count && filled < out.length; i++, slot = (slot + 1) % lengths.length) {
+            if (nowMillis - captureTimeMillis[slot] > maxAgeMillis) {
+                continue;
+            }
+            EncodedFrame frame = pool.acquire(lengths[slot]);
+            if (frame == null) {
+                continue;
+            }
+            frame.fill(arena, slot * slotSize, lengths[slot], timestampNanos[slot], captureTimeMillis[slot]);
+            frame.setPreRoll(true);
+            out[filled++] = frame;
+        }
+        count = 0;
+        return filled;
+    }
+
+    public int getCapacity() {
+        return lengths.length;
+    }
+
+    public int getSizeInBytes() {
+        return arena.length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "PreRollBuffer{frames=%d/%d, slot=%dB, written=%d, oversized=%d}",
+                count, lengths.length, slotSize, written, oversized);
+    }
+}
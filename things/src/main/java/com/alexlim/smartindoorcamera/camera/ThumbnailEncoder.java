@@ -0,0 +1,90 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+
+import com.alexlim.smartindoorcamera.analysis.PerceptualHash;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * JPEG-encodes frames of the low-resolution YUV stream into thumbnails and hashes their luma for
+ * deduplication. The camera already scaled the frame, so this is only a repack into NV21 and a
+ * small compress, using buffers allocated once.
+ */
+class ThumbnailEncoder {
+    private final int width;
+    private final int height;
+    private final int quality;
+    private final byte[] nv21;
+    private final Rect bounds;
+    private final ReusableOutputStream output;
+
+    ThumbnailEncoder(int width, int height, int quality) {
+        this.width = width;
+        this.height = height;
+        this.quality = quality;
+        this.nv21 = new byte[width * height * 3 / 2];
+        this.bounds = new Rect(0, 0, width, height);
+        this.output = new ReusableOutputStream(width * height / 4);
+    }
+
+    /**
+     * Encodes {@code image} into a frame from {@code pool}, or returns null if the pool is empty.
+     */
+    EncodedFrame encode(Image image, FrameBufferPool pool) {
+        Image.Plane[] planes = image.getPlanes();
+        copyPlane(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(), width, height);
+        copyChroma(planes[2].getBuffer(), planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride());
+
+        output.reset();
+        new YuvImage(nv21, ImageFormat.NV21, width, height, null).compressToJpeg(bounds, quality, output);
+
+        EncodedFrame thumbnail = pool.acquire(output.size());
+        if (thumbnail != null) {
+            thumbnail.fill(output.buffer(), 0, output.size(), image.getTimestamp(), System.currentTimeMillis());
+            // The luma plane is already scaled down and in hand, so hashing it here is nearly free
+            thumbnail.setPerceptualHash(PerceptualHash.dHash(nv21, 0, width, height, width));
+        }
+        return thumbnail;
+    }
+
+    private void copyPlane(ByteBuffer plane, int rowStride, int pixelStride, int planeWidth, int planeHeight) {
+        int base = plane.position();
+        int out = 0;
+        for (int y = 0; y < planeHeight; y++) {
+            int row = base + y * rowStride;
+            for (int x = 0; x < planeWidth; x++) {
+                nv21[out++] = plane.get(row + x * pixelStride);
+            }
+        }
+    }
+
+    // NV21 stores chroma as interleaved V/U pairs after the luma plane
+    private void copyChroma(ByteBuffer vPlane, ByteBuffer uPlane, int rowStride, int pixelStride) {
+        int vBase = vPlane.position();
+        int uBase = uPlane.position();
+        int out = width * height;
+        for (int y = 0; y < height / 2; y++) {
+            int row = y * rowStride;
+            for (int x = 0; x < width / 2; x++) {
+                int offset = row + x * pixelStride;
+                nv21[out++] = vPlane.get(vBase + offset);
+                nv21[out++] = uPlane.get(uBase + offset);
+            }
+        }
+    }
+
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.alexlim.smartindoorcamera.evidence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * On-device history of captured frames, kept whether or not they were ever uploaded, so a time
+ * range can be looked at locally.
+ * <p>
+ * Frames are appended to fixed-size segment files, memory-mapped, each record framed as
+ * {@code magic, capture time, length, CRC32, JPEG}. Every segment has a time index of
+ * {@code capture time, record offset} pairs kept sorted in memory, so a range scan is a binary
+ * search followed by a walk through the segment in time order. The index is written to a sidecar
+ * file when the segment is sealed, and rebuilt by scanning the segment if that file is missing.
+ * A segment is sealed once it is full or spans more than the maximum age of capture time, and the
+ * oldest segments are deleted to stay under the size cap.
+ */
+public class EvidenceStore {
+    private static final int RECORD_MAGIC = 0x45564446;
+    private static final int RECORD_HEADER_BYTES = 4 + 8 + 4 + 4;
+    private static final int INDEX_ENTRY_BYTES = 8 + 4;
+    private static final String SEGMENT_SUFFIX = ".evd";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    public interface FrameVisitor {
+        /**
+         * @param jpeg read-only view of the frame, only valid for the duration of the call
+         * @return false to stop the scan
+         */
+        boolean visit(long captureTimeMillis, ByteBuffer jpeg);
+    }
+
+    static class Segment {
+        final long sequence;
+        final File file;
+        final File indexFile;
+        MappedByteBuffer buffer;
+        int size;
+        long firstCaptureTimeMillis;
+        // Sorted by capture time; frames mostly arrive in order, pre-roll being the exception
+        long[] times = new long[64];
+        int[] offsets = new int[64];
+        int count;
+
+        Segment(File directory, long sequence) {
+            this.sequence = sequence;
+            this.file = new File(directory, String.format(Locale.US, "%010d", sequence) + SEGMENT_SUFFIX);
+            this.indexFile = new File(directory, String.format(Locale.US, "%010d", sequence) + INDEX_SUFFIX);
+        }
+
+        void insert(long captureTimeMillis, int offset) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            int i = count;
+            while (i > 0 && times[i - 1] > captureTimeMillis) {
+                i--;
+            }
+            System.arraycopy(times, i, times, i + 1, count - i);
+            System.arraycopy(offsets, i, offsets, i + 1, count - i);
+            times[i] = captureTimeMillis;
+            offsets[i] = offset;
+            count++;
+        }
+
+        /**
+         * Index of the first frame captured at or after {@code captureTimeMillis}.
+         */
+        int lowerBound(long captureTimeMillis) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < captureTimeMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final long segmentMaxAgeMillis;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private long frameCount;
+
+    private long appended;
+    private long evicted;
+    private long rejected;
+    private long corrupt;
+
+    /**
+     * @param maxBytes            cap on the total size of all segment files
+     * @param segmentBytes        size of each segment file, and so the largest frame that can be stored
+     * @param segmentMaxAgeMillis capture time span after which a segment is sealed even if not full
+     */
+    public EvidenceStore(File directory, long maxBytes, int segmentBytes, long segmentMaxAgeMillis) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.segmentMaxAgeMillis = segmentMaxAgeMillis;
+    }
+
+    /**
+     * Maps the segments left on disk and carries on appending to the newest one, so a restart doesn't
+     * cost a segment of the size cap. A segment without an index file, such as the one being written
+     * when the process died, is scanned up to its first torn or damaged record; the newest segment is
+     * always scanned, as that also finds where appends resume.
+     */
+    public synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create evidence directory " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        long[] sequences = new long[files != null ? files.length : 0];
+        for (int i = 0; i < sequences.length; i++) {
+            String name = files[i].getName();
+            sequences[i] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(sequences);
+
+        for (int i = 0; i < sequences.length; i++) {
+            Segment segment = new Segment(directory, sequences[i]);
+            segment.buffer = map(segment.file, segment.file.length());
+            if (i == sequences.length - 1) {
+                long corruptBefore = corrupt;
+                scan(segment);
+                // A damaged tail would be left behind the next append, so only a clean segment is reused
+                if (corrupt == corruptBefore && segment.buffer.capacity() == segmentBytes) {
+                    if (segment.count > 0) {
+                        segment.firstCaptureTimeMillis = segment.times[0];
+                    }
+                    active = segment;
+                } else {
+                    writeIndex(segment);
+                }
+            } else if (!readIndex(segment)) {
+                scan(segment);
+                writeIndex(segment);
+            }
+            segments.add(segment);
+            frameCount += segment.count;
+        }
+
+        if (active == null) {
+            startSegment(sequences.length > 0 ? sequences[sequences.length - 1] + 1 : 0);
+        }
+        evictOverCap();
+    }
+
+    public synchronized boolean isOpen() {
+        return active != null;
+    }
+
+    /**
+     * Stores a frame. Returns false if the frame is larger than a segment and can't be stored.
+     */
+    public synchronized boolean append(long captureTimeMillis, byte[] data, int length) throws IOException {
+        if (active == null) {
+            throw new IllegalStateException("Evidence store not open.");
+        }
+        int recordSize = RECORD_HEADER_BYTES + length;
+        if (recordSize > segmentBytes) {
+            rejected++;
+            return false;
+        }
+        if (active.size + recordSize > segmentBytes
+                || (active.count > 0 && captureTimeMillis - active.firstCaptureTimeMillis > segmentMaxAgeMillis)) {
+            rollSegment();
+        }
+
+        crc.reset();
+        crc.update(data, 0, length);
+        MappedByteBuffer buffer = active.buffer;
+        buffer.position(active.size);
+        buffer.putInt(RECORD_MAGIC)
+                .putLong(captureTimeMillis)
+                .putInt(length)
+                .putInt((int) crc.getValue())
+                .put(data, 0, length);
+
+        if (active.count == 0) {
+            active.firstCaptureTimeMillis = captureTimeMillis;
+        }
+        active.insert(captureTimeMillis, active.size);
+        active.size += recordSize;
+        frameCount++;
+        appended++;
+        return true;
+    }
+
+    /**
+     * Visits the frames captured between {@code fromMillis} and {@code toMillis}, both inclusive.
+     * Frames come in capture order within each segment and segments oldest first; only pre-roll
+     * frames stored across a segment boundary can come slightly out of order.
+     *
+     * @return the number of frames visited
+     */
+    public synchronized int scan(long fromMillis, long toMillis, FrameVisitor visitor) {
+        int visited = 0;
+        for (Segment segment : segments) {
+            if (segment.count == 0 || segment.times[segment.count - 1] < fromMillis || segment.times[0] > toMillis) {
+                continue;
+            }
+            ByteBuffer view = segment.buffer.asReadOnlyBuffer();
+            for (int i = segment.lowerBound(fromMillis); i < segment.count && segment.times[i] <= toMillis; i++) {
+                int offset = segment.offsets[i];
+                int length = view.getInt(offset + 4 + 8);
+                view.limit(offset + RECORD_HEADER_BYTES + length).position(offset + RECORD_HEADER_BYTES);
+                visited++;
+                boolean more = visitor.visit(segment.times[i], view.slice());
+                view.clear();
+                if (!more) {
+                    return visited;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Seals the active segment so its index is on disk.
+     */
+    public synchronized void close() throws IOException {
+        if (active == null) {
+            return;
+        }
+        seal(active);
+        active = null;
+    }
+
+    private void startSegment(long sequence) throws IOException {
+        active = new Segment(directory, sequence);
+        active.buffer = map(active.file, segmentBytes);
+        segments.add(active);
+    }
+
+    private void rollSegment() throws IOException {
+        seal(active);
+        startSegment(active.sequence + 1);
+        evictOverCap();
+    }
+
+    private void seal(Segment segment) throws IOException {
+        segment.buffer.force();
+        writeIndex(segment);
+    }
+
+    private void evictOverCap() {
+        while ((long) segments.size() * segmentBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.poll();
+            evicted += oldest.count;
+            frameCount -= oldest.count;
+            oldest.file.delete();
+            oldest.indexFile.delete();
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private boolean readIndex(Segment segment) throws IOException {
+        long length = segment.indexFile.length();
+        if (!segment.indexFile.exists() || length % INDEX_ENTRY_BYTES != 0) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.indexFile)))) {
+            for (long i = 0; i < length / INDEX_ENTRY_BYTES; i++) {
+                long time = in.readLong();
+                int offset = in.readInt();
+                if (offset < 0 || offset + RECORD_HEADER_BYTES > segment.buffer.capacity()) {
+                    segment.count = 0;
+                    return false;
+                }
+                segment.insert(time, offset);
+            }
+        }
+        return true;
+    }
+
+    private void writeIndex(Segment segment) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.indexFile)))) {
+            for (int i = 0; i < segment.count; i++) {
+                out.writeLong(segment.times[i]);
+                out.writeInt(segment.offsets[i]);
+            }
+        }
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int magic = buffer.getInt(offset);
+            if (magic != RECORD_MAGIC) {
+                // Zeros are the unwritten rest of the segment; anything else is damage
+                if (magic != 0) {
+                    corrupt++;
+                }
+                break;
+            }
+            long captureTimeMillis = buffer.getLong(offset + 4);
+            int length = buffer.getInt(offset + 4 + 8);
+            int expectedCrc = buffer.getInt(offset + 4 + 8 + 4);
+            if (length < 0 || offset + RECORD_HEADER_BYTES + length > buffer.capacity()) {
+                corrupt++;
+                break;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(offset + RECORD_HEADER_BYTES + length).position(offset + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != expectedCrc) {
+                corrupt++;
+                break;
+            }
+            segment.insert(captureTimeMillis, offset);
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        segment.size = offset;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * Frames deleted with their segment to stay under the size cap.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Frames too large for a segment.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Segments whose scan stopped early at a torn or damaged record.
+     */
+    public synchronized long getCorrupt() {
+        return corrupt;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "evidence: %d frames in %d segments, appended=%d evicted=%d rejected=%d",
+                frameCount, segments.size(), appended, evicted, rejected);
+    }
+}
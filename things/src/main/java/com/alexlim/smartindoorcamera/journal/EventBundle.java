@@ -0,0 +1,92 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Container that packs every frame of one motion event into a single object, so an event costs
+ * one upload, one log entry and one function trigger however many frames it has.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * magic "SICB" (4) | version (2) | frame count (2)
+ * per frame: capture time millis (8) | image offset (4) | image length (4)
+ *            | thumbnail offset (4) | thumbnail length (4, 0 if none)
+ * image and thumbnail bytes, frame by frame
+ * </pre>
+ * Offsets are from the start of the object, so a reader can fetch the index with one range read
+ * and then any single frame with another.
+ */
+public final class EventBundle {
+    public static final int MAGIC = 0x53494342;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 8;
+    public static final int INDEX_ENTRY_BYTES = 24;
+    public static final String CONTENT_TYPE = "application/vnd.smartindoorcamera.bundle";
+
+    private EventBundle() {
+    }
+
+    public static int getIndexLength(int frameCount) {
+        return HEADER_BYTES + frameCount * INDEX_ENTRY_BYTES;
+    }
+
+    /**
+     * Builds the header and offset table for {@code frames}, in the order given.
+     */
+    public static byte[] buildIndex(List<JournalEntry> frames) {
+        if (frames.size() > 0xffff) {
+            throw new IllegalArgumentException("Too many frames for one bundle: " + frames.size());
+        }
+        ByteBuffer index = ByteBuffer.allocate(getIndexLength(frames.size()));
+        index.putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putShort((short) frames.size());
+        long offset = index.capacity();
+        for (JournalEntry frame : frames) {
+            long thumbnailOffset = offset + frame.getImageLength();
+            index.putLong(frame.getCaptureTimeMillis())
+                    .putInt(checkedOffset(offset))
+                    .putInt(frame.getImageLength())
+                    .putInt(checkedOffset(thumbnailOffset))
+                    .putInt(frame.getThumbnailLength());
+            offset = thumbnailOffset + frame.getThumbnailLength();
+        }
+        return index.array();
+    }
+
+    private static int checkedOffset(long offset) {
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bundle larger than 2 GB.");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Streams the whole container, with the frame bytes read straight from the journal segments.
+     */
+    public static InputStream openStream(List<JournalEntry> frames) throws IOException {
+        List<InputStream> parts = new ArrayList<>(1 + frames.size() * 2);
+        parts.add(new ByteArrayInputStream(buildIndex(frames)));
+        try {
+            for (JournalEntry frame : frames) {
+                parts.add(frame.openImageStream());
+                if (frame.hasThumbnail()) {
+                    parts.add(frame.openThumbnailStream());
+                }
+            }
+        } catch (IOException e) {
+            for (InputStream part : parts) {
+                part.close();
+            }
+            throw e;
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+}
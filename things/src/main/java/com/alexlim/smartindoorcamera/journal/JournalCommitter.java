@@ -0,0 +1,22 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import java.util.List;
+
+/**
+ * Writes the metadata of a batch of finished uploads to the backend in one write. Entries are only
+ * acknowledged once their batch is committed, so an uploaded frame is never left without its
+ * metadata; a failed commit is retried with the same batch, whose objects are not uploaded again.
+ * Implementations must be idempotent per {@link JournalEntry#getName()}, like
+ * {@link JournalUploader}.
+ */
+public interface JournalCommitter {
+
+    /**
+     * Starts the write; {@code callback} may be called on any thread, exactly once.
+     *
+     * @param uploads    the entries of each finished {@link JournalUploader#upload} call, in the
+     *                   order the uploads finished; may be empty
+     * @param references duplicate frames to log against their originals' objects; may be empty
+     */
+    void commit(List<List<JournalEntry>> uploads, List<JournalReference> references, JournalUploader.Callback callback);
+}
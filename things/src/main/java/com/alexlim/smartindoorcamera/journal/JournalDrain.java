@@ -0,0 +1,479 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import android.util.Log;
+
+import com.alexlim.smartindoorcamera.camera.EncodedFrame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds frames into an {@link UploadJournal} and drains it through a {@link JournalUploader}.
+ * <p>
+ * Everything runs on one thread of its own: journal writes happen there rather than on the thread
+ * that submits the frame, and the drain state needs no locking. The {@link UploadScheduler} picks
+ * the order and at most {@code maxConcurrentUploads} entries are in flight; a failed upload goes
+ * back to the scheduler and pauses the drain with exponential backoff, since failures are nearly
+ * always the network being down rather than the entry.
+ * <p>
+ * With a {@link JournalCommitter} set, finished uploads are held back and their metadata committed
+ * in batches: once no upload is in flight, the batch is full, or the oldest upload in it has waited
+ * the maximum batch delay. Duplicate frames submitted as {@link JournalReference}s go out in the same
+ * batches, each once its original has been committed; a reference whose original is evicted before
+ * it uploads is dropped. One commit runs at a time. A failed commit keeps its batch, whose
+ * uploads are already done, and only the commit is retried, with its own exponential backoff.
+ */
+public class JournalDrain {
+    private static final String TAG = JournalDrain.class.getSimpleName();
+    // Originals a new reference can still point at; deduplication only looks back a few frames
+    private static final int RECENT_ORIGINALS = 64;
+
+    private final UploadJournal journal;
+    private final JournalUploader uploader;
+    private final UploadScheduler scheduler;
+    private volatile int maxConcurrentUploads;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ScheduledExecutorService executor;
+    private JournalCommitter committer;
+    private int maxBatchSize;
+    private long maxBatchDelayMillis;
+    private long maxReferenceDelayMillis;
+
+    private int consecutiveFailures;
+    private long backoffUntilMillis;
+    private boolean drainScheduled;
+    private boolean open;
+    // Uploaded, waiting for their metadata to be committed
+    private final List<List<JournalEntry>> uncommitted = new ArrayList<>();
+    private final List<JournalReference> uncommittedReferences = new ArrayList<>();
+    // Entries by name until their upload finishes, oldest first, and then until they're committed
+    private final LinkedHashMap<String, JournalEntry> awaitingUpload = new LinkedHashMap<>();
+    private final Map<String, JournalEntry> awaitingCommit = new HashMap<>();
+    private final Map<String, JournalEntry> recentlyCommitted = new LinkedHashMap<String, JournalEntry>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JournalEntry> eldest) {
+            return size() > RECENT_ORIGINALS;
+        }
+    };
+    // References by original name, until the original is committed
+    private final Map<String, List<JournalReference>> waitingReferences = new HashMap<>();
+    private boolean committing;
+    // When the earliest scheduled commit check runs, or Long.MAX_VALUE if none is
+    private long commitCheckAtMillis = Long.MAX_VALUE;
+    private int consecutiveCommitFailures;
+    private long commitBackoffUntilMillis;
+
+    private volatile long uploaded;
+    private volatile long failedAttempts;
+    private volatile long writeFailures;
+    private volatile long commits;
+    private volatile long failedCommits;
+    private volatile long committedUploads;
+    private volatile long committedReferences;
+    private volatile long droppedReferences;
+
+    public JournalDrain(UploadJournal journal, JournalUploader uploader, UploadScheduler scheduler,
+                        int maxConcurrentUploads, long initialBackoffMillis, long maxBackoffMillis) {
+        this.journal = journal;
+        this.uploader = uploader;
+        this.scheduler = scheduler;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "UploadJournal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Commits upload metadata through {@code committer} in batches of up to {@code maxBatchSize}
+     * uploads and references instead of leaving it to the uploader. References wait up to
+     * {@code maxReferenceDelayMillis} for company, so a run of duplicates shares a write even with
+     * no upload going. Must be called before {@link #start()}.
+     */
+    public void setCommitter(JournalCommitter committer, int maxBatchSize, long maxBatchDelayMillis,
+                             long maxReferenceDelayMillis) {
+        this.committer = committer;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+        this.maxReferenceDelayMillis = maxReferenceDelayMillis;
+    }
+
+    /**
+     * Opens the journal and starts uploading whatever the previous run left behind.
+     */
+    public void start() {
+        executor.execute(() -> {
+            int recoveredCount = 0;
+            try {
+                List<JournalEntry> recovered = journal.open();
+                for (JournalEntry entry : recovered) {
+                    scheduler.add(entry);
+                    awaitingUpload.put(entry.getName(), entry);
+                }
+                recoveredCount = recovered.size();
+                open = true;
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "start: failed to open upload journal", e);
+            }
+            drain();
+            Log.d(TAG, "start: recovered " + recoveredCount + " entries. " + journal);
+        });
+    }
+
+    /**
+     * Journals {@code frame} and its thumbnail, then releases it. Returns immediately; the write
+     * happens on the drain thread.
+     */
+    public void submit(EncodedFrame frame) {
+        if (executor.isShutdown()) {
+            frame.release();
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                if (!open) {
+                    throw new IOException("Journal not open.");
+                }
+                EncodedFrame thumbnail = frame.getThumbnail();
+                JournalEntry entry = journal.append(entryName(frame), frame.getCaptureTimeMillis(), frame.getData(), frame.getLength(),
+                        thumbnail != null ? thumbnail.getData() : null, thumbnail != null ? thumbnail.getLength() : 0);
+                entry.setTrace(frame.getTrace());
+                scheduler.add(entry);
+                awaitingUpload.put(entry.getName(), entry);
+            } catch (IOException e) {
+                writeFailures++;
+                Log.e(TAG, "submit: failed to journal frame", e);
+            } finally {
+                frame.release();
+            }
+            drain();
+        });
+    }
+
+    /**
+     * Logs a duplicate frame with the first metadata commit after its original's. Must come after
+     * the original's {@link #submit}. Needs a committer.
+     */
+    public void submitReference(JournalReference reference) {
+        post(() -> {
+            String originalName = reference.getOriginalName();
+            JournalEntry committed = recentlyCommitted.get(originalName);
+            if (committed != null) {
+                queueReference(reference, committed);
+                maybeCommit();
+            } else if (awaitingUpload.containsKey(originalName) || awaitingCommit.containsKey(originalName)) {
+                List<JournalReference> waiting = waitingReferences.get(originalName);
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                    waitingReferences.put(originalName, waiting);
+                }
+                waiting.add(reference);
+            } else {
+                // Never journaled, evicted, or committed too long ago to be sure of
+                droppedReferences++;
+            }
+        });
+    }
+
+    private void queueReference(JournalReference reference, JournalEntry original) {
+        reference.setOriginal(original);
+        reference.queuedAtNanos = System.nanoTime();
+        uncommittedReferences.add(reference);
+    }
+
+    /**
+     * Name {@code frame} is journaled and uploaded under: unique per capture and the same on every
+     * retry.
+     */
+    public static String entryName(EncodedFrame frame) {
+        return frame.getCaptureTimeMillis() + "_" + frame.getTimestampNanos();
+    }
+
+    private void drain() {
+        dropEvicted();
+        long now = System.currentTimeMillis();
+        if (now < backoffUntilMillis) {
+            scheduleDrain(backoffUntilMillis - now);
+            return;
+        }
+        while (scheduler.getInFlight() < maxConcurrentUploads) {
+            List<JournalEntry> entries = scheduler.poll(now);
+            if (entries == null) {
+                break;
+            }
+            uploader.upload(entries, new JournalUploader.Callback() {
+                @Override
+                public void onSuccess() {
+                    post(() -> onUploaded(entries));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    Log.d(TAG, "upload: " + entries + " failed", e);
+                    post(() -> onUploadFailed(entries));
+                }
+            });
+        }
+        // A bundled event only becomes ready once no capture has joined it for a while
+        long closeDelay = scheduler.getNextEventCloseDelay(now);
+        if (closeDelay >= 0) {
+            scheduleDrain(closeDelay);
+        }
+    }
+
+    /**
+     * Forgets entries evicted before they uploaded, and the references waiting on them. The journal
+     * evicts oldest first, so they are at the head.
+     */
+    private void dropEvicted() {
+        Iterator<JournalEntry> iterator = awaitingUpload.values().iterator();
+        while (iterator.hasNext()) {
+            JournalEntry entry = iterator.next();
+            if (!entry.isEvicted()) {
+                break;
+            }
+            iterator.remove();
+            List<JournalReference> waiting = waitingReferences.remove(entry.getName());
+            if (waiting != null) {
+                droppedReferences += waiting.size();
+            }
+        }
+    }
+
+    // Upload callbacks can arrive after shutdown; their entries are simply retried next run
+    private void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private void onUploaded(List<JournalEntry> entries) {
+        scheduler.onUploaded(entries);
+        for (JournalEntry entry : entries) {
+            awaitingUpload.remove(entry.getName());
+            if (committer != null) {
+                awaitingCommit.put(entry.getName(), entry);
+            }
+        }
+        uploaded += entries.size();
+        consecutiveFailures = 0;
+        if (committer == null) {
+            ack(entries);
+            drain();
+            return;
+        }
+        uncommitted.add(entries);
+        drain();
+        maybeCommit();
+    }
+
+    private void ack(List<JournalEntry> entries) {
+        for (JournalEntry entry : entries) {
+            try {
+                journal.ack(entry);
+            } catch (IOException e) {
+                // The entry stays in the journal and is uploaded again after a restart
+                Log.w(TAG, "ack: failed to ack " + entry, e);
+            }
+        }
+    }
+
+    private void onUploadFailed(List<JournalEntry> entries) {
+        scheduler.retry(entries);
+        backOff();
+        drain();
+    }
+
+    private void backOff() {
+        failedAttempts++;
+        long backoff = initialBackoffMillis << Math.min(consecutiveFailures, 16);
+        consecutiveFailures++;
+        backoffUntilMillis = System.currentTimeMillis() + Math.min(backoff, maxBackoffMillis);
+    }
+
+    private void maybeCommit() {
+        if (committing || uncommitted.isEmpty() && uncommittedReferences.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < commitBackoffUntilMillis) {
+            scheduleCommit(commitBackoffUntilMillis - now);
+            return;
+        }
+        if (uncommitted.size() + uncommittedReferences.size() < maxBatchSize) {
+            long nowNanos = System.nanoTime();
+            long uploadsDueIn = Long.MAX_VALUE;
+            if (!uncommitted.isEmpty()) {
+                // Measured from the upload's start, so the batch delay bounds metadata latency
+                uploadsDueIn = scheduler.getInFlight() == 0 ? 0
+                        : maxBatchDelayMillis - (nowNanos - uncommitted.get(0).get(0).startedAtNanos) / 1_000_000;
+            }
+            long referencesDueIn = Long.MAX_VALUE;
+            if (!uncommittedReferences.isEmpty()) {
+                referencesDueIn = maxReferenceDelayMillis - (nowNanos - uncommittedReferences.get(0).queuedAtNanos) / 1_000_000;
+            }
+            long dueIn = Math.min(uploadsDueIn, referencesDueIn);
+            if (dueIn > 0) {
+                scheduleCommit(dueIn);
+                return;
+            }
+        }
+
+        List<List<JournalEntry>> batch = new ArrayList<>(uncommitted.subList(0, Math.min(uncommitted.size(), maxBatchSize)));
+        uncommitted.subList(0, batch.size()).clear();
+        List<JournalReference> references = new ArrayList<>(uncommittedReferences.subList(0,
+                Math.min(uncommittedReferences.size(), maxBatchSize - batch.size())));
+        uncommittedReferences.subList(0, references.size()).clear();
+        committing = true;
+        committer.commit(batch, references, new JournalUploader.Callback() {
+            @Override
+            public void onSuccess() {
+                post(() -> onCommitted(batch, references));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.d(TAG, "commit: " + batch.size() + " uploads and " + references.size() + " references failed", e);
+                post(() -> onCommitFailed(batch, references));
+            }
+        });
+    }
+
+    private void scheduleCommit(long delayMillis) {
+        long atMillis = System.currentTimeMillis() + delayMillis;
+        // An earlier check covers a later one; checks that turn out early just reschedule
+        if (atMillis >= commitCheckAtMillis) {
+            return;
+        }
+        commitCheckAtMillis = atMillis;
+        executor.schedule(() -> {
+            if (commitCheckAtMillis == atMillis) {
+                commitCheckAtMillis = Long.MAX_VALUE;
+            }
+            maybeCommit();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void onCommitted(List<List<JournalEntry>> batch, List<JournalReference> references) {
+        committing = false;
+        consecutiveCommitFailures = 0;
+        commits++;
+        committedUploads += batch.size();
+        committedReferences += references.size();
+        for (List<JournalEntry> entries : batch) {
+            ack(entries);
+            for (JournalEntry entry : entries) {
+                awaitingCommit.remove(entry.getName());
+                recentlyCommitted.put(entry.getName(), entry);
+                List<JournalReference> waiting = waitingReferences.remove(entry.getName());
+                if (waiting != null) {
+                    for (JournalReference reference : waiting) {
+                        queueReference(reference, entry);
+                    }
+                }
+            }
+        }
+        maybeCommit();
+    }
+
+    private void onCommitFailed(List<List<JournalEntry>> batch, List<JournalReference> references) {
+        committing = false;
+        failedCommits++;
+        // The objects are already up; only the metadata has to go again, ahead of anything newer
+        uncommitted.addAll(0, batch);
+        uncommittedReferences.addAll(0, references);
+        long backoff = initialBackoffMillis << Math.min(consecutiveCommitFailures, 16);
+        consecutiveCommitFailures++;
+        commitBackoffUntilMillis = System.currentTimeMillis() + Math.min(backoff, maxBackoffMillis);
+        maybeCommit();
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (drainScheduled) {
+            return;
+        }
+        drainScheduled = true;
+        executor.schedule(() -> {
+            drainScheduled = false;
+            drain();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops draining and closes the journal; entries not yet uploaded stay on disk for next time.
+     */
+    public void shutdown() {
+        executor.execute(() -> {
+            open = false;
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "shutdown: failed to close journal", e);
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Changes how many uploads may run at once; takes effect as uploads finish or start.
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        this.maxConcurrentUploads = Math.max(1, maxConcurrentUploads);
+        post(this::drain);
+    }
+
+    public UploadScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public long getUploaded() {
+        return uploaded;
+    }
+
+    public long getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public long getWriteFailures() {
+        return writeFailures;
+    }
+
+    public long getDroppedReferences() {
+        return droppedReferences;
+    }
+
+    public long getFailedCommits() {
+        return failedCommits;
+    }
+
+    /**
+     * Uploads per metadata commit; 1 without a committer.
+     */
+    public double getUploadsPerCommit() {
+        return commits > 0 ? (double) committedUploads / commits : 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "upload drain: parallel=%d uploaded=%d retries=%d writeFailures=%d "
+                        + "commits=%d (%.1f uploads each) references=%d (%d dropped) failedCommits=%d; %s\n%s",
+                maxConcurrentUploads, uploaded, failedAttempts, writeFailures, commits, getUploadsPerCommit(),
+                committedReferences, droppedReferences, failedCommits,
+                journal, scheduler);
+    }
+}
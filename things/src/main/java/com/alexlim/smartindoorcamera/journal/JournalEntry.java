@@ -0,0 +1,158 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import com.alexlim.smartindoorcamera.metrics.MotionTrace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One frame in the {@link UploadJournal}: where its bytes sit in a segment file and the name it is
+ * uploaded under. The name is derived from the capture, so uploading an entry twice overwrites the
+ * same objects rather than creating new ones.
+ */
+public class JournalEntry {
+    final UploadJournal.Segment segment;
+    final long offset;
+    private final String name;
+    private final long captureTimeMillis;
+    private final long imageOffset;
+    private final int imageLength;
+    private final int thumbnailLength;
+    private volatile boolean evicted;
+    // Only known for entries appended since the process started
+    private MotionTrace trace;
+    // Scheduling state, owned by UploadScheduler
+    long event;
+    long queuedAtNanos;
+    long startedAtNanos;
+
+    JournalEntry(UploadJournal.Segment segment, long offset, String name, long captureTimeMillis,
+                 long imageOffset, int imageLength, int thumbnailLength) {
+        this.segment = segment;
+        this.offset = offset;
+        this.name = name;
+        this.captureTimeMillis = captureTimeMillis;
+        this.imageOffset = imageOffset;
+        this.imageLength = imageLength;
+        this.thumbnailLength = thumbnailLength;
+    }
+
+    void setEvicted() {
+        evicted = true;
+    }
+
+    void setTrace(MotionTrace trace) {
+        this.trace = trace;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCaptureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    public int getImageLength() {
+        return imageLength;
+    }
+
+    public boolean hasThumbnail() {
+        return thumbnailLength > 0;
+    }
+
+    public int getThumbnailLength() {
+        return thumbnailLength;
+    }
+
+    /**
+     * True once the journal dropped the entry's segment to stay under its size cap.
+     */
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    public MotionTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Streams the full JPEG straight from the segment file.
+     */
+    public InputStream openImageStream() throws IOException {
+        return new RangeInputStream(segment.file, imageOffset, imageLength);
+    }
+
+    public InputStream openThumbnailStream() throws IOException {
+        return new RangeInputStream(segment.file, imageOffset + imageLength, thumbnailLength);
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + segment.file.getName() + ":" + offset;
+    }
+
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(File file, long offset, int length) throws IOException {
+            super(open(file, offset));
+            this.remaining = length;
+        }
+
+        private static InputStream open(File file, long offset) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                in.getChannel().position(offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.alexlim.smartindoorcamera.journal;
+
+/**
+ * A frame that is not uploaded because it duplicates one that is: only its metadata is committed,
+ * pointing at the original's objects, and only once the original's own metadata is. References are
+ * not journaled; one lost to a restart only costs a log row, since the frame itself is kept in the
+ * evidence store.
+ */
+public class JournalReference {
+    private final String name;
+    private final long captureTimeMillis;
+    private final String originalName;
+    private JournalEntry original;
+    long queuedAtNanos;
+
+    public JournalReference(String name, long captureTimeMillis, String originalName) {
+        this.name = name;
+        this.captureTimeMillis = captureTimeMillis;
+        this.originalName = originalName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCaptureTimeMillis() {
+        return captureTimeMillis;
+    }
+
+    /**
+     * Entry name of the frame this one duplicates.
+     */
+    public String getOriginalName() {
+        return originalName;
+    }
+
+    /**
+     * The committed entry of the frame this one duplicates; set before the reference is passed to a
+     * {@link JournalCommitter}.
+     */
+    public JournalEntry getOriginal() {
+        return original;
+    }
+
+    void setOriginal(JournalEntry original) {
+        this.original = original;
+    }
+
+    @Override
+    public String toString() {
+        return name + "->" + originalName;
+    }
+}
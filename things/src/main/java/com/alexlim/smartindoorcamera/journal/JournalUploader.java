@@ -0,0 +1,25 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import java.util.List;
+
+/**
+ * Sends journal entries to the backend. Implementations must be idempotent per
+ * {@link JournalEntry#getName()}: an entry is retried until it succeeds and may be sent again after
+ * a restart.
+ */
+public interface JournalUploader {
+
+    interface Callback {
+        void onSuccess();
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Starts the upload; {@code callback} may be called on any thread, exactly once. With
+     * {@link UploadScheduler#isBundlingEvents()} {@code entries} are the frames of one motion event,
+     * in capture order, to be sent together as an {@link EventBundle}; otherwise it is a single
+     * entry.
+     */
+    void upload(List<JournalEntry> entries, Callback callback);
+}
@@ -0,0 +1,325 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store for frames waiting to be uploaded, kept on flash so they survive losing the
+ * network or a restart.
+ * <p>
+ * Frames are appended sequentially to segment files, each record framed as
+ * {@code magic, name, capture time, image length, thumbnail length, CRC32, image, thumbnail}.
+ * Acknowledged records are appended to the segment's {@code .ack} file by offset; a segment is
+ * deleted once every record in it is acknowledged. When the journal outgrows its cap the oldest
+ * segment is evicted, uploaded or not.
+ */
+public class UploadJournal {
+    private static final int RECORD_MAGIC = 0x4a524e4c;
+    private static final int HEADER_FIXED_BYTES = 4 + 2 + 8 + 4 + 4 + 4;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ACK_SUFFIX = ".ack";
+
+    static class Segment {
+        final long sequence;
+        final File file;
+        final File ackFile;
+        long size;
+        // Records not acknowledged yet, oldest first
+        final List<JournalEntry> pending = new ArrayList<>();
+
+        Segment(File directory, long sequence) {
+            this.sequence = sequence;
+            this.file = new File(directory, String.format(Locale.US, "%010d", sequence) + SEGMENT_SUFFIX);
+            this.ackFile = new File(directory, String.format(Locale.US, "%010d", sequence) + ACK_SUFFIX);
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private FileOutputStream activeOut;
+    private long sizeInBytes;
+
+    private long appended;
+    private long acked;
+    private long evicted;
+    private long corrupt;
+
+    /**
+     * @param maxBytes     cap on the total size of all segments
+     * @param segmentBytes size at which the active segment is closed and a new one started; must be
+     *                     well under {@code maxBytes} for eviction to have something to drop
+     */
+    public UploadJournal(File directory, long maxBytes, long segmentBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Recovers the segments left on disk and starts a new one for appends. Returns the records that
+     * were never acknowledged, oldest first. A torn record at the end of a segment, from losing
+     * power mid-write, ends that segment's scan.
+     */
+    public synchronized List<JournalEntry> open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        long[] sequences = new long[files != null ? files.length : 0];
+        for (int i = 0; i < sequences.length; i++) {
+            String name = files[i].getName();
+            sequences[i] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(sequences);
+
+        List<JournalEntry> pending = new ArrayList<>();
+        for (long sequence : sequences) {
+            Segment segment = new Segment(directory, sequence);
+            scan(segment, readAcks(segment));
+            if (segment.pending.isEmpty()) {
+                delete(segment);
+                continue;
+            }
+            segments.add(segment);
+            sizeInBytes += segment.size;
+            pending.addAll(segment.pending);
+        }
+
+        startSegment(sequences.length > 0 ? sequences[sequences.length - 1] + 1 : 0);
+        return pending;
+    }
+
+    /**
+     * Writes a frame and its optional thumbnail and syncs it to disk before returning, so a
+     * returned entry survives a power loss.
+     */
+    public synchronized JournalEntry append(String name, long captureTimeMillis, byte[] image, int imageLength,
+                                            byte[] thumbnail, int thumbnailLength) throws IOException {
+        if (active == null) {
+            throw new IllegalStateException("Journal not open.");
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        crc.reset();
+        crc.update(image, 0, imageLength);
+        if (thumbnailLength > 0) {
+            crc.update(thumbnail, 0, thumbnailLength);
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_FIXED_BYTES + nameBytes.length);
+        header.putInt(RECORD_MAGIC)
+                .putShort((short) nameBytes.length)
+                .put(nameBytes)
+                .putLong(captureTimeMillis)
+                .putInt(imageLength)
+                .putInt(thumbnailLength)
+                .putInt((int) crc.getValue());
+
+        long offset = active.size;
+        activeOut.write(header.array());
+        activeOut.write(image, 0, imageLength);
+        if (thumbnailLength > 0) {
+            activeOut.write(thumbnail, 0, thumbnailLength);
+        }
+        activeOut.getFD().sync();
+
+        long recordSize = header.capacity() + imageLength + thumbnailLength;
+        JournalEntry entry = new JournalEntry(active, offset, name, captureTimeMillis,
+                offset + header.capacity(), imageLength, thumbnailLength);
+        active.size += recordSize;
+        active.pending.add(entry);
+        sizeInBytes += recordSize;
+        appended++;
+
+        if (active.size >= segmentBytes) {
+            rollSegment();
+        }
+        evictOverCap();
+        return entry;
+    }
+
+    /**
+     * Marks {@code entry} as uploaded. Acknowledging an evicted or already acknowledged entry does
+     * nothing.
+     */
+    public synchronized void ack(JournalEntry entry) throws IOException {
+        Segment segment = entry.segment;
+        if (entry.isEvicted() || !segment.pending.remove(entry)) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(segment.ackFile, true))) {
+            out.writeLong(entry.offset);
+        }
+        acked++;
+
+        if (segment.pending.isEmpty() && segment != active) {
+            segments.remove(segment);
+            sizeInBytes -= segment.size;
+            delete(segment);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (activeOut != null) {
+            activeOut.close();
+            activeOut = null;
+        }
+        active = null;
+    }
+
+    private void startSegment(long sequence) throws IOException {
+        active = new Segment(directory, sequence);
+        activeOut = new FileOutputStream(active.file, true);
+        segments.add(active);
+    }
+
+    private void rollSegment() throws IOException {
+        Segment finished = active;
+        activeOut.close();
+        startSegment(finished.sequence + 1);
+        if (finished.pending.isEmpty()) {
+            segments.remove(finished);
+            sizeInBytes -= finished.size;
+            delete(finished);
+        }
+    }
+
+    private void evictOverCap() {
+        while (sizeInBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.poll();
+            for (JournalEntry entry : oldest.pending) {
+                entry.setEvicted();
+            }
+            evicted += oldest.pending.size();
+            oldest.pending.clear();
+            sizeInBytes -= oldest.size;
+            delete(oldest);
+        }
+    }
+
+    private Set<Long> readAcks(Segment segment) throws IOException {
+        Set<Long> acks = new HashSet<>();
+        if (!segment.ackFile.exists()) {
+            return acks;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.ackFile)))) {
+            while (true) {
+                acks.add(in.readLong());
+            }
+        } catch (EOFException ignored) {
+            // End of the ack log; a partially written last ack just means a repeated upload
+        }
+        return acks;
+    }
+
+    private void scan(Segment segment, Set<Long> acks) throws IOException {
+        long fileLength = segment.file.length();
+        byte[] chunk = new byte[8192];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)))) {
+            long offset = 0;
+            while (offset + HEADER_FIXED_BYTES <= fileLength) {
+                if (in.readInt() != RECORD_MAGIC) {
+                    corrupt++;
+                    break;
+                }
+                byte[] nameBytes = new byte[in.readUnsignedShort()];
+                in.readFully(nameBytes);
+                long captureTimeMillis = in.readLong();
+                int imageLength = in.readInt();
+                int thumbnailLength = in.readInt();
+                int expectedCrc = in.readInt();
+                long payloadOffset = offset + HEADER_FIXED_BYTES + nameBytes.length;
+                if (imageLength < 0 || thumbnailLength < 0 || payloadOffset + imageLength + thumbnailLength > fileLength) {
+                    corrupt++;
+                    break;
+                }
+
+                crc.reset();
+                long remaining = (long) imageLength + thumbnailLength;
+                while (remaining > 0) {
+                    int n = in.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    crc.update(chunk, 0, n);
+                    remaining -= n;
+                }
+                if ((int) crc.getValue() != expectedCrc) {
+                    corrupt++;
+                    break;
+                }
+
+                if (!acks.contains(offset)) {
+                    segment.pending.add(new JournalEntry(segment, offset, new String(nameBytes, StandardCharsets.UTF_8),
+                            captureTimeMillis, payloadOffset, imageLength, thumbnailLength));
+                }
+                offset = payloadOffset + imageLength + thumbnailLength;
+            }
+            segment.size = fileLength;
+        } catch (EOFException e) {
+            corrupt++;
+            segment.size = fileLength;
+        }
+    }
+
+    private static void delete(Segment segment) {
+        segment.file.delete();
+        segment.ackFile.delete();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getAcked() {
+        return acked;
+    }
+
+    /**
+     * Records dropped unacknowledged to stay under the size cap.
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Segments whose scan stopped early at a torn or damaged record.
+     */
+    public synchronized long getCorrupt() {
+        return corrupt;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "journal: %d KB in %d segments, appended=%d acked=%d evicted=%d",
+                sizeInBytes / 1024, segments.size(), appended, acked, evicted);
+    }
+}
@@ -0,0 +1,300 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import com.alexlim.smartindoorcamera.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Decides which journal entries upload next. Entries are grouped into motion events by capture
+ * time, and the newest frame of each event, its lead, goes ahead of everything else, newest event
+ * first, so the frame a user is most likely to look at arrives first. The rest of each event is
+ * backfilled oldest first once no lead is waiting.
+ * <p>
+ * In bundling mode an event is instead held back until it closes, no capture for the event gap,
+ * and then handed out whole, to be uploaded as one object. Closed events go newest first.
+ * <p>
+ * Also measures how long entries wait for an upload slot and how fast uploads go, to tune the
+ * number of parallel uploads to the uplink. Not thread-safe; {@link JournalDrain} calls it from its
+ * own thread. The byte and busy-time counters may be read from any thread.
+ */
+public class UploadScheduler {
+    private static final Comparator<JournalEntry> CAPTURE_ORDER = Comparator.comparingLong(JournalEntry::getCaptureTimeMillis);
+
+    private final long eventGapMillis;
+    private final boolean bundleEvents;
+    // One lead per event, at most; leads are few, so a list scan beats a heap here
+    private final List<JournalEntry> leads = new ArrayList<>();
+    private final PriorityQueue<JournalEntry> backfill = new PriorityQueue<>(16, CAPTURE_ORDER);
+    // Bundling mode: frames per event, by event
+    private final TreeMap<Long, List<JournalEntry>> events = new TreeMap<>();
+    private long lastCaptureTimeMillis = Long.MIN_VALUE / 2;
+    private long currentEvent;
+
+    private final LatencyHistogram waitTime = new LatencyHistogram("upload wait");
+    private final LatencyHistogram uploadTime = new LatencyHistogram("upload time");
+    private volatile long uploadedBytes;
+    private long uploadNanos;
+    private volatile long busyNanos;
+    private volatile long busySinceNanos;
+    private volatile int inFlight;
+    // Added but neither uploaded nor evicted yet, in flight included
+    private volatile long pendingBytes;
+    private long lastBytesPerSecond;
+
+    /**
+     * @param eventGapMillis captures further apart than this start a new event
+     */
+    public UploadScheduler(long eventGapMillis) {
+        this(eventGapMillis, false);
+    }
+
+    /**
+     * @param bundleEvents hand out each event whole once it closes rather than frame by frame
+     */
+    public UploadScheduler(long eventGapMillis, boolean bundleEvents) {
+        this.eventGapMillis = eventGapMillis;
+        this.bundleEvents = bundleEvents;
+    }
+
+    public boolean isBundlingEvents() {
+        return bundleEvents;
+    }
+
+    /**
+     * Queues a new entry. Entries are expected roughly in capture order, which is how the camera and
+     * the journal produce them.
+     */
+    public void add(JournalEntry entry) {
+        if (entry.getCaptureTimeMillis() - lastCaptureTimeMillis > eventGapMillis) {
+            currentEvent++;
+        }
+        lastCaptureTimeMillis = Math.max(lastCaptureTimeMillis, entry.getCaptureTimeMillis());
+        entry.event = currentEvent;
+        entry.queuedAtNanos = System.nanoTime();
+        pendingBytes += bytesOf(entry);
+        offer(entry);
+    }
+
+    /**
+     * Puts back entries whose upload failed. A lead keeps its position unless a newer frame of its
+     * event has arrived since; a bundle goes back whole.
+     */
+    public void retry(List<JournalEntry> entries) {
+        inFlight--;
+        endBusy(System.nanoTime());
+        for (JournalEntry entry : entries) {
+            entry.queuedAtNanos = System.nanoTime();
+            offer(entry);
+        }
+    }
+
+    private void offer(JournalEntry entry) {
+        if (bundleEvents) {
+            List<JournalEntry> frames = events.get(entry.event);
+            if (frames == null) {
+                frames = new ArrayList<>();
+                events.put(entry.event, frames);
+            }
+            frames.add(entry);
+            return;
+        }
+
+        for (int i = 0; i < leads.size(); i++) {
+            JournalEntry lead = leads.get(i);
+            if (lead.event != entry.event) {
+                continue;
+            }
+            if (entry.getCaptureTimeMillis() > lead.getCaptureTimeMillis()) {
+                leads.set(i, entry);
+                backfill.add(lead);
+            } else {
+                backfill.add(entry);
+            }
+            return;
+        }
+        leads.add(entry);
+    }
+
+    /**
+     * Returns what to upload next, or null if nothing is ready: a single entry, or in bundling mode
+     * every frame of a closed event in capture order. Evicted entries are skipped.
+     */
+    public List<JournalEntry> poll(long nowMillis) {
+        List<JournalEntry> next = bundleEvents ? pollEvent(nowMillis) : pollEntry();
+        if (next == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        for (JournalEntry entry : next) {
+            waitTime.recordNanos(now - entry.queuedAtNanos);
+            entry.startedAtNanos = now;
+        }
+        if (inFlight == 0) {
+            busySinceNanos = now;
+        }
+        inFlight++;
+        return next;
+    }
+
+    private List<JournalEntry> pollEntry() {
+        JournalEntry next;
+        do {
+            next = pollLead();
+            if (next == null) {
+                next = backfill.poll();
+            }
+            if (next != null && next.isEvicted()) {
+                pendingBytes -= bytesOf(next);
+            }
+        } while (next != null && next.isEvicted());
+        return next != null ? Collections.singletonList(next) : null;
+    }
+
+    private JournalEntry pollLead() {
+        int newest = -1;
+        for (int i = 0; i < leads.size(); i++) {
+            if (newest < 0 || leads.get(i).event > leads.get(newest).event) {
+                newest = i;
+            }
+        }
+        return newest < 0 ? null : leads.remove(newest);
+    }
+
+    private List<JournalEntry> pollEvent(long nowMillis) {
+        for (Map.Entry<Long, List<JournalEntry>> event : events.descendingMap().entrySet()) {
+            if (!isClosed(event.getKey(), nowMillis)) {
+                continue;
+            }
+            events.remove(event.getKey());
+            List<JournalEntry> frames = event.getValue();
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                if (frames.get(i).isEvicted()) {
+                    pendingBytes -= bytesOf(frames.remove(i));
+                }
+            }
+            if (frames.isEmpty()) {
+                return pollEvent(nowMillis);
+            }
+            Collections.sort(frames, CAPTURE_ORDER);
+            return frames;
+        }
+        return null;
+    }
+
+    private boolean isClosed(long event, long nowMillis) {
+        return event != currentEvent || nowMillis - lastCaptureTimeMillis > eventGapMillis;
+    }
+
+    /**
+     * Milliseconds until the open event closes and can be polled, or -1 if nothing is waiting on
+     * that.
+     */
+    public long getNextEventCloseDelay(long nowMillis) {
+        if (!bundleEvents || !events.containsKey(currentEvent) || isClosed(currentEvent, nowMillis)) {
+            return -1;
+        }
+        return lastCaptureTimeMillis + eventGapMillis - nowMillis + 1;
+    }
+
+    public void onUploaded(List<JournalEntry> entries) {
+        long now = System.nanoTime();
+        long elapsed = now - entries.get(0).startedAtNanos;
+        long bytes = 0;
+        for (JournalEntry entry : entries) {
+            bytes += bytesOf(entry);
+        }
+        uploadTime.recordNanos(elapsed);
+        uploadedBytes += bytes;
+        pendingBytes -= bytes;
+        uploadNanos += elapsed;
+        lastBytesPerSecond = elapsed > 0 ? bytes * 1_000_000_000L / elapsed : 0;
+        inFlight--;
+        endBusy(now);
+    }
+
+    private void endBusy(long now) {
+        if (inFlight == 0) {
+            busyNanos += now - busySinceNanos;
+        }
+    }
+
+    private static long bytesOf(JournalEntry entry) {
+        return entry.getImageLength() + entry.getThumbnailLength();
+    }
+
+    public int size() {
+        int size = leads.size() + backfill.size();
+        for (List<JournalEntry> frames : events.values()) {
+            size += frames.size();
+        }
+        return size;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public LatencyHistogram getUploadTime() {
+        return uploadTime;
+    }
+
+    /**
+     * Bytes queued or uploading right now.
+     */
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * Total time with at least one upload in flight, the current stretch included.
+     */
+    public long getBusyNanos() {
+        long since = busySinceNanos;
+        return inFlight > 0 ? busyNanos + System.nanoTime() - since : busyNanos;
+    }
+
+    /**
+     * Average speed of a single upload. Falling per-upload speed as parallelism goes up means the
+     * uploads are just splitting the uplink between them.
+     */
+    public long getPerUploadBytesPerSecond() {
+        return uploadNanos > 0 ? uploadedBytes * 1_000_000_000L / uploadNanos : 0;
+    }
+
+    public long getLastUploadBytesPerSecond() {
+        return lastBytesPerSecond;
+    }
+
+    /**
+     * Bytes uploaded per second of time with at least one upload in flight, which is what the
+     * uplink actually delivers at the current parallelism.
+     */
+    public long getAggregateBytesPerSecond() {
+        return busyNanos > 0 ? uploadedBytes * 1_000_000_000L / busyNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "upload queue: leads=%d backfill=%d events=%d inFlight=%d wait p50=%.1fms "
+                        + "p99=%.1fms upload p50=%.1fms per-upload=%dKB/s aggregate=%dKB/s",
+                leads.size(), backfill.size(), events.size(), inFlight, waitTime.getPercentileMillis(50),
+                waitTime.getPercentileMillis(99), uploadTime.getPercentileMillis(50),
+                getPerUploadBytesPerSecond() / 1024, getAggregateBytesPerSecond() / 1024);
+    }
+}
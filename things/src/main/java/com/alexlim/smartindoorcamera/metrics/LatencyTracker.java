@@ -0,0 +1,73 @@
+package com.alexlim.smartindoorcamera.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collects per-stage latency histograms of motion events, measured from the GPIO edge. The motion
+ * sensor starts a {@link MotionTrace} per edge and later stages pick it up through
+ * {@link #getCurrentEvent()}.
+ */
+public class LatencyTracker {
+    private static LatencyTracker mLatencyTracker = new LatencyTracker();
+
+    private final LatencyHistogram[] histograms;
+    private volatile MotionTrace currentEvent;
+
+    LatencyTracker() {
+        MotionTrace.Stage[] stages = MotionTrace.Stage.values();
+        histograms = new LatencyHistogram[stages.length];
+        for (MotionTrace.Stage stage : stages) {
+            histograms[stage.ordinal()] = new LatencyHistogram(stage.name().toLowerCase());
+        }
+    }
+
+    public static LatencyTracker getInstance() {
+        return mLatencyTracker;
+    }
+
+    /**
+     * Starts tracing a new motion event, stamped with the current time as its GPIO edge.
+     */
+    public MotionTrace startEvent() {
+        MotionTrace trace = new MotionTrace(this, System.nanoTime());
+        currentEvent = trace;
+        return trace;
+    }
+
+    /**
+     * The most recently started event, or null if there hasn't been one.
+     */
+    public MotionTrace getCurrentEvent() {
+        return currentEvent;
+    }
+
+    void record(MotionTrace.Stage stage, long nanosSinceEdge) {
+        histograms[stage.ordinal()].recordNanos(nanosSinceEdge);
+    }
+
+    public LatencyHistogram getHistogram(MotionTrace.Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * One line per stage with its percentiles, time measured from the GPIO edge.
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getCount() > 0) {
+                builder.append(histogram).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    public void dump(File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(summary());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.alexlim.smartindoorcamera.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic timestamps of one motion event as it moves from the PIR edge to the database. Each
+ * stage is stamped once, by whichever frame of the event gets there first, and the time since
+ * the GPIO edge is recorded in that stage's histogram.
+ */
+public class MotionTrace {
+
+    public enum Stage {
+        GPIO_EDGE,
+        TAKE_PICTURE,
+        SESSION_CONFIGURED,
+        CAPTURE_COMPLETED,
+        IMAGE_AVAILABLE,
+        ENCODED,
+        UPLOAD_DONE,
+        DB_WRITE_ACKED
+    }
+
+    private final LatencyTracker tracker;
+    private final AtomicLongArray stamps = new AtomicLongArray(Stage.values().length);
+
+    MotionTrace(LatencyTracker tracker, long edgeNanos) {
+        this.tracker = tracker;
+        stamps.set(Stage.GPIO_EDGE.ordinal(), edgeNanos);
+    }
+
+    public void stamp(Stage stage) {
+        long now = System.nanoTime();
+        if (stamps.compareAndSet(stage.ordinal(), 0, now)) {
+            tracker.record(stage, now - stamps.get(Stage.GPIO_EDGE.ordinal()));
+        }
+    }
+
+    /**
+     * Timestamp of {@code stage} in {@link System#nanoTime()} units, 0 if it wasn't reached.
+     */
+    public long getStamp(Stage stage) {
+        return stamps.get(stage.ordinal());
+    }
+}
@@ -3,12 +3,40 @@ package com.alexlim.smartindoorcamera.model;
 public class FirebaseImageLog {
     private long timestamp;
     private String imageRef;
+    // Small JPEG of the same capture for list views; null for logs without one
+    private String thumbnailRef;
+    // Frames in the event bundle at imageRef; 0 when imageRef is a single JPEG
+    private int frameCount;
+    // Entry name of the frame this one duplicates, whose objects imageRef and thumbnailRef point at
+    private String duplicateOf;
+
+    public FirebaseImageLog() {
+        // For Firebase
+    }
 
     public FirebaseImageLog(long timestamp, String imageRef) {
         this.timestamp = timestamp;
         this.imageRef = imageRef;
     }
 
+    public FirebaseImageLog(long timestamp, String imageRef, String thumbnailRef) {
+        this.timestamp = timestamp;
+        this.imageRef = imageRef;
+        this.thumbnailRef = thumbnailRef;
+    }
+
+    public FirebaseImageLog(long timestamp, String imageRef, String thumbnailRef, int frameCount) {
+        this.timestamp = timestamp;
+        this.imageRef = imageRef;
+        this.thumbnailRef = thumbnailRef;
+        this.frameCount = frameCount;
+    }
+
+    public FirebaseImageLog(long timestamp, String imageRef, String thumbnailRef, int frameCount, String duplicateOf) {
+        this(timestamp, imageRef, thumbnailRef, frameCount);
+        this.duplicateOf = duplicateOf;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -16,4 +44,16 @@ public class FirebaseImageLog {
     public String getImageRef() {
         return imageRef;
     }
+
+    public String getThumbnailRef() {
+        return thumbnailRef;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
 }
@@ -0,0 +1,193 @@
+package com.alexlim.smartindoorcamera.pipeline;
+
+import android.util.Log;
+
+import com.alexlim.smartindoorcamera.metrics.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the frame pipeline: a bounded queue drained by its own worker threads. Stages are
+ * chained by having a worker submit into the next stage, so a slow stage only backs up its own
+ * queue and the {@link OverflowPolicy} decides what gives when it's full.
+ */
+public class PipelineStage<T> {
+    private static final String TAG = PipelineStage.class.getSimpleName();
+
+    public enum OverflowPolicy {
+        /** Reject the incoming item, keeping what's already queued. */
+        DROP_NEWEST,
+        /** Evict the oldest queued item to make room for the incoming one. */
+        DROP_OLDEST,
+        /** Make the submitting thread wait for room. */
+        BLOCK
+    }
+
+    public interface Worker<T> {
+        /**
+         * Takes ownership of {@code item}, unless it throws: the item then goes to the
+         * {@link DropListener} like any other discarded one. So it must not throw once it has
+         * passed the item on.
+         */
+        void process(T item) throws Exception;
+    }
+
+    /**
+     * Told about items the stage discarded, so their resources can be released.
+     */
+    public interface DropListener<T> {
+        void onDropped(T item);
+    }
+
+    private final String name;
+    private final ArrayBlockingQueue<T> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Worker<T> worker;
+    private final DropListener<T> dropListener;
+    private final Thread[] threads;
+    private volatile boolean running = true;
+
+    private final LatencyHistogram serviceTime;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PipelineStage(String name, int threadCount, int capacity, OverflowPolicy overflowPolicy,
+                         Worker<T> worker, DropListener<T> dropListener) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.worker = worker;
+        this.dropListener = dropListener;
+        this.serviceTime = new LatencyHistogram(name + " service");
+        this.threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(this::runWorker, name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Queues {@code item} according to the overflow policy. Returns false if it was dropped.
+     */
+    public boolean submit(T item) {
+        if (!running) {
+            drop(item);
+            return false;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(item);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(item);
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (!queue.offer(item)) {
+                    T oldest = queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                return true;
+            case DROP_NEWEST:
+            default:
+                if (queue.offer(item)) {
+                    return true;
+                }
+                drop(item);
+                return false;
+        }
+    }
+
+    private void drop(T item) {
+        dropped.incrementAndGet();
+        if (dropListener != null) {
+            dropListener.onDropped(item);
+        }
+    }
+
+    private void runWorker() {
+        while (running) {
+            T item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            long start = System.nanoTime();
+            try {
+                worker.process(item);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                // Dropped before logging, so the item is released whatever the logging does
+                drop(item);
+                logFailure(e);
+            }
+            serviceTime.recordNanos(System.nanoTime() - start);
+            processed.incrementAndGet();
+        }
+    }
+
+    private void logFailure(Exception e) {
+        try {
+            Log.e(TAG, name + ": worker failed", e);
+        } catch (RuntimeException logFailure) {
+            // Losing the message is better than losing the worker thread
+        }
+    }
+
+    /**
+     * Stops the workers; anything still queued is handed to the drop listener.
+     */
+    public void shutdown() {
+        running = false;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        T item;
+        while ((item = queue.poll()) != null) {
+            drop(item);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: depth=%d/%d done=%d dropped=%d failed=%d p50=%.1fms p99=%.1fms",
+                name, queue.size(), queue.size() + queue.remainingCapacity(), processed.get(),
+                dropped.get(), failed.get(), serviceTime.getPercentileMillis(50),
+                serviceTime.getPercentileMillis(99));
+    }
+}
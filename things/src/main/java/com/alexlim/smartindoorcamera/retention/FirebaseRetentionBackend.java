@@ -0,0 +1,162 @@
+package com.alexlim.smartindoorcamera.retention;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link RetentionBackend} over the Realtime Database logs and Cloud Storage objects. Blocks on the
+ * Firebase tasks, so it must not be used from the main thread. Listing logs by timestamp needs
+ * {@code ".indexOn": "timestamp"} on the logs node to run on the server.
+ */
+public class FirebaseRetentionBackend implements RetentionBackend {
+    private static final long TIMEOUT_SECONDS = 60;
+    // Frames are a few hundred KB; anything much bigger isn't a frame
+    private static final long MAX_IMAGE_BYTES = 8 * 1024 * 1024;
+    private static final int DOWNSCALE_SAMPLE_SIZE = 4;
+    private static final int DOWNSCALE_QUALITY = 70;
+
+    private final String logsPath;
+    private final String daysPath;
+    private final String previewsPath;
+
+    public FirebaseRetentionBackend(String logsPath, String daysPath, String previewsPath) {
+        this.logsPath = logsPath;
+        this.daysPath = daysPath;
+        this.previewsPath = previewsPath;
+    }
+
+    @Override
+    public Map<String, FirebaseImageLog> listLogs(long fromMillis, String fromName, long beforeMillis, int limit)
+            throws IOException {
+        Query query = FirebaseDatabase.getInstance().getReference(logsPath).orderByChild("timestamp");
+        if (fromName != null) {
+            query = query.startAt(fromMillis, fromName);
+        } else if (fromMillis != Long.MIN_VALUE) {
+            query = query.startAt(fromMillis);
+        }
+        query = query.endAt(beforeMillis - 1).limitToFirst(limit);
+
+        Map<String, FirebaseImageLog> logs = new LinkedHashMap<>();
+        for (DataSnapshot child : read(query).getChildren()) {
+            FirebaseImageLog log = child.getValue(FirebaseImageLog.class);
+            // Logs without an image are returned too: they take up a place in the page, and expire like any other
+            if (log != null) {
+                logs.put(child.getKey(), log);
+            }
+        }
+        return logs;
+    }
+
+    @Override
+    public FirebaseImageLog getLog(String name) throws IOException {
+        DatabaseReference log = FirebaseDatabase.getInstance().getReference(logsPath).child(name);
+        return read(log).getValue(FirebaseImageLog.class);
+    }
+
+    @Override
+    public void rewriteLogs(Map<String, FirebaseImageLog> logs) throws IOException {
+        Map<String, Object> updates = new HashMap<>();
+        for (Map.Entry<String, FirebaseImageLog> entry : logs.entrySet()) {
+            updates.put(logsPath + "/" + entry.getKey(), entry.getValue());
+        }
+        await(FirebaseDatabase.getInstance().getReference().updateChildren(updates));
+    }
+
+    @Override
+    public void deleteLogs(Map<String, FirebaseImageLog> logs) throws IOException {
+        Map<String, Object> updates = new HashMap<>();
+        for (Map.Entry<String, FirebaseImageLog> entry : logs.entrySet()) {
+            updates.put(logsPath + "/" + entry.getKey(), null);
+            updates.put(daysPath + "/" + StoragePaths.dayKey(entry.getValue().getTimestamp()) + "/" + entry.getKey(), null);
+            // Normally removed once pushed; this catches any a failed push left behind
+            updates.put(previewsPath + "/" + entry.getKey(), null);
+        }
+        await(FirebaseDatabase.getInstance().getReference().updateChildren(updates));
+    }
+
+    @Override
+    public void deleteObject(String path) throws IOException {
+        try {
+            await(FirebaseStorage.getInstance().getReference(path).delete());
+        } catch (IOException e) {
+            if (e.getCause() instanceof StorageException
+                    && ((StorageException) e.getCause()).getErrorCode() == StorageException.ERROR_OBJECT_NOT_FOUND) {
+                return;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void downscale(String imageRef, String targetRef) throws IOException {
+        byte[] image = await(FirebaseStorage.getInstance().getReference(imageRef).getBytes(MAX_IMAGE_BYTES));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = DOWNSCALE_SAMPLE_SIZE;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + imageRef);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, DOWNSCALE_QUALITY, out);
+        bitmap.recycle();
+
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType("image/jpeg")
+                .build();
+        await(FirebaseStorage.getInstance().getReference(targetRef).putBytes(out.toByteArray(), metadata));
+    }
+
+    private static DataSnapshot read(Query query) throws IOException {
+        TaskCompletionSource<DataSnapshot> result = new TaskCompletionSource<>();
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                result.setResult(dataSnapshot);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError databaseError) {
+                result.setException(databaseError.toException());
+            }
+        });
+        return await(result.getTask());
+    }
+
+    private static <T> T await(Task<T> task) throws IOException {
+        try {
+            return Tasks.await(task, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
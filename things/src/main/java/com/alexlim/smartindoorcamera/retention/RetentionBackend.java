@@ -0,0 +1,48 @@
+package com.alexlim.smartindoorcamera.retention;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The storage and database operations {@link RetentionEngine} needs. Calls block and are made from
+ * the engine's own thread. Every operation must be idempotent, since a run can stop halfway and the
+ * next one repeats it.
+ */
+public interface RetentionBackend {
+
+    /**
+     * Up to {@code limit} logs captured before {@code beforeMillis}, by name, ordered by capture time
+     * and then name, starting at the log captured at {@code fromMillis} named {@code fromName}. A null
+     * {@code fromName} starts at the first log captured at {@code fromMillis}. Logs without an
+     * image are included, so that they expire.
+     */
+    Map<String, FirebaseImageLog> listLogs(long fromMillis, String fromName, long beforeMillis, int limit)
+            throws IOException;
+
+    /**
+     * The log named {@code name}, or null if there is none.
+     */
+    FirebaseImageLog getLog(String name) throws IOException;
+
+    /**
+     * Replaces logs, keyed by name, in one write.
+     */
+    void rewriteLogs(Map<String, FirebaseImageLog> logs) throws IOException;
+
+    /**
+     * Deletes logs, keyed by name, with their per-day index entries and previews, in one write.
+     */
+    void deleteLogs(Map<String, FirebaseImageLog> logs) throws IOException;
+
+    /**
+     * Deletes an object; deleting one that doesn't exist succeeds.
+     */
+    void deleteObject(String path) throws IOException;
+
+    /**
+     * Stores a small re-encoded copy of the image at {@code imageRef} at {@code targetRef}.
+     */
+    void downscale(String imageRef, String targetRef) throws IOException;
+}
@@ -0,0 +1,310 @@
+package com.alexlim.smartindoorcamera.retention;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ages out uploaded evidence: frames keep full resolution for a while, are then replaced by their
+ * thumbnail, and are deleted altogether once past the retention period.
+ * <p>
+ * Work goes in batches of logs with a pause after each, which caps the rate of deletes and
+ * downscales whatever the backlog. Logs are rewritten before the objects they stop referring to are
+ * deleted, so a run that fails halfway leaves at worst an orphaned object, never a log pointing at
+ * nothing. Duplicate logs point at another frame's objects and never delete any; they are rewritten
+ * to whatever their original's compacted log points at, once it has been, and deleted with it. As
+ * a duplicate can be captured a little after its original, on the other side of a cutoff, an
+ * original's objects are only deleted once the run has passed all of its duplicates. Event bundles
+ * have no thumbnail and keep full resolution until they expire.
+ */
+public class RetentionEngine {
+    private static final class PendingDelete {
+        final long timestampMillis;
+        final String path;
+
+        PendingDelete(long timestampMillis, String path) {
+            this.timestampMillis = timestampMillis;
+            this.path = path;
+        }
+    }
+
+    private final RetentionBackend backend;
+    private final long fullResolutionMillis;
+    private final long retainMillis;
+    private final int batchSize;
+    private final long batchIntervalMillis;
+    // Compacted originals seen this run, so their duplicates rarely need a lookup
+    private final Map<String, FirebaseImageLog> compactedOriginals = new LinkedHashMap<String, FirebaseImageLog>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FirebaseImageLog> eldest) {
+            return size() > 4 * batchSize;
+        }
+    };
+    private final long maxDuplicateAgeMillis;
+    // Objects of deleted or compacted originals, oldest first, held until no duplicate points at them
+    private final Deque<PendingDelete> expiredObjects = new ArrayDeque<>();
+    private final Deque<PendingDelete> compactedObjects = new ArrayDeque<>();
+    private volatile boolean stopped;
+
+    private volatile long deletedFrames;
+    private volatile long compactedFrames;
+    private volatile long downscaledFrames;
+    private volatile long deletedObjects;
+    private volatile long runs;
+
+    /**
+     * @param fullResolutionMillis  age after which a frame is replaced by its thumbnail
+     * @param retainMillis          age after which a frame is deleted
+     * @param batchSize             logs handled per batch, and so deletes per batch per object kind
+     * @param batchIntervalMillis   pause after each batch
+     * @param maxDuplicateAgeMillis how long after its original a duplicate can be captured
+     */
+    public RetentionEngine(RetentionBackend backend, long fullResolutionMillis, long retainMillis, int batchSize,
+                           long batchIntervalMillis, long maxDuplicateAgeMillis) {
+        this.backend = backend;
+        this.fullResolutionMillis = fullResolutionMillis;
+        this.retainMillis = retainMillis;
+        this.batchSize = batchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.maxDuplicateAgeMillis = maxDuplicateAgeMillis;
+    }
+
+    /**
+     * Applies the policy to everything captured before {@code nowMillis} minus the full resolution
+     * period. Blocks until done, stopped or failed; a failed run is simply picked up by the next one.
+     */
+    public void runOnce(long nowMillis) throws IOException {
+        runs++;
+        long deleteBefore = nowMillis - retainMillis;
+        long compactBefore = nowMillis - fullResolutionMillis;
+        deleteExpired(deleteBefore);
+        compact(deleteBefore, compactBefore);
+    }
+
+    /**
+     * Makes a running {@link #runOnce(long)} return after its current batch.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void deleteExpired(long deleteBefore) throws IOException {
+        while (!stopped) {
+            // Deleted logs drop out of the query, so the first page is always the next batch
+            Map<String, FirebaseImageLog> page = backend.listLogs(Long.MIN_VALUE, null, deleteBefore, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            long lastMillis = Long.MIN_VALUE;
+            for (FirebaseImageLog log : page.values()) {
+                if (log.getDuplicateOf() == null) {
+                    addObjects(expiredObjects, log);
+                }
+                lastMillis = Math.max(lastMillis, log.getTimestamp());
+            }
+            backend.deleteLogs(page);
+            deletedFrames += page.size();
+            deleteObjectsBefore(expiredObjects, lastMillis - maxDuplicateAgeMillis);
+            pause(batchIntervalMillis);
+        }
+        // Duplicates just inside the cutoff would otherwise outlive their original's objects
+        deleteOrphanedDuplicates(deleteBefore, deleteBefore + maxDuplicateAgeMillis);
+        deleteAllObjects(expiredObjects);
+    }
+
+    private void deleteOrphanedDuplicates(long fromMillis, long beforeMillis) throws IOException {
+        String fromName = null;
+        while (!stopped) {
+            int limit = fromName != null ? batchSize + 1 : batchSize;
+            Map<String, FirebaseImageLog> page = backend.listLogs(fromMillis, fromName, beforeMillis, limit);
+            Map<String, FirebaseImageLog> orphans = new LinkedHashMap<>();
+            String cursor = fromName;
+            for (Map.Entry<String, FirebaseImageLog> entry : page.entrySet()) {
+                FirebaseImageLog log = entry.getValue();
+                if (entry.getKey().equals(cursor)) {
+                    continue;
+                }
+                fromMillis = log.getTimestamp();
+                fromName = entry.getKey();
+                if (log.getDuplicateOf() != null && backend.getLog(log.getDuplicateOf()) == null) {
+                    orphans.put(entry.getKey(), log);
+                }
+            }
+
+            if (!orphans.isEmpty()) {
+                backend.deleteLogs(orphans);
+                deletedFrames += orphans.size();
+            }
+            if (page.size() < limit) {
+                return;
+            }
+            if (!orphans.isEmpty()) {
+                pause(batchIntervalMillis);
+            }
+        }
+    }
+
+    private void compact(long fromMillis, long compactBefore) throws IOException {
+        String fromName = null;
+        compactedOriginals.clear();
+        // Goes on past the cutoff for the duplicates of originals just before it; originals there wait
+        long duplicatesBefore = compactBefore + maxDuplicateAgeMillis;
+        while (!stopped) {
+            // Pages after the first start at, and so repeat, the last log of the previous one
+            int limit = fromName != null ? batchSize + 1 : batchSize;
+            Map<String, FirebaseImageLog> page = backend.listLogs(fromMillis, fromName, duplicatesBefore, limit);
+            Map<String, FirebaseImageLog> changes = new LinkedHashMap<>();
+            String cursor = fromName;
+            for (Map.Entry<String, FirebaseImageLog> entry : page.entrySet()) {
+                FirebaseImageLog log = entry.getValue();
+                if (entry.getKey().equals(cursor)) {
+                    continue;
+                }
+                fromMillis = log.getTimestamp();
+                fromName = entry.getKey();
+                if (log.getFrameCount() > 0 || log.getImageRef() == null) {
+                    continue;
+                }
+                if (isCompacted(log)) {
+                    if (log.getDuplicateOf() == null) {
+                        compactedOriginals.put(entry.getKey(), log);
+                    }
+                    continue;
+                }
+                FirebaseImageLog compacted;
+                if (log.getDuplicateOf() == null) {
+                    if (log.getTimestamp() >= compactBefore) {
+                        continue;
+                    }
+                    String thumbnailRef = log.getThumbnailRef();
+                    if (thumbnailRef == null) {
+                        thumbnailRef = StoragePaths.downscaled(log.getImageRef());
+                        backend.downscale(log.getImageRef(), thumbnailRef);
+                        downscaledFrames++;
+                    }
+                    compactedObjects.add(new PendingDelete(log.getTimestamp(), log.getImageRef()));
+                    compacted = new FirebaseImageLog(log.getTimestamp(), thumbnailRef, thumbnailRef);
+                    compactedOriginals.put(entry.getKey(), compacted);
+                } else {
+                    // Never the duplicate's own thumbnailRef, which may name an object that was never stored
+                    FirebaseImageLog original = findCompactedOriginal(log.getDuplicateOf());
+                    if (original == null) {
+                        // Its original still has the full image; the next run picks this up
+                        continue;
+                    }
+                    compacted = new FirebaseImageLog(log.getTimestamp(), original.getImageRef(),
+                            original.getThumbnailRef(), 0, log.getDuplicateOf());
+                }
+                changes.put(entry.getKey(), compacted);
+            }
+
+            if (!changes.isEmpty()) {
+                backend.rewriteLogs(changes);
+                compactedFrames += changes.size();
+            }
+            int deleted = deleteObjectsBefore(compactedObjects, fromMillis - maxDuplicateAgeMillis);
+            if (page.size() < limit) {
+                break;
+            }
+            if (!changes.isEmpty() || deleted > 0) {
+                pause(batchIntervalMillis);
+            }
+        }
+        deleteAllObjects(compactedObjects);
+    }
+
+    /**
+     * @return the compacted log of the original, or null if it hasn't been compacted or is gone
+     */
+    private FirebaseImageLog findCompactedOriginal(String name) throws IOException {
+        FirebaseImageLog original = compactedOriginals.get(name);
+        if (original == null) {
+            original = backend.getLog(name);
+            if (original == null || !isCompacted(original)) {
+                return null;
+            }
+            compactedOriginals.put(name, original);
+        }
+        return original;
+    }
+
+    private static boolean isCompacted(FirebaseImageLog log) {
+        return log.getThumbnailRef() != null && log.getThumbnailRef().equals(log.getImageRef());
+    }
+
+    private static void addObjects(Deque<PendingDelete> objects, FirebaseImageLog log) {
+        if (log.getImageRef() != null) {
+            objects.add(new PendingDelete(log.getTimestamp(), log.getImageRef()));
+        }
+        if (log.getThumbnailRef() != null && !log.getThumbnailRef().equals(log.getImageRef())) {
+            objects.add(new PendingDelete(log.getTimestamp(), log.getThumbnailRef()));
+        }
+    }
+
+    /**
+     * Deletes up to a batch's worth of the objects of originals captured before {@code beforeMillis}.
+     *
+     * @return the number deleted
+     */
+    private int deleteObjectsBefore(Deque<PendingDelete> objects, long beforeMillis) throws IOException {
+        int deleted = 0;
+        while (deleted < 2 * batchSize && !objects.isEmpty() && objects.peekFirst().timestampMillis < beforeMillis) {
+            backend.deleteObject(objects.peekFirst().path);
+            // Only once deleted, so a failed delete is retried by the next run
+            objects.removeFirst();
+            deletedObjects++;
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the rest of the objects, a batch at a time, once every duplicate that could point at
+     * them has been dealt with. If the run stops first they stay queued for the next one.
+     */
+    private void deleteAllObjects(Deque<PendingDelete> objects) throws IOException {
+        while (!stopped && !objects.isEmpty()) {
+            deleteObjectsBefore(objects, Long.MAX_VALUE);
+            pause(batchIntervalMillis);
+        }
+    }
+
+    /**
+     * Waits between batches; overridden by tests.
+     */
+    void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+
+    public long getDeletedFrames() {
+        return deletedFrames;
+    }
+
+    public long getCompactedFrames() {
+        return compactedFrames;
+    }
+
+    public long getDownscaledFrames() {
+        return downscaledFrames;
+    }
+
+    public long getDeletedObjects() {
+        return deletedObjects;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "retention: runs=%d deleted=%d compacted=%d downscaled=%d objectsDeleted=%d",
+                runs, deletedFrames, compactedFrames, downscaledFrames, deletedObjects);
+    }
+}
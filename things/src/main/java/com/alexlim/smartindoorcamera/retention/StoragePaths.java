@@ -0,0 +1,57 @@
+package com.alexlim.smartindoorcamera.retention;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Object paths, relative to the motion storage root, sharded by capture date as
+ * {@code <kind>/yyyy/MM/dd/<name>}, so a day's objects can be listed, browsed and expired together.
+ * Dates are in the device's time zone, like the {@code motion-days} index.
+ */
+public final class StoragePaths {
+    private static final String IMAGES = "images/";
+    private static final String THUMBNAILS = "thumbs/";
+    private static final String BUNDLES = "events/";
+    // Appended to an image path for the downscaled copy made when a frame had no thumbnail
+    private static final String DOWNSCALED_SUFFIX = "_small.jpg";
+
+    private StoragePaths() {
+    }
+
+    public static String image(String name, long captureTimeMillis) {
+        return IMAGES + shard(captureTimeMillis) + name + ".jpg";
+    }
+
+    public static String thumbnail(String name, long captureTimeMillis) {
+        return THUMBNAILS + shard(captureTimeMillis) + name + ".jpg";
+    }
+
+    public static String bundle(String name, long captureTimeMillis) {
+        return BUNDLES + shard(captureTimeMillis) + name + ".bundle";
+    }
+
+    public static String downscaled(String imageRef) {
+        String base = imageRef.endsWith(".jpg") ? imageRef.substring(0, imageRef.length() - ".jpg".length()) : imageRef;
+        return base + DOWNSCALED_SUFFIX;
+    }
+
+    /**
+     * Key of the {@code motion-days} index entry for a capture.
+     */
+    public static String dayKey(long captureTimeMillis) {
+        return new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(new Date(captureTimeMillis));
+    }
+
+    /**
+     * Capture time encoded in a journal entry name, {@code <capture millis>_<sensor nanos>}.
+     */
+    public static long captureTimeOf(String entryName) {
+        int separator = entryName.indexOf('_');
+        return Long.parseLong(separator >= 0 ? entryName.substring(0, separator) : entryName);
+    }
+
+    private static String shard(long captureTimeMillis) {
+        return new SimpleDateFormat("yyyy/MM/dd/", Locale.US).format(new Date(captureTimeMillis));
+    }
+}
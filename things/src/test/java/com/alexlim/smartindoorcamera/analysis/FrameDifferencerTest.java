@@ -0,0 +1,80 @@
+package com.alexlim.smartindoorcamera.analysis;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameDifferencerTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void firstFrameOnlySeedsBackground() {
+        FrameDifferencer differencer = new FrameDifferencer(WIDTH, HEIGHT, 25, 4);
+        assertEquals(0, differencer.process(noise(1), 0, WIDTH));
+    }
+
+    @Test
+    public void unchangedSceneHasNoChangedPixels() {
+        FrameDifferencer differencer = new FrameDifferencer(WIDTH, HEIGHT, 25, 4);
+        byte[] frame = noise(1);
+        differencer.process(frame, 0, WIDTH);
+        assertEquals(0, differencer.process(frame, 0, WIDTH));
+    }
+
+    @Test
+    public void countsPixelsOfMovingBlock() {
+        FrameDifferencer differencer = new FrameDifferencer(WIDTH, HEIGHT, 25, 4);
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        Arrays.fill(frame, (byte) 40);
+        differencer.process(frame, 0, WIDTH);
+
+        byte[] moved = frame.clone();
+        for (int y = 100; y < 150; y++) {
+            Arrays.fill(moved, y * WIDTH + 100, y * WIDTH + 180, (byte) 200);
+        }
+        assertEquals(50 * 80, differencer.process(moved, 0, WIDTH));
+    }
+
+    @Test
+    public void slowLightingChangeIsAbsorbed() {
+        FrameDifferencer differencer = new FrameDifferencer(WIDTH, HEIGHT, 25, 3);
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        for (int level = 60; level <= 160; level += 2) {
+            Arrays.fill(frame, (byte) level);
+            assertEquals(0, differencer.process(frame, 0, WIDTH));
+        }
+    }
+
+    @Test
+    public void strideAwareBufferMatchesArray() {
+        int rowStride = WIDTH + 64;
+        byte[] padded = new byte[rowStride * HEIGHT];
+        byte[] packed = noise(2);
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(packed, y * WIDTH, padded, y * rowStride, WIDTH);
+        }
+        byte[] next = noise(3);
+        byte[] nextPadded = new byte[rowStride * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(next, y * WIDTH, nextPadded, y * rowStride, WIDTH);
+        }
+
+        FrameDifferencer fromArray = new FrameDifferencer(WIDTH, HEIGHT, 25, 4);
+        FrameDifferencer fromBuffer = new FrameDifferencer(WIDTH, HEIGHT, 25, 4);
+        fromArray.process(packed, 0, WIDTH);
+        fromBuffer.process(ByteBuffer.wrap(padded), rowStride, 1);
+        assertEquals(fromArray.process(next, 0, WIDTH),
+                fromBuffer.process(ByteBuffer.wrap(nextPadded), rowStride, 1));
+    }
+
+    private static byte[] noise(long seed) {
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+}
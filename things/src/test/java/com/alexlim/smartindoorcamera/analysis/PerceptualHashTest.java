@@ -0,0 +1,82 @@
+package com.alexlim.smartindoorcamera.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PerceptualHashTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void sensorNoiseBarelyChangesHash() {
+        byte[] scene = scene();
+        byte[] noisy = scene.clone();
+        Random random = new Random(7);
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = (byte) Math.max(0, Math.min(255, (noisy[i] & 0xff) + random.nextInt(9) - 4));
+        }
+
+        long a = PerceptualHash.dHash(scene, 0, WIDTH, HEIGHT, WIDTH);
+        long b = PerceptualHash.dHash(noisy, 0, WIDTH, HEIGHT, WIDTH);
+        assertTrue(PerceptualHash.distance(a, b) <= 3);
+    }
+
+    @Test
+    public void movedObjectChangesHash() {
+        byte[] scene = scene();
+        byte[] moved = scene.clone();
+        for (int y = 40; y < 200; y++) {
+            for (int x = 60; x < 140; x++) {
+                moved[y * WIDTH + x] = (byte) 250;
+            }
+        }
+
+        long a = PerceptualHash.dHash(scene, 0, WIDTH, HEIGHT, WIDTH);
+        long b = PerceptualHash.dHash(moved, 0, WIDTH, HEIGHT, WIDTH);
+        assertTrue(PerceptualHash.distance(a, b) > 5);
+    }
+
+    @Test
+    public void honoursRowStride() {
+        byte[] scene = scene();
+        int stride = WIDTH + 64;
+        byte[] padded = new byte[stride * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(scene, y * WIDTH, padded, y * stride, WIDTH);
+        }
+        assertEquals(PerceptualHash.dHash(scene, 0, WIDTH, HEIGHT, WIDTH),
+                PerceptualHash.dHash(padded, 0, WIDTH, HEIGHT, stride));
+    }
+
+    @Test
+    public void deduplicatorMatchesRecentFramesOnly() {
+        FrameDeduplicator deduplicator = new FrameDeduplicator(FrameDeduplicator.Policy.SKIP, 2, 5, 1000);
+        assertNull(deduplicator.check("a", 0x0fL, 0, 100));
+        assertEquals("a", deduplicator.check("b", 0x1fL, 10, 100));
+        assertNull(deduplicator.check("c", 0xff00L, 20, 100));
+        // Expired
+        assertNull(deduplicator.check("d", 0x0fL, 2000, 100));
+
+        assertEquals(4, deduplicator.getFrames());
+        assertEquals(1, deduplicator.getDuplicates());
+        assertEquals(100, deduplicator.getBytesSaved());
+        assertEquals(0.25, deduplicator.getDedupRatio(), 1e-9);
+    }
+
+    // Horizontal and vertical gradients, so neighbouring blocks differ clearly
+    private static byte[] scene() {
+        byte[] scene = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = (int) (128 + 60 * Math.sin(x / 23.0) + 40 * Math.cos(y / 17.0));
+                scene[y * WIDTH + x] = (byte) value;
+            }
+        }
+        return scene;
+    }
+}
@@ -0,0 +1,130 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the controller against a simulated uplink: the camera produces frames at a fixed rate,
+ * the uplink drains the backlog at a set bandwidth, and the controller sees only the counters the
+ * upload scheduler would report.
+ */
+public class AdaptiveQualityControllerTest {
+    private static final int[][] JPEG_SIZES = {
+            {320, 240}, {640, 480}, {800, 600}, {1024, 768}, {1280, 960}, {1600, 1200}, {1920, 1080}
+    };
+    private static final int[] QUALITIES = {50, 65, 80, 90};
+    private static final long TARGET_MS = 2000;
+    // Real frames come out bigger than the nominal model; the controller has to learn that
+    private static final double TRUE_SIZE_FACTOR = 1.4;
+
+    @Test
+    public void convergesOnFastUplink() {
+        SimulatedUplink uplink = new SimulatedUplink(newController(), 400 * 1024);
+        uplink.run(60);
+        AdaptiveQualityController.Setting settled = uplink.controller.getCurrent();
+        long changes = uplink.controller.getChanges();
+        uplink.run(60);
+
+        assertEquals("oscillated after settling", changes, uplink.controller.getChanges());
+        // Uses a fair share of the link rather than sitting at the floor
+        double sustained = AdaptiveQualityController.nominalBytes(settled) * TRUE_SIZE_FACTOR * 2;
+        assertTrue("sustained " + sustained, sustained >= 0.4 * uplink.bandwidth);
+        assertTrue("sustained " + sustained, sustained <= 0.8 * uplink.bandwidth);
+        assertTrue(uplink.worstTimeToCloudMillis <= TARGET_MS * 1.2);
+    }
+
+    @Test
+    public void stepsDownWhenUplinkDegrades() {
+        SimulatedUplink uplink = new SimulatedUplink(newController(), 400 * 1024);
+        uplink.run(60);
+        double fastBytes = AdaptiveQualityController.nominalBytes(uplink.controller.getCurrent());
+
+        uplink.bandwidth = 20 * 1024;
+        uplink.run(10);
+        AdaptiveQualityController.Setting slow = uplink.controller.getCurrent();
+        assertTrue(AdaptiveQualityController.nominalBytes(slow) < fastBytes / 4);
+
+        // The backlog built up before the drop takes a while to clear; after that, new frames
+        // make the target again
+        uplink.run(150);
+        uplink.worstTimeToCloudMillis = 0;
+        uplink.run(30);
+        assertTrue("time to cloud " + uplink.worstTimeToCloudMillis, uplink.worstTimeToCloudMillis <= TARGET_MS * 1.2);
+    }
+
+    @Test
+    public void dropsToSmallestWhenUplinkStalls() {
+        SimulatedUplink uplink = new SimulatedUplink(newController(), 400 * 1024);
+        uplink.run(30);
+        uplink.bandwidth = 0;
+        uplink.run(10);
+        AdaptiveQualityController.Setting stalled = uplink.controller.getCurrent();
+        assertEquals(320, stalled.getWidth());
+        assertEquals(50, stalled.getQuality());
+    }
+
+    @Test
+    public void ignoresFramesEncodedWithAnotherSetting() {
+        AdaptiveQualityController controller = newController();
+        AdaptiveQualityController.Setting current = controller.getCurrent();
+        double predicted = controller.predictedBytes(current);
+        // Still encoded at the size, or at the quality, before the last change
+        for (int i = 0; i < 10; i++) {
+            controller.onFrameEncoded(new AdaptiveQualityController.Setting(1600, 1200, current.getQuality()), 1_000_000);
+            controller.onFrameEncoded(new AdaptiveQualityController.Setting(current.getWidth(), current.getHeight(),
+                    current.getQuality() + 10), 1_000_000);
+        }
+        assertEquals(predicted, controller.predictedBytes(current), 0);
+
+        controller.onFrameEncoded(new AdaptiveQualityController.Setting(current.getWidth(), current.getHeight(),
+                current.getQuality()), (int) (2 * predicted));
+        assertTrue(controller.predictedBytes(current) > predicted);
+    }
+
+    private static AdaptiveQualityController newController() {
+        return new AdaptiveQualityController(JPEG_SIZES, QUALITIES, 1600, 1200, TARGET_MS,
+                new AdaptiveQualityController.Setting(640, 480, 80));
+    }
+
+    private static class SimulatedUplink {
+        private static final int FRAMES_PER_SECOND = 2;
+
+        final AdaptiveQualityController controller;
+        long bandwidth;
+        long backlog;
+        long uploaded;
+        long busyNanos;
+        long nowMillis;
+        double worstTimeToCloudMillis;
+
+        SimulatedUplink(AdaptiveQualityController controller, long bandwidth) {
+            this.controller = controller;
+            this.bandwidth = bandwidth;
+        }
+
+        void run(int seconds) {
+            for (int s = 0; s < seconds; s++) {
+                AdaptiveQualityController.Setting setting = controller.getCurrent();
+                int frameBytes = (int) (AdaptiveQualityController.nominalBytes(setting) * TRUE_SIZE_FACTOR);
+                for (int f = 0; f < FRAMES_PER_SECOND; f++) {
+                    controller.onFrameEncoded(setting, frameBytes);
+                    backlog += frameBytes;
+                    if (bandwidth > 0) {
+                        worstTimeToCloudMillis = Math.max(worstTimeToCloudMillis, backlog * 1000d / bandwidth);
+                    }
+                }
+
+                long sent = Math.min(backlog, bandwidth);
+                if (sent > 0) {
+                    busyNanos += sent * 1_000_000_000L / bandwidth;
+                }
+                backlog -= sent;
+                uploaded += sent;
+                nowMillis += 1000;
+                controller.update(uploaded, busyNanos, backlog, nowMillis);
+            }
+        }
+    }
+}
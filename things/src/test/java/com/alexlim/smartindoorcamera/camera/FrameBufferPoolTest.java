@@ -0,0 +1,25 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class FrameBufferPoolTest {
+
+    @Test
+    public void releasingTwiceReturnsTheBufferOnce() {
+        FrameBufferPool pool = new FrameBufferPool(2, 2, 100);
+        EncodedFrame frame = pool.acquire(50);
+        frame.release();
+        frame.release();
+        assertEquals(2, pool.getAvailable());
+
+        // Handed out anew, it can be released again
+        EncodedFrame first = pool.acquire(50);
+        EncodedFrame second = pool.acquire(50);
+        assertNotSame(first, second);
+        first.release();
+        assertEquals(1, pool.getAvailable());
+    }
+}
@@ -0,0 +1,93 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MicroPreviewTest {
+    // FCM's limit on the data payload, keys and values together
+    private static final int FCM_DATA_PAYLOAD_BYTES = 4096;
+
+    @Test
+    public void staysWithinBudgetForAnyFrameShape() {
+        int[][] shapes = {{640, 480}, {1920, 1080}, {320, 240}, {480, 640}, {100, 4000}, {4000, 100}, {1, 1}, {31, 17}};
+        for (int[] shape : shapes) {
+            String preview = MicroPreview.encode(noise(shape[0], shape[1]), shape[0], shape[1]);
+            assertTrue(shape[0] + "x" + shape[1] + " took " + preview.length(), preview.length() <= MicroPreview.MAX_ENCODED_LENGTH);
+        }
+    }
+
+    @Test
+    public void fitsInPushPayloadWithTheRestOfTheMessage() {
+        // The tallest preview, with the message the cloud function sends and long refs
+        String preview = MicroPreview.encode(noise(100, 4000), 100, 4000);
+        String message = "{\"title\":\"Motion Alert!\",\"body\":\"A motion has been detected\","
+                + "\"imageRef\":\"/motion/images/2019/06/08/1559999999999_1234567890_small.jpg\","
+                + "\"thumbnailRef\":\"/motion/thumbs/2019/06/08/1559999999999_1234567890.jpg\","
+                + "\"timestamp\":\"1559999999999\",\"preview\":\"" + preview + "\"}";
+        assertTrue(message.getBytes(StandardCharsets.UTF_8).length < FCM_DATA_PAYLOAD_BYTES);
+    }
+
+    @Test
+    public void keepsAspectRatio() {
+        assertEquals(24, height(MicroPreview.encode(solid(640, 480, 0), 640, 480)));
+        assertEquals(18, height(MicroPreview.encode(solid(1920, 1080, 0), 1920, 1080)));
+        assertEquals(MicroPreview.MAX_HEIGHT, height(MicroPreview.encode(solid(480, 640, 0), 480, 640)));
+        assertEquals(2, height(MicroPreview.encode(solid(4000, 100, 0), 4000, 100)));
+    }
+
+    @Test
+    public void preservesColour() {
+        int orange = 0xffff8000;
+        byte[] data = Base64.getDecoder().decode(MicroPreview.encode(solid(640, 480, orange), 640, 480));
+        int width = data[1];
+        int height = data[2];
+        int y = data[3] & 0xff;
+        int cb = data[3 + width * height] & 0xff;
+        int cr = data[3 + width * height + width * height / 4] & 0xff;
+
+        // Back to RGB, as the phone does
+        int r = Math.round(y + 1.402f * (cr - 128));
+        int g = Math.round(y - 0.344136f * (cb - 128) - 0.714136f * (cr - 128));
+        int b = Math.round(y + 1.772f * (cb - 128));
+        assertEquals(0xff, r, 2);
+        assertEquals(0x80, g, 2);
+        assertEquals(0x00, b, 2);
+    }
+
+    @Test
+    public void averagesDownscaledPixels() {
+        // Alternating black and white columns average out to mid grey
+        int[] stripes = new int[640 * 480];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = (i % 2 == 0) ? 0xff000000 : 0xffffffff;
+        }
+        byte[] data = Base64.getDecoder().decode(MicroPreview.encode(stripes, 640, 480));
+        assertEquals(128, data[3] & 0xff, 1);
+    }
+
+    private static int height(String preview) {
+        return Base64.getDecoder().decode(preview)[2];
+    }
+
+    private static int[] solid(int width, int height, int argb) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, argb);
+        return pixels;
+    }
+
+    private static int[] noise(int width, int height) {
+        int[] pixels = new int[width * height];
+        int seed = 12345;
+        for (int i = 0; i < pixels.length; i++) {
+            seed = seed * 1103515245 + 12345;
+            pixels[i] = 0xff000000 | (seed >>> 8);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,79 @@
+package com.alexlim.smartindoorcamera.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreRollBufferTest {
+
+    @Test
+    public void drainsNewestFramesOldestFirst() {
+        PreRollBuffer buffer = new PreRollBuffer(4 * 100, 4, 10_000);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(buffer.write(frame(i, 10 + i), i, 1000 + i));
+        }
+
+        FrameBufferPool pool = new FrameBufferPool(8, 8, 100);
+        EncodedFrame[] out = new EncodedFrame[4];
+        assertEquals(4, buffer.drainTo(pool, out, 1010));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 2, out[i].getTimestampNanos());
+            assertEquals(12 + i, out[i].getLength());
+            assertEquals((byte) (i + 2), out[i].getData()[0]);
+            assertTrue(out[i].isPreRoll());
+        }
+    }
+
+    @Test
+    public void drainEmptiesBuffer() {
+        PreRollBuffer buffer = new PreRollBuffer(400, 4, 10_000);
+        buffer.write(frame(1, 10), 1, 1000);
+
+        FrameBufferPool pool = new FrameBufferPool(8, 8, 100);
+        EncodedFrame[] out = new EncodedFrame[4];
+        assertEquals(1, buffer.drainTo(pool, out, 1000));
+        assertEquals(0, buffer.drainTo(pool, out, 1000));
+    }
+
+    @Test
+    public void skipsFramesOlderThanMaxAge() {
+        PreRollBuffer buffer = new PreRollBuffer(400, 4, 500);
+        buffer.write(frame(1, 10), 1, 1000);
+        buffer.write(frame(2, 10), 2, 1600);
+
+        FrameBufferPool pool = new FrameBufferPool(8, 8, 100);
+        EncodedFrame[] out = new EncodedFrame[4];
+        assertEquals(1, buffer.drainTo(pool, out, 1700));
+        assertEquals(2, out[0].getTimestampNanos());
+    }
+
+    @Test
+    public void rejectsFramesLargerThanSlot() {
+        PreRollBuffer buffer = new PreRollBuffer(400, 4, 10_000);
+        assertFalse(buffer.write(frame(1, 101), 1, 1000));
+        assertEquals(400, buffer.getSizeInBytes());
+    }
+
+    @Test
+    public void exhaustedPoolDropsFrames() {
+        PreRollBuffer buffer = new PreRollBuffer(400, 4, 10_000);
+        for (int i = 0; i < 4; i++) {
+            buffer.write(frame(i, 10), i, 1000);
+        }
+
+        FrameBufferPool pool = new FrameBufferPool(2, 2, 100);
+        EncodedFrame[] out = new EncodedFrame[4];
+        assertEquals(2, buffer.drainTo(pool, out, 1000));
+        assertEquals(2, pool.getDrops());
+    }
+
+    private static ByteBuffer frame(int value, int length) {
+        byte[] data = new byte[length];
+        data[0] = (byte) value;
+        return ByteBuffer.wrap(data);
+    }
+}
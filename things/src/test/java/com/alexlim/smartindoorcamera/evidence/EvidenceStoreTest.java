@@ -0,0 +1,172 @@
+package com.alexlim.smartindoorcamera.evidence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EvidenceStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void scansTimeRangeAcrossSegments() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 1 << 20, 1024, 60_000);
+        store.open();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(store.append(i * 1000L, bytes(100, i), 100));
+        }
+        assertTrue(store.getSegmentCount() > 1);
+
+        List<Long> times = new ArrayList<>();
+        List<byte[]> frames = new ArrayList<>();
+        int visited = store.scan(20_000, 30_000, collect(times, frames));
+
+        assertEquals(11, visited);
+        for (int i = 0; i < 11; i++) {
+            assertEquals(20_000L + i * 1000, (long) times.get(i));
+            assertArrayEquals(bytes(100, 20 + i), frames.get(i));
+        }
+    }
+
+    @Test
+    public void indexesOutOfOrderFramesByCaptureTime() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 1 << 20, 1 << 16, 60_000);
+        store.open();
+        store.append(5000, bytes(10, 5), 10);
+        // Pre-roll frames are delivered after the trigger but captured before it
+        store.append(3000, bytes(10, 3), 10);
+        store.append(4000, bytes(10, 4), 10);
+        store.append(6000, bytes(10, 6), 10);
+
+        List<Long> times = new ArrayList<>();
+        store.scan(0, Long.MAX_VALUE, collect(times, new ArrayList<>()));
+        assertEquals(4, times.size());
+        assertEquals(3000L, (long) times.get(0));
+        assertEquals(4000L, (long) times.get(1));
+        assertEquals(5000L, (long) times.get(2));
+        assertEquals(6000L, (long) times.get(3));
+    }
+
+    @Test
+    public void rollsSegmentsByAge() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 1 << 20, 1 << 16, 10_000);
+        store.open();
+        store.append(0, bytes(10, 0), 10);
+        store.append(10_000, bytes(10, 1), 10);
+        assertEquals(1, store.getSegmentCount());
+        store.append(10_001, bytes(10, 2), 10);
+        assertEquals(2, store.getSegmentCount());
+    }
+
+    @Test
+    public void evictsOldestSegmentsOverCap() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 4 * 1024, 1024, 60_000);
+        store.open();
+        for (int i = 0; i < 100; i++) {
+            store.append(i * 1000L, bytes(200, i), 200);
+        }
+
+        assertEquals(4, store.getSegmentCount());
+        assertTrue(store.getEvicted() > 0);
+        assertEquals(100, store.getFrameCount() + store.getEvicted());
+        assertEquals(0, store.scan(0, 50_000, collect(new ArrayList<>(), new ArrayList<>())));
+        assertTrue(store.scan(90_000, 99_000, collect(new ArrayList<>(), new ArrayList<>())) > 0);
+    }
+
+    @Test
+    public void rejectsFramesLargerThanASegment() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 1 << 20, 1024, 60_000);
+        store.open();
+        assertFalse(store.append(0, bytes(2000, 1), 2000));
+        assertEquals(1, store.getRejected());
+        assertEquals(0, store.getFrameCount());
+    }
+
+    @Test
+    public void recoversAfterRestartWithoutIndex() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 1 << 20, 1024, 60_000);
+        store.open();
+        for (int i = 0; i < 20; i++) {
+            store.append(i * 1000L, bytes(100, i), 100);
+        }
+        // Dies without sealing: the active segment has no index file
+
+        EvidenceStore reopened = new EvidenceStore(folder.getRoot(), 1 << 20, 1024, 60_000);
+        reopened.open();
+        assertEquals(20, reopened.getFrameCount());
+        List<byte[]> frames = new ArrayList<>();
+        assertEquals(20, reopened.scan(0, 19_000, collect(new ArrayList<>(), frames)));
+        assertArrayEquals(bytes(100, 19), frames.get(19));
+        assertEquals(0, reopened.getCorrupt());
+    }
+
+    @Test
+    public void restartsAppendToTheNewestSegment() throws IOException {
+        for (int restart = 0; restart < 10; restart++) {
+            EvidenceStore store = new EvidenceStore(folder.getRoot(), 4096, 1024, 60_000);
+            store.open();
+            store.append(restart * 1000L, bytes(100, restart), 100);
+            store.close();
+        }
+
+        EvidenceStore reopened = new EvidenceStore(folder.getRoot(), 4096, 1024, 60_000);
+        reopened.open();
+        assertEquals(10, reopened.getFrameCount());
+        assertEquals(2, reopened.getSegmentCount());
+        assertEquals(0, reopened.getEvicted());
+        List<byte[]> frames = new ArrayList<>();
+        assertEquals(10, reopened.scan(0, 9000, collect(new ArrayList<>(), frames)));
+        assertArrayEquals(bytes(100, 9), frames.get(9));
+    }
+
+    @Test
+    public void stopsAtTornRecord() throws IOException {
+        EvidenceStore store = new EvidenceStore(folder.getRoot(), 1 << 20, 1 << 16, 60_000);
+        store.open();
+        store.append(1000, bytes(100, 1), 100);
+        store.append(2000, bytes(100, 2), 100);
+
+        // Damage the second frame's payload
+        File segment = new File(folder.getRoot(), "0000000000.evd");
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(20 + 100 + 20 + 10);
+            raf.write(0xff);
+        }
+
+        EvidenceStore reopened = new EvidenceStore(folder.getRoot(), 1 << 20, 1 << 16, 60_000);
+        reopened.open();
+        assertEquals(1, reopened.getFrameCount());
+        assertEquals(1, reopened.getCorrupt());
+    }
+
+    private static EvidenceStore.FrameVisitor collect(List<Long> times, List<byte[]> frames) {
+        return (captureTimeMillis, jpeg) -> {
+            byte[] data = new byte[jpeg.remaining()];
+            jpeg.get(data);
+            times.add(captureTimeMillis);
+            frames.add(data);
+            return true;
+        };
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+}
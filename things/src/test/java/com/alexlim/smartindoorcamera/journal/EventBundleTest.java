@@ -0,0 +1,65 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EventBundleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexLocatesEveryFrame() throws IOException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        journal.open();
+        JournalEntry first = journal.append("a", 100, bytes(300, 1), 300, bytes(30, 2), 30);
+        JournalEntry second = journal.append("b", 200, bytes(250, 3), 250, null, 0);
+
+        byte[] bundle = readAll(EventBundle.openStream(Arrays.asList(first, second)));
+        ByteBuffer index = ByteBuffer.wrap(bundle);
+        assertEquals(EventBundle.MAGIC, index.getInt());
+        assertEquals(EventBundle.VERSION, index.getShort());
+        assertEquals(2, index.getShort());
+        assertEquals(EventBundle.getIndexLength(2) + 300 + 30 + 250, bundle.length);
+
+        assertEquals(100, index.getLong());
+        assertArrayEquals(bytes(300, 1), slice(bundle, index.getInt(), index.getInt()));
+        assertArrayEquals(bytes(30, 2), slice(bundle, index.getInt(), index.getInt()));
+
+        assertEquals(200, index.getLong());
+        assertArrayEquals(bytes(250, 3), slice(bundle, index.getInt(), index.getInt()));
+        index.getInt();
+        assertEquals(0, index.getInt());
+    }
+
+    private static byte[] slice(byte[] data, int offset, int length) {
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            out.write(chunk, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
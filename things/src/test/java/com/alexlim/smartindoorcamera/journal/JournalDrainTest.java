@@ -0,0 +1,118 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JournalDrainTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void retriesFailedCommitWithoutUploadingAgain() throws IOException, InterruptedException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        journal.open();
+        for (int i = 0; i < 3; i++) {
+            journal.append("e" + i, i, new byte[100], 100, null, 0);
+        }
+        journal.close();
+
+        AtomicInteger uploads = new AtomicInteger();
+        AtomicInteger commitAttempts = new AtomicInteger();
+        List<String> committed = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        UploadJournal reopened = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        JournalDrain drain = new JournalDrain(reopened, (entries, callback) -> {
+            uploads.addAndGet(entries.size());
+            callback.onSuccess();
+        }, new UploadScheduler(1000), 1, 5, 20);
+        drain.setCommitter((batch, references, callback) -> {
+            // The first two commits fail, as if the database were unreachable
+            if (commitAttempts.incrementAndGet() <= 2) {
+                callback.onFailure(new IOException("offline"));
+                return;
+            }
+            synchronized (committed) {
+                for (List<JournalEntry> entries : batch) {
+                    committed.add(entries.get(0).getName());
+                }
+                if (committed.size() == 3) {
+                    done.countDown();
+                }
+            }
+            callback.onSuccess();
+        }, 16, 0, 0);
+        drain.start();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        drain.shutdown();
+        assertEquals(3, uploads.get());
+        assertEquals(2, drain.getFailedCommits());
+        synchronized (committed) {
+            assertTrue(committed.containsAll(Arrays.asList("e0", "e1", "e2")));
+            assertEquals(3, committed.size());
+        }
+    }
+
+    @Test
+    public void batchesReferencesAfterTheirOriginal() throws IOException, InterruptedException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        journal.open();
+        journal.append("original", 0, new byte[100], 100, null, 0);
+        journal.close();
+
+        List<String> commits = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+        CountDownLatch uploadStarted = new CountDownLatch(1);
+        List<JournalUploader.Callback> uploads = new ArrayList<>();
+        JournalDrain drain = new JournalDrain(new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16), (entries, callback) -> {
+            synchronized (uploads) {
+                uploads.add(callback);
+            }
+            uploadStarted.countDown();
+        }, new UploadScheduler(1000), 1, 5, 20);
+        drain.setCommitter((batch, references, callback) -> {
+            synchronized (commits) {
+                commits.add(batch.size() + " uploads, " + references.size() + " references");
+                for (JournalReference reference : references) {
+                    assertEquals("original", reference.getOriginal().getName());
+                }
+            }
+            callback.onSuccess();
+            done.countDown();
+        }, 16, 0, 200);
+        drain.start();
+        assertTrue(uploadStarted.await(5, TimeUnit.SECONDS));
+        // A person standing still: every frame duplicates the same original, still uploading
+        for (int i = 0; i < 10; i++) {
+            drain.submitReference(new JournalReference("d" + i, i + 1, "original"));
+        }
+        drain.submitReference(new JournalReference("lost", 20, "never-journaled"));
+        Thread.sleep(300);
+        synchronized (commits) {
+            assertTrue(commits.isEmpty());
+        }
+        synchronized (uploads) {
+            uploads.get(0).onSuccess();
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        drain.shutdown();
+        synchronized (commits) {
+            assertEquals(Arrays.asList("1 uploads, 0 references", "0 uploads, 10 references"), commits);
+        }
+        assertEquals(1, drain.getDroppedReferences());
+    }
+}
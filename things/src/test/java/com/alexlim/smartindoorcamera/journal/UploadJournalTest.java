@@ -0,0 +1,121 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamsImageAndThumbnailBack() throws IOException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        journal.open();
+
+        JournalEntry entry = journal.append("1_2", 1000, bytes(300, 7), 300, bytes(40, 9), 40);
+        assertEquals("1_2", entry.getName());
+        assertTrue(entry.hasThumbnail());
+        assertArrayEquals(bytes(300, 7), readAll(entry.openImageStream()));
+        assertArrayEquals(bytes(40, 9), readAll(entry.openThumbnailStream()));
+    }
+
+    @Test
+    public void recoversUnackedEntriesAfterRestart() throws IOException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        journal.open();
+        JournalEntry first = journal.append("a", 1, bytes(100, 1), 100, null, 0);
+        journal.append("b", 2, bytes(100, 2), 100, null, 0);
+        journal.ack(first);
+        journal.close();
+
+        UploadJournal reopened = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        List<JournalEntry> pending = reopened.open();
+        assertEquals(1, pending.size());
+        assertEquals("b", pending.get(0).getName());
+        assertEquals(2, pending.get(0).getCaptureTimeMillis());
+        assertFalse(pending.get(0).hasThumbnail());
+        assertArrayEquals(bytes(100, 2), readAll(pending.get(0).openImageStream()));
+    }
+
+    @Test
+    public void deletesFullyAckedSegments() throws IOException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 150);
+        journal.open();
+        JournalEntry first = journal.append("a", 1, bytes(200, 1), 200, null, 0);
+        assertEquals(2, journal.getSegmentCount());
+
+        journal.ack(first);
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(0, journal.getSizeInBytes());
+        assertEquals(1, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void evictsOldestSegmentOverCap() throws IOException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 500, 150);
+        journal.open();
+        JournalEntry first = journal.append("a", 1, bytes(200, 1), 200, null, 0);
+        for (int i = 0; i < 2; i++) {
+            journal.append("b" + i, 2, bytes(200, 2), 200, null, 0);
+        }
+
+        assertTrue(first.isEvicted());
+        assertEquals(1, journal.getEvicted());
+        assertTrue(journal.getSizeInBytes() <= 500);
+        journal.ack(first);
+        assertEquals(0, journal.getAcked());
+    }
+
+    @Test
+    public void stopsAtTornRecord() throws IOException {
+        UploadJournal journal = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        journal.open();
+        journal.append("a", 1, bytes(100, 1), 100, null, 0);
+        journal.append("b", 2, bytes(100, 2), 100, null, 0);
+        journal.close();
+
+        File segment = folder.getRoot().listFiles((dir, name) -> name.endsWith(".seg"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+
+        UploadJournal reopened = new UploadJournal(folder.getRoot(), 1 << 20, 1 << 16);
+        List<JournalEntry> pending = reopened.open();
+        assertEquals(1, pending.size());
+        assertEquals("a", pending.get(0).getName());
+        assertEquals(1, reopened.getCorrupt());
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (value + i);
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            out.write(chunk, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,138 @@
+package com.alexlim.smartindoorcamera.journal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UploadSchedulerTest {
+
+    @Test
+    public void newestFrameOfEachEventGoesFirst() {
+        UploadScheduler scheduler = new UploadScheduler(1000);
+        JournalEntry a1 = entry("a1", 0);
+        JournalEntry a2 = entry("a2", 500);
+        JournalEntry a3 = entry("a3", 900);
+        JournalEntry b1 = entry("b1", 5000);
+        JournalEntry b2 = entry("b2", 5400);
+        for (JournalEntry entry : new JournalEntry[]{a1, a2, a3, b1, b2}) {
+            scheduler.add(entry);
+        }
+
+        assertSame(b2, next(scheduler));
+        assertSame(a3, next(scheduler));
+        // Then backfill, oldest first
+        assertSame(a1, next(scheduler));
+        assertSame(a2, next(scheduler));
+        assertSame(b1, next(scheduler));
+        assertNull(next(scheduler));
+        assertEquals(5, scheduler.getInFlight());
+    }
+
+    @Test
+    public void newerFrameTakesOverLead() {
+        UploadScheduler scheduler = new UploadScheduler(1000);
+        JournalEntry first = entry("first", 0);
+        scheduler.add(first);
+        assertSame(first, next(scheduler));
+
+        JournalEntry second = entry("second", 100);
+        JournalEntry third = entry("third", 200);
+        scheduler.add(second);
+        scheduler.add(third);
+        assertSame(third, next(scheduler));
+        assertSame(second, next(scheduler));
+    }
+
+    @Test
+    public void failedLeadKeepsItsPlace() {
+        UploadScheduler scheduler = new UploadScheduler(1000);
+        JournalEntry old = entry("old", 0);
+        JournalEntry lead = entry("lead", 10_000);
+        scheduler.add(old);
+        scheduler.add(lead);
+        assertSame(lead, next(scheduler));
+
+        scheduler.retry(Collections.singletonList(lead));
+        assertSame(lead, next(scheduler));
+        assertSame(old, next(scheduler));
+    }
+
+    @Test
+    public void skipsEvictedEntries() {
+        UploadScheduler scheduler = new UploadScheduler(1000);
+        JournalEntry evicted = entry("evicted", 0);
+        evicted.setEvicted();
+        scheduler.add(evicted);
+        assertNull(next(scheduler));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void measuresWaitAndThroughput() throws InterruptedException {
+        UploadScheduler scheduler = new UploadScheduler(1000);
+        JournalEntry entry = entry("a", 0);
+        scheduler.add(entry);
+        List<JournalEntry> batch = scheduler.poll(0);
+        assertEquals(Collections.singletonList(entry), batch);
+        Thread.sleep(10);
+        scheduler.onUploaded(batch);
+
+        assertEquals(1, scheduler.getWaitTime().getCount());
+        assertEquals(1, scheduler.getUploadTime().getCount());
+        assertEquals(0, scheduler.getInFlight());
+        assertTrue(scheduler.getPerUploadBytesPerSecond() > 0);
+        assertTrue(scheduler.getAggregateBytesPerSecond() > 0);
+        assertTrue(scheduler.getPerUploadBytesPerSecond() < 1000 * 1000 / 10 + 1);
+    }
+
+    @Test
+    public void bundlesEventOnceItCloses() {
+        UploadScheduler scheduler = new UploadScheduler(1000, true);
+        JournalEntry a1 = entry("a1", 0);
+        JournalEntry a2 = entry("a2", 500);
+        JournalEntry b1 = entry("b1", 5000);
+        scheduler.add(a1);
+        scheduler.add(a2);
+        scheduler.add(b1);
+
+        // b is still open at 5500, a closed when b started
+        assertEquals(Arrays.asList(a1, a2), scheduler.poll(5500));
+        assertNull(scheduler.poll(5500));
+        assertEquals(501, scheduler.getNextEventCloseDelay(5500));
+        assertEquals(Collections.singletonList(b1), scheduler.poll(6001));
+        assertEquals(-1, scheduler.getNextEventCloseDelay(6001));
+    }
+
+    @Test
+    public void failedBundleGoesBackWhole() {
+        UploadScheduler scheduler = new UploadScheduler(1000, true);
+        JournalEntry a1 = entry("a1", 0);
+        JournalEntry a2 = entry("a2", 500);
+        scheduler.add(a1);
+        scheduler.add(a2);
+
+        List<JournalEntry> bundle = scheduler.poll(2000);
+        scheduler.retry(bundle);
+        assertEquals(Arrays.asList(a1, a2), scheduler.poll(2000));
+    }
+
+    private static JournalEntry next(UploadScheduler scheduler) {
+        List<JournalEntry> next = scheduler.poll(0);
+        if (next == null) {
+            return null;
+        }
+        assertEquals(1, next.size());
+        return next.get(0);
+    }
+
+    private static JournalEntry entry(String name, long captureTimeMillis) {
+        return new JournalEntry(null, 0, name, captureTimeMillis, 0, 1000, 0);
+    }
+}
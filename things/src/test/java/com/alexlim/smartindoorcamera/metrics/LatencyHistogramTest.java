@@ -0,0 +1,52 @@
+package com.alexlim.smartindoorcamera.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesContiguously() {
+        for (long micros = 0; micros < 1_000_000; micros += 7) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(micros <= LatencyHistogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(micros > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.recordMicros(millis * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getPercentileMillis(50), 500 * 0.07);
+        assertEquals(990, histogram.getPercentileMillis(99), 990 * 0.07);
+        assertEquals(1000, histogram.getPercentileMillis(100), 0.001);
+        assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        assertEquals(0, histogram.getPercentileMillis(99), 0);
+    }
+
+    @Test
+    public void traceRecordsEachStageOnce() {
+        LatencyTracker tracker = new LatencyTracker();
+        MotionTrace trace = tracker.startEvent();
+        trace.stamp(MotionTrace.Stage.IMAGE_AVAILABLE);
+        trace.stamp(MotionTrace.Stage.IMAGE_AVAILABLE);
+
+        assertEquals(1, tracker.getHistogram(MotionTrace.Stage.IMAGE_AVAILABLE).getCount());
+        assertEquals(0, tracker.getHistogram(MotionTrace.Stage.UPLOAD_DONE).getCount());
+        assertTrue(trace.getStamp(MotionTrace.Stage.IMAGE_AVAILABLE) >= trace.getStamp(MotionTrace.Stage.GPIO_EDGE));
+    }
+}
@@ -0,0 +1,104 @@
+package com.alexlim.smartindoorcamera.pipeline;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineStageTest {
+
+    @Test
+    public void processesSubmittedItems() throws Exception {
+        CountDownLatch done = new CountDownLatch(10);
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 2, 4,
+                PipelineStage.OverflowPolicy.BLOCK, item -> done.countDown(), null);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(stage.submit(i));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        stage.shutdown();
+        assertEquals(0, stage.getDropped());
+    }
+
+    @Test
+    public void dropNewestRejectsWhenFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<Integer> dropped = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 1, 2,
+                PipelineStage.OverflowPolicy.DROP_NEWEST, item -> {
+                    started.countDown();
+                    release.await();
+                }, dropped::add);
+
+        stage.submit(0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(stage.submit(1));
+        assertTrue(stage.submit(2));
+        assertFalse(stage.submit(3));
+
+        assertEquals(2, stage.getQueueDepth());
+        assertEquals(1, dropped.size());
+        assertEquals(3, (int) dropped.get(0));
+        release.countDown();
+        stage.shutdown();
+    }
+
+    @Test
+    public void dropOldestEvictsHead() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<Integer> dropped = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 1, 2,
+                PipelineStage.OverflowPolicy.DROP_OLDEST, item -> {
+                    started.countDown();
+                    release.await();
+                }, dropped::add);
+
+        stage.submit(0);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        stage.submit(1);
+        stage.submit(2);
+        assertTrue(stage.submit(3));
+
+        assertEquals(1, dropped.size());
+        assertEquals(1, (int) dropped.get(0));
+        release.countDown();
+        stage.shutdown();
+    }
+
+    @Test
+    public void failedItemGoesToDropListener() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        CountDownLatch processed = new CountDownLatch(1);
+        List<Integer> dropped = new CopyOnWriteArrayList<>();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 1, 2,
+                PipelineStage.OverflowPolicy.BLOCK, item -> {
+                    if (item == 7) {
+                        throw new IllegalStateException("decode failed");
+                    }
+                    processed.countDown();
+                }, item -> {
+                    dropped.add(item);
+                    done.countDown();
+                });
+
+        stage.submit(7);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // The worker thread outlives the failure
+        stage.submit(8);
+        assertTrue(processed.await(5, TimeUnit.SECONDS));
+        stage.shutdown();
+        assertEquals(1, dropped.size());
+        assertEquals(7, (int) dropped.get(0));
+        assertEquals(1, stage.getFailed());
+        assertEquals(1, stage.getDropped());
+    }
+}
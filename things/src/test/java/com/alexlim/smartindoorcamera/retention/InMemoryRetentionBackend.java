@@ -0,0 +1,96 @@
+package com.alexlim.smartindoorcamera.retention;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Logs and objects kept in memory, for running the retention policy without Firebase.
+ */
+class InMemoryRetentionBackend implements RetentionBackend {
+    final Map<String, FirebaseImageLog> logs = new HashMap<>();
+    final Set<String> objects = new HashSet<>();
+    int logWrites;
+    int objectDeletes;
+    int downscales;
+
+    void addFrame(String name, long timestamp, boolean withThumbnail) {
+        String imageRef = "/motion/" + StoragePaths.image(name, timestamp);
+        String thumbnailRef = withThumbnail ? "/motion/" + StoragePaths.thumbnail(name, timestamp) : null;
+        objects.add(imageRef);
+        if (thumbnailRef != null) {
+            objects.add(thumbnailRef);
+        }
+        logs.put(name, new FirebaseImageLog(timestamp, imageRef, thumbnailRef));
+    }
+
+    /**
+     * A duplicate as the camera writes it, with paths worked out from its original's name and capture
+     * time, so they go stale once the original is compacted.
+     */
+    void addDuplicate(String name, long timestamp, String original, boolean withThumbnail) {
+        long originalTimestamp = logs.get(original).getTimestamp();
+        String thumbnailRef = withThumbnail ? "/motion/" + StoragePaths.thumbnail(original, originalTimestamp) : null;
+        logs.put(name, new FirebaseImageLog(timestamp, "/motion/" + StoragePaths.image(original, originalTimestamp),
+                thumbnailRef, 0, original));
+    }
+
+    @Override
+    public Map<String, FirebaseImageLog> listLogs(long fromMillis, String fromName, long beforeMillis, int limit) {
+        List<Map.Entry<String, FirebaseImageLog>> matching = new ArrayList<>();
+        for (Map.Entry<String, FirebaseImageLog> entry : logs.entrySet()) {
+            long timestamp = entry.getValue().getTimestamp();
+            boolean started = timestamp > fromMillis
+                    || (timestamp == fromMillis && (fromName == null || entry.getKey().compareTo(fromName) >= 0));
+            if (started && timestamp < beforeMillis) {
+                matching.add(entry);
+            }
+        }
+        matching.sort((a, b) -> a.getValue().getTimestamp() != b.getValue().getTimestamp()
+                ? Long.compare(a.getValue().getTimestamp(), b.getValue().getTimestamp())
+                : a.getKey().compareTo(b.getKey()));
+        Map<String, FirebaseImageLog> page = new LinkedHashMap<>();
+        for (Map.Entry<String, FirebaseImageLog> entry : matching.subList(0, Math.min(limit, matching.size()))) {
+            page.put(entry.getKey(), entry.getValue());
+        }
+        return page;
+    }
+
+    @Override
+    public FirebaseImageLog getLog(String name) {
+        return logs.get(name);
+    }
+
+    @Override
+    public void rewriteLogs(Map<String, FirebaseImageLog> changes) {
+        logWrites++;
+        logs.putAll(changes);
+    }
+
+    @Override
+    public void deleteLogs(Map<String, FirebaseImageLog> deleted) {
+        logWrites++;
+        logs.keySet().removeAll(deleted.keySet());
+    }
+
+    @Override
+    public void deleteObject(String path) {
+        objectDeletes++;
+        objects.remove(path);
+    }
+
+    @Override
+    public void downscale(String imageRef, String targetRef) {
+        downscales++;
+        if (!objects.contains(imageRef)) {
+            throw new IllegalStateException("Missing " + imageRef);
+        }
+        objects.add(targetRef);
+    }
+}
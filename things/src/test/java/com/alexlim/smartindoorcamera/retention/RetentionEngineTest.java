@@ -0,0 +1,197 @@
+package com.alexlim.smartindoorcamera.retention;
+
+import com.alexlim.smartindoorcamera.model.FirebaseImageLog;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionEngineTest {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long NOW = 100 * DAY;
+    private static final long MAX_DUPLICATE_AGE = 30_000;
+
+    private final InMemoryRetentionBackend backend = new InMemoryRetentionBackend();
+    private final List<Integer> writesPerBatch = new ArrayList<>();
+    private final RetentionEngine engine = new RetentionEngine(backend, 7 * DAY, 30 * DAY, 10, 1000, MAX_DUPLICATE_AGE) {
+        @Override
+        void pause(long millis) {
+            writesPerBatch.add(backend.objectDeletes);
+        }
+    };
+
+    @Test
+    public void keepsRecentFramesAtFullResolution() throws IOException {
+        backend.addFrame("recent", NOW - DAY, true);
+        engine.runOnce(NOW);
+
+        FirebaseImageLog log = backend.logs.get("recent");
+        assertFalse(log.getImageRef().equals(log.getThumbnailRef()));
+        assertEquals(2, backend.objects.size());
+    }
+
+    @Test
+    public void replacesOlderFramesWithThumbnails() throws IOException {
+        backend.addFrame("old", NOW - 10 * DAY, true);
+        String thumbnailRef = backend.logs.get("old").getThumbnailRef();
+        engine.runOnce(NOW);
+
+        FirebaseImageLog log = backend.logs.get("old");
+        assertEquals(thumbnailRef, log.getImageRef());
+        assertEquals(thumbnailRef, log.getThumbnailRef());
+        assertEquals(1, backend.objects.size());
+        assertTrue(backend.objects.contains(thumbnailRef));
+        assertEquals(1, engine.getCompactedFrames());
+
+        // Already compacted frames are left alone
+        engine.runOnce(NOW);
+        assertEquals(1, engine.getCompactedFrames());
+    }
+
+    @Test
+    public void downscalesFramesWithoutThumbnail() throws IOException {
+        backend.addFrame("bare", NOW - 10 * DAY, false);
+        String imageRef = backend.logs.get("bare").getImageRef();
+        engine.runOnce(NOW);
+
+        FirebaseImageLog log = backend.logs.get("bare");
+        assertEquals(StoragePaths.downscaled(imageRef), log.getImageRef());
+        assertFalse(backend.objects.contains(imageRef));
+        assertTrue(backend.objects.contains(log.getImageRef()));
+        assertEquals(1, backend.downscales);
+    }
+
+    @Test
+    public void deletesExpiredFramesAndTheirObjects() throws IOException {
+        backend.addFrame("expired", NOW - 40 * DAY, true);
+        backend.addDuplicate("duplicate", NOW - 40 * DAY + 1, "expired", true);
+        engine.runOnce(NOW);
+
+        assertNull(backend.logs.get("expired"));
+        assertNull(backend.logs.get("duplicate"));
+        assertTrue(backend.objects.isEmpty());
+        // The duplicate's references aren't its own to delete
+        assertEquals(2, backend.objectDeletes);
+        assertEquals(2, engine.getDeletedFrames());
+    }
+
+    @Test
+    public void deletesExpiredLogsWithoutAnImage() throws IOException {
+        for (int i = 0; i < 15; i++) {
+            backend.logs.put("empty" + i, new FirebaseImageLog(NOW - 40 * DAY + i, null));
+        }
+        backend.addFrame("expired", NOW - 40 * DAY + 20, true);
+        backend.logs.put("recent", new FirebaseImageLog(NOW - 10 * DAY, null));
+        engine.runOnce(NOW);
+
+        assertEquals(1, backend.logs.size());
+        assertTrue(backend.objects.isEmpty());
+        assertEquals(16, engine.getDeletedFrames());
+        assertEquals(0, engine.getCompactedFrames());
+    }
+
+    @Test
+    public void duplicatesFollowTheirOriginalToItsThumbnail() throws IOException {
+        backend.addFrame("original", NOW - 10 * DAY, true);
+        backend.addDuplicate("duplicate", NOW - 10 * DAY + 1, "original", true);
+        engine.runOnce(NOW);
+
+        FirebaseImageLog duplicate = backend.logs.get("duplicate");
+        assertEquals(backend.logs.get("original").getImageRef(), duplicate.getImageRef());
+        assertEquals("original", duplicate.getDuplicateOf());
+        assertTrue(backend.objects.contains(duplicate.getImageRef()));
+    }
+
+    @Test
+    public void duplicatesFollowTheirOriginalToItsDownscaledCopy() throws IOException {
+        backend.addFrame("bare", NOW - 10 * DAY, false);
+        backend.addDuplicate("duplicate", NOW - 10 * DAY + 1, "bare", false);
+        // Written before duplicates copied their original's thumbnail, so it names nothing
+        backend.addDuplicate("stale", NOW - 10 * DAY + 2, "bare", true);
+        engine.runOnce(NOW);
+
+        String downscaled = backend.logs.get("bare").getImageRef();
+        for (String name : new String[]{"duplicate", "stale"}) {
+            FirebaseImageLog duplicate = backend.logs.get(name);
+            assertEquals(downscaled, duplicate.getImageRef());
+            assertEquals(downscaled, duplicate.getThumbnailRef());
+            assertTrue(backend.objects.contains(duplicate.getImageRef()));
+        }
+        assertEquals(3, engine.getCompactedFrames());
+    }
+
+    @Test
+    public void duplicatesJustInsideTheRetentionCutoffGoWithTheirOriginal() throws IOException {
+        backend.addFrame("expired", NOW - 30 * DAY - 1000, true);
+        backend.addDuplicate("duplicate", NOW - 30 * DAY + 1000, "expired", true);
+        backend.addFrame("kept", NOW - 30 * DAY + 2000, true);
+        backend.addDuplicate("keptDuplicate", NOW - 30 * DAY + 3000, "kept", true);
+        engine.runOnce(NOW);
+
+        assertNull(backend.logs.get("expired"));
+        assertNull(backend.logs.get("duplicate"));
+        assertEquals(backend.logs.get("kept").getImageRef(), backend.logs.get("keptDuplicate").getImageRef());
+        assertNoLogPointsAtNothing();
+    }
+
+    @Test
+    public void duplicatesJustInsideTheCompactionCutoffFollowTheirOriginal() throws IOException {
+        backend.addFrame("original", NOW - 7 * DAY - 1000, false);
+        backend.addDuplicate("duplicate", NOW - 7 * DAY + 1000, "original", false);
+        // Just inside the cutoff, so it and its duplicate keep full resolution
+        backend.addFrame("recent", NOW - 7 * DAY + 2000, true);
+        backend.addDuplicate("recentDuplicate", NOW - 7 * DAY + 3000, "recent", true);
+        String recentImageRef = backend.logs.get("recent").getImageRef();
+        engine.runOnce(NOW);
+
+        String downscaled = backend.logs.get("original").getImageRef();
+        assertEquals(downscaled, backend.logs.get("duplicate").getImageRef());
+        assertEquals(recentImageRef, backend.logs.get("recent").getImageRef());
+        assertEquals(recentImageRef, backend.logs.get("recentDuplicate").getImageRef());
+        assertNoLogPointsAtNothing();
+    }
+
+    private void assertNoLogPointsAtNothing() {
+        for (FirebaseImageLog log : backend.logs.values()) {
+            assertTrue(log.getImageRef(), backend.objects.contains(log.getImageRef()));
+            assertTrue(log.getThumbnailRef() == null || backend.objects.contains(log.getThumbnailRef()));
+        }
+    }
+
+    @Test
+    public void batchesAndPacesWork() throws IOException {
+        for (int i = 0; i < 95; i++) {
+            backend.addFrame("expired" + i, NOW - 40 * DAY + i, true);
+        }
+        // Same timestamp across a page boundary must not stall or skip
+        for (int i = 0; i < 25; i++) {
+            backend.addFrame("old" + i, NOW - 10 * DAY, true);
+        }
+        engine.runOnce(NOW);
+
+        assertEquals(95, engine.getDeletedFrames());
+        assertEquals(25, engine.getCompactedFrames());
+        // 10 logs per batch, one log write each
+        assertEquals(10 + 3, backend.logWrites);
+        int previous = 0;
+        for (int deletes : writesPerBatch) {
+            assertTrue("deletes between pauses " + (deletes - previous), deletes - previous <= 2 * 10);
+            previous = deletes;
+        }
+    }
+
+    @Test
+    public void dateShardedPaths() {
+        long time = 1_560_000_000_000L;
+        String day = StoragePaths.dayKey(time);
+        assertEquals("images/" + day.replace('-', '/') + "/" + time + "_1.jpg", StoragePaths.image(time + "_1", time));
+        assertEquals(time, StoragePaths.captureTimeOf(time + "_1"));
+    }
+}